@@ -7,6 +7,7 @@ plugins {
     id("org.springframework.boot") version "3.4.5"
     id("io.spring.dependency-management") version "1.1.6"
     id("org.flywaydb.flyway") version "11.1.0"
+    id("me.champeau.jmh") version "0.7.2"
     jacoco
 }
 
@@ -30,6 +31,7 @@ dependencies {
     implementation("org.springframework.boot:spring-boot-starter-web")
     implementation("org.springframework.boot:spring-boot-starter-log4j2")
     implementation("org.springframework.boot:spring-boot-starter-jdbc")
+    implementation("org.springframework.boot:spring-boot-starter-actuator")
     configurations {
         // Replace the default spring logger.
         // https://docs.spring.io/spring-boot/how-to/logging.html#howto.logging.log4j
@@ -42,9 +44,18 @@ dependencies {
     implementation("com.azure:azure-security-keyvault-secrets:4.9.1")
     implementation("com.azure:azure-identity:1.14.2")
 
+    // Compact /ratings responses (application/cbor)
+    implementation("com.fasterxml.jackson.dataformat:jackson-dataformat-cbor")
+
     // Database
     implementation("org.postgresql:postgresql")
 
+    // Caching
+    implementation("com.github.ben-manes.caffeine:caffeine")
+
+    // Metrics
+    implementation("io.micrometer:micrometer-registry-prometheus")
+
     // Testing Libraries
     testImplementation("org.junit.jupiter:junit-jupiter")
     testRuntimeOnly("org.junit.platform:junit-platform-launcher")
@@ -67,9 +78,32 @@ tasks.withType<Test> {
 }
 
 tasks.test {
+    useJUnitPlatform {
+        excludeTags("benchmark") // See loadBenchmark
+    }
     finalizedBy(tasks.jacocoTestReport) // report is always generated after tests run
 }
 
+// End-to-end benchmarks (tagged "benchmark"): ingest + API load on a synthetic
+// IMDB-sized dataset, platform vs virtual threads under slow OMDB calls, and
+// read latency while a SHADOW ingest runs.
+// Sizes are set with -Pbenchmark.shows=..., -Pbenchmark.episodes=..., etc. and
+// any -Pimdbgraph.* property overrides the app config for the run. Results are
+// written to build/results/.
+val loadBenchmark by tasks.registering(Test::class) {
+    description = "Runs the end-to-end load benchmarks."
+    group = "verification"
+    testClassesDirs = sourceSets.test.get().output.classesDirs
+    classpath = sourceSets.test.get().runtimeClasspath
+    useJUnitPlatform {
+        includeTags("benchmark")
+    }
+    maxHeapSize = "4g"
+    systemProperties(project.properties.filterKeys { it.startsWith("benchmark.") || it.startsWith("imdbgraph.") })
+    testLogging.showStandardStreams = true
+    outputs.upToDateWhen { false }
+}
+
 tasks.jacocoTestReport {
     dependsOn(tasks.test) // tests are required to run before generating the report
 }
@@ -86,6 +120,17 @@ tasks.named<BootBuildImage>("bootBuildImage") {
     }
 }
 
+// Microbenchmarks (src/jmh). Run with ./gradlew jmh, or only some of them with
+// ./gradlew jmh -PjmhIncludes=RatingsBenchmark. Results are written as JSON so
+// runs from different commits can be compared (e.g. on jmh.morethan.io).
+jmh {
+    jmhVersion = "1.37"
+    profilers = listOf("gc")
+    resultFormat = "JSON"
+    resultsFile = layout.buildDirectory.file("results/jmh/results.json")
+    (findProperty("jmhIncludes") as String?)?.let { includes = listOf(it) }
+}
+
 tasks.bootRun {
     args("--spring.profiles.active=dev")
 }
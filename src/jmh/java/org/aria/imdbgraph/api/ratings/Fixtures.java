@@ -0,0 +1,90 @@
+package org.aria.imdbgraph.api.ratings;
+
+import org.aria.imdbgraph.api.ratings.json.Episode;
+import org.aria.imdbgraph.api.ratings.json.Show;
+
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetMetaDataImpl;
+import javax.sql.rowset.RowSetProvider;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Data shaped like real shows for the benchmarks.
+ */
+final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    static Show show() {
+        return new Show("tt0944947", "Game of Thrones", "2011", "2019", 9.2, 2377099);
+    }
+
+    /**
+     * Episodes of a show ordered by season and episode, like the database
+     * returns them. 10 episodes is a miniseries (one season), 500 a long
+     * running sitcom (20 seasons of 25) and 15,000 a daily soap (60 seasons
+     * of 250).
+     */
+    static List<Episode> episodes(int count) {
+        int perSeason = count <= 10 ? count : count <= 500 ? 25 : 250;
+        Random random = new Random(count); // Same data on every run.
+        List<Episode> episodes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            episodes.add(new Episode(
+                    "Episode #" + (i / perSeason + 1) + "." + (i % perSeason + 1),
+                    i / perSeason + 1,
+                    i % perSeason + 1,
+                    Math.round(50 + random.nextDouble() * 45) / 10.0,
+                    random.nextInt(50_000)
+            ));
+        }
+        return episodes;
+    }
+
+    /**
+     * A result set positioned on a single row, held in memory by the JDK's
+     * {@link CachedRowSet}. Columns are looked up by label and values
+     * converted like a driver does, with no database round trip.
+     */
+    static ResultSet row(Map<String, Object> columns) throws SQLException {
+        RowSetMetaDataImpl metaData = new RowSetMetaDataImpl();
+        metaData.setColumnCount(columns.size());
+        int column = 1;
+        for (Map.Entry<String, Object> entry : columns.entrySet()) {
+            metaData.setColumnName(column, entry.getKey());
+            metaData.setColumnType(column, sqlType(entry.getValue()));
+            metaData.setNullable(column, ResultSetMetaData.columnNullable);
+            column++;
+        }
+
+        CachedRowSet rows = RowSetProvider.newFactory().createCachedRowSet();
+        rows.setMetaData(metaData);
+        rows.moveToInsertRow();
+        column = 1;
+        for (Object value : columns.values()) {
+            rows.updateObject(column++, value);
+        }
+        rows.insertRow();
+        rows.moveToCurrentRow();
+        rows.beforeFirst();
+        rows.next();
+        return rows;
+    }
+
+    private static int sqlType(Object value) {
+        return switch (value) {
+            case Integer _ -> Types.INTEGER;
+            case Long _ -> Types.BIGINT;
+            case Double _ -> Types.DOUBLE;
+            case null, default -> Types.VARCHAR;
+        };
+    }
+}
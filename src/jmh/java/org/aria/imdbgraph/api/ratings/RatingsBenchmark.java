@@ -0,0 +1,90 @@
+package org.aria.imdbgraph.api.ratings;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.aria.imdbgraph.api.ratings.json.Episode;
+import org.aria.imdbgraph.api.ratings.json.Ratings;
+import org.aria.imdbgraph.api.ratings.json.Show;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of building a {@link Ratings} response and serializing it, for shows of
+ * different lengths.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RatingsBenchmark {
+
+    @Param({"10", "500", "15000"})
+    private int episodeCount;
+
+    private Show show;
+    private List<Episode> episodes;
+    private Ratings ratings;
+
+    // Configured the same way as the one Spring Boot creates.
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+    @Setup
+    public void setUp() {
+        show = Fixtures.show();
+        episodes = Fixtures.episodes(episodeCount);
+        ratings = new Ratings(show, episodes);
+    }
+
+    /**
+     * Building the Ratings from episode records.
+     */
+    @Benchmark
+    public Ratings groupBySeason() {
+        return new Ratings(show, episodes);
+    }
+
+    /**
+     * Creating the episode records, including their validation.
+     */
+    @Benchmark
+    public void createEpisodes(Blackhole blackhole) {
+        for (Episode e : episodes) {
+            blackhole.consume(new Episode(
+                    e.episodeTitle(),
+                    e.season(),
+                    e.episodeNumber(),
+                    e.imdbRating(),
+                    e.numVotes()
+            ));
+        }
+    }
+
+    @Benchmark
+    public byte[] serialize() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(ratings);
+    }
+
+    /**
+     * Everything done for a request once the rows are loaded.
+     */
+    @Benchmark
+    public byte[] groupAndSerialize() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(new Ratings(show, episodes));
+    }
+}
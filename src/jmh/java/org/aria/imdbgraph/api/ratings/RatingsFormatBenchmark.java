@@ -0,0 +1,101 @@
+package org.aria.imdbgraph.api.ratings;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.aria.imdbgraph.api.ratings.json.Ratings;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Cost of serializing a {@link Ratings} response in every
+ * {@link RatingsFormat}, the way {@link RatingsResponseCache} does it. Payload
+ * sizes (raw and gzipped) are recorded by {@link #payloadSize} as secondary
+ * results, so they end up in the results file next to the timings.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RatingsFormatBenchmark {
+
+    @Param({"10", "500", "15000"})
+    private int episodeCount;
+
+    @Param({"JSON", "COLUMNAR_JSON", "COLUMNAR_CBOR"})
+    private RatingsFormat format;
+
+    private Ratings ratings;
+    private ObjectMapper mapper;
+
+    /**
+     * Size of one response, reported as event counters. JMH adds up event
+     * counters over iterations, so they're only recorded in one.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class PayloadSize {
+        public long payloadBytes;
+        public long gzippedBytes;
+    }
+
+    @Setup
+    public void setUp() {
+        ratings = new Ratings(Fixtures.show(), Fixtures.episodes(episodeCount));
+        mapper = format.isBinary()
+                ? Jackson2ObjectMapperBuilder.cbor().build()
+                : Jackson2ObjectMapperBuilder.json().build();
+    }
+
+    @Benchmark
+    public byte[] serialize() throws JsonProcessingException {
+        return mapper.writeValueAsBytes(format.body(ratings));
+    }
+
+    /**
+     * What a cache miss costs with pre-compression on.
+     */
+    @Benchmark
+    public byte[] serializeAndGzip() throws IOException {
+        return gzip(serialize());
+    }
+
+    /**
+     * Only here for its counters; the time is a single cold call.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    public byte[] payloadSize(PayloadSize size) throws IOException {
+        byte[] body = serialize();
+        size.payloadBytes = body.length;
+        size.gzippedBytes = gzip(body).length;
+        return body;
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4);
+        try (GZIPOutputStream gzipOut = new GZIPOutputStream(out)) {
+            gzipOut.write(bytes);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,110 @@
+package org.aria.imdbgraph.api.ratings;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.aria.imdbgraph.api.ratings.json.Episode;
+import org.aria.imdbgraph.api.ratings.json.Ratings;
+import org.aria.imdbgraph.api.ratings.json.Show;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What a request allocates between reading the episode rows and having the
+ * response body, with {@link Ratings} held as nested maps of {@link Episode}
+ * records (as it used to be) and as primitive arrays. Several threads run at
+ * once, like requests do; compare {@code gc.alloc.rate.norm} (bytes per
+ * operation) and {@code gc.count} from the gc profiler.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class RatingsLayoutBenchmark {
+
+    @Param({"10", "500", "15000"})
+    private int episodeCount;
+
+    private Show show;
+
+    // The rows, one array per column (so reading them allocates nothing).
+    private String[] titles;
+    private int[] seasons;
+    private int[] episodeNumbers;
+    private double[] imdbRatings;
+    private int[] numVotes;
+
+    // Configured the same way as the one Spring Boot creates.
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+    @Setup
+    public void setUp() {
+        show = Fixtures.show();
+        List<Episode> episodes = Fixtures.episodes(episodeCount);
+        titles = new String[episodeCount];
+        seasons = new int[episodeCount];
+        episodeNumbers = new int[episodeCount];
+        imdbRatings = new double[episodeCount];
+        numVotes = new int[episodeCount];
+        for (int i = 0; i < episodeCount; i++) {
+            Episode e = episodes.get(i);
+            titles[i] = e.episodeTitle();
+            seasons[i] = e.season();
+            episodeNumbers[i] = e.episodeNumber();
+            imdbRatings[i] = e.imdbRating();
+            numVotes[i] = e.numVotes();
+        }
+    }
+
+    /**
+     * A record per row in a list, grouped into nested maps and serialized by
+     * Jackson.
+     */
+    @Benchmark
+    public byte[] nestedMaps() throws JsonProcessingException {
+        List<Episode> episodes = new ArrayList<>();
+        for (int i = 0; i < episodeCount; i++) {
+            episodes.add(new Episode(titles[i], seasons[i], episodeNumbers[i], imdbRatings[i], numVotes[i]));
+        }
+        Map<Integer, Map<Integer, Episode>> grouped = new LinkedHashMap<>();
+        for (Episode e : episodes) {
+            grouped.computeIfAbsent(e.season(), _ -> new LinkedHashMap<>()).put(e.episodeNumber(), e);
+        }
+        Map<String, Object> ratings = new LinkedHashMap<>();
+        ratings.put("show", show);
+        ratings.put("allEpisodeRatings", grouped);
+        return objectMapper.writeValueAsBytes(ratings);
+    }
+
+    /**
+     * Rows added straight to {@link Ratings.Builder} (like RatingsDb does)
+     * and written by the custom serializer.
+     */
+    @Benchmark
+    public byte[] primitiveArrays() throws JsonProcessingException {
+        Ratings.Builder ratings = new Ratings.Builder(show, 0);
+        for (int i = 0; i < episodeCount; i++) {
+            ratings.add(titles[i], seasons[i], episodeNumbers[i], imdbRatings[i], numVotes[i]);
+        }
+        return objectMapper.writeValueAsBytes(ratings.build());
+    }
+}
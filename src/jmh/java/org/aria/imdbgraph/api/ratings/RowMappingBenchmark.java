@@ -0,0 +1,72 @@
+package org.aria.imdbgraph.api.ratings;
+
+import org.aria.imdbgraph.api.ratings.json.Episode;
+import org.aria.imdbgraph.api.ratings.json.Show;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning one database row into a record in {@link RatingsDb}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RowMappingBenchmark {
+
+    private ResultSet showRow;
+    private ResultSet episodeRow;
+
+    @Setup
+    public void setUp() throws SQLException {
+        showRow = Fixtures.row(showColumns());
+        episodeRow = Fixtures.row(episodeColumns());
+    }
+
+    @Benchmark
+    public Show mapToShow() throws SQLException {
+        return RatingsDb.mapToShow(showRow);
+    }
+
+    @Benchmark
+    public Episode mapToEpisode() throws SQLException {
+        return RatingsDb.mapToEpisode(episodeRow);
+    }
+
+    private static Map<String, Object> showColumns() {
+        Map<String, Object> columns = new HashMap<>();
+        columns.put("imdb_id", "tt0944947");
+        columns.put("primary_title", "Game of Thrones");
+        columns.put("start_year", "2011");
+        columns.put("end_year", "2019");
+        columns.put("imdb_rating", 9.2);
+        columns.put("num_votes", 2377099);
+        return columns;
+    }
+
+    private static Map<String, Object> episodeColumns() {
+        Map<String, Object> columns = new HashMap<>();
+        columns.put("episode_title", "Winter Is Coming");
+        columns.put("season_num", 1);
+        columns.put("episode_num", 1);
+        columns.put("imdb_rating", 9.1);
+        columns.put("num_votes", 36939);
+        return columns;
+    }
+}
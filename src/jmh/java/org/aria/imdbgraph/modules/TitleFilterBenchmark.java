@@ -0,0 +1,51 @@
+package org.aria.imdbgraph.modules;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of parsing and projecting rows of the IMDB titles file during ingest
+ * (see {@link TitleFilter}). The file has ~11M rows so every nanosecond here
+ * is ~11ms of ingest.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TitleFilterBenchmark {
+
+    // A show and an episode are kept, a movie and a short are dropped.
+    private final String[] rows = {
+            "tt0944947\ttvSeries\tGame of Thrones\tGame of Thrones\t0\t2011\t2019\t57\tAction,Adventure,Drama",
+            "tt1480055\ttvEpisode\tWinter Is Coming\tWinter Is Coming\t0\t2011\t\\N\t61\tAction,Adventure,Drama",
+            "tt0133093\tmovie\tThe Matrix\tThe Matrix\t0\t1999\t\\N\t136\tAction,Sci-Fi",
+            "tt0000001\tshort\tCarmencita\tCarmencita\t0\t1894\t\\N\t1\tDocumentary,Short",
+    };
+
+    private final TitleFilter filter = new TitleFilter();
+    private final StringBuilder out = new StringBuilder(1024);
+
+    @Benchmark
+    public int projectRows() throws IOException {
+        out.setLength(0);
+        int kept = 0;
+        for (String row : rows) {
+            if (filter.project(row, out)) {
+                kept++;
+            }
+        }
+        return kept;
+    }
+}
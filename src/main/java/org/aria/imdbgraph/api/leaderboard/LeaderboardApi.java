@@ -0,0 +1,86 @@
+package org.aria.imdbgraph.api.leaderboard;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.aria.imdbgraph.api.leaderboard.LeaderboardDb.Filter;
+import org.aria.imdbgraph.api.leaderboard.LeaderboardDb.InvalidCursorException;
+import org.aria.imdbgraph.api.leaderboard.LeaderboardDb.Page;
+import org.aria.imdbgraph.api.leaderboard.LeaderboardDb.RankedEpisode;
+import org.aria.imdbgraph.api.leaderboard.LeaderboardDb.RankedShow;
+import org.aria.imdbgraph.api.leaderboard.LeaderboardDb.StaleCursorException;
+import org.aria.imdbgraph.modules.ImdbDataScraper;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.function.Supplier;
+
+/**
+ * Top rated shows and episodes, optionally only of a genre, of shows that
+ * started in a decade, and with a minimum number of votes, e.g.
+ * {@code /leaderboards/shows?genre=Drama&decade=1990&minVotes=10000}.
+ * Responses are paged: pass the {@code nextCursor} of a page as
+ * {@code cursor} to get the next one.
+ */
+@RestController
+public class LeaderboardApi {
+
+    private static final Logger logger = LogManager.getLogger(LeaderboardApi.class);
+
+    private static final int MAX_PAGE_SIZE = 200;
+
+    private final LeaderboardDb leaderboardDb;
+
+    public LeaderboardApi(LeaderboardDb leaderboardDb) {
+        this.leaderboardDb = leaderboardDb;
+    }
+
+    @GetMapping(value = "/leaderboards/shows")
+    public Page<RankedShow> getTopShows(
+            @RequestParam(value = "genre", defaultValue = "") String genre,
+            @RequestParam(value = "decade", defaultValue = "0") int decade,
+            @RequestParam(value = "minVotes", defaultValue = "1000") int minVotes,
+            @RequestParam(value = "limit", defaultValue = "50") int limit,
+            @RequestParam(value = "cursor", required = false) String cursor
+    ) {
+        Filter filter = filter(genre, decade, minVotes);
+        logger.info("Returning top shows for {}", filter);
+        return read(() -> leaderboardDb.getTopShows(filter, cursor, Math.clamp(limit, 1, MAX_PAGE_SIZE)));
+    }
+
+    @GetMapping(value = "/leaderboards/episodes")
+    public Page<RankedEpisode> getTopEpisodes(
+            @RequestParam(value = "genre", defaultValue = "") String genre,
+            @RequestParam(value = "decade", defaultValue = "0") int decade,
+            @RequestParam(value = "minVotes", defaultValue = "1000") int minVotes,
+            @RequestParam(value = "limit", defaultValue = "50") int limit,
+            @RequestParam(value = "cursor", required = false) String cursor
+    ) {
+        Filter filter = filter(genre, decade, minVotes);
+        logger.info("Returning top episodes for {}", filter);
+        return read(() -> leaderboardDb.getTopEpisodes(filter, cursor, Math.clamp(limit, 1, MAX_PAGE_SIZE)));
+    }
+
+    private static Filter filter(String genre, int decade, int minVotes) {
+        if (!ImdbDataScraper.LEADERBOARD_MIN_VOTES.contains(minVotes)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "minVotes must be one of " + ImdbDataScraper.LEADERBOARD_MIN_VOTES);
+        }
+        if (decade < 0 || decade % 10 != 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "decade must be a year ending in 0");
+        }
+        return new Filter(genre, decade, minVotes);
+    }
+
+    private static <T> T read(Supplier<T> page) {
+        try {
+            return page.get();
+        } catch (StaleCursorException e) {
+            throw new ResponseStatusException(HttpStatus.GONE, e.getMessage());
+        } catch (InvalidCursorException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package org.aria.imdbgraph.api.leaderboard;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.aria.imdbgraph.api.ratings.json.Episode;
+import org.aria.imdbgraph.api.ratings.json.Show;
+import org.aria.imdbgraph.modules.ImdbDataScraper;
+import org.aria.imdbgraph.modules.ReadReplica;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcOperations;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Repository;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Reads the leaderboards built by {@link ImdbDataScraper} (the
+ * {@code imdb.top_show} and {@code imdb.top_episode} tables). Every page is a
+ * single range scan of a primary key, so it costs the same no matter how deep
+ * into a leaderboard it is.
+ * <p>
+ * Pages are linked with cursors holding the dataset version of the tables
+ * the page was read from and the last rank returned. Ranks only change when
+ * a new dataset is loaded, so paging through a leaderboard never skips or
+ * repeats an entry; a cursor from an older dataset is rejected with a
+ * {@link StaleCursorException} instead.
+ */
+@Repository
+public class LeaderboardDb {
+
+    private final NamedParameterJdbcOperations jdbc;
+    private final Timer showsTimer;
+    private final Timer episodesTimer;
+
+    public LeaderboardDb(
+            ReadReplica readReplica,
+            MeterRegistry meterRegistry
+    ) {
+        this.jdbc = readReplica.jdbc();
+        this.showsTimer = queryTimer(meterRegistry, "top_shows");
+        this.episodesTimer = queryTimer(meterRegistry, "top_episodes");
+    }
+
+    public Page<RankedShow> getTopShows(Filter filter, String cursor, int limit) {
+        String sql = """
+                SELECT dataset.version,
+                       page.rank,
+                       page.imdb_id,
+                       page.primary_title,
+                       page.start_year,
+                       page.end_year,
+                       page.imdb_rating,
+                       page.num_votes
+                FROM (SELECT COALESCE(MAX(version), 0) AS version FROM imdb.dataset_version) dataset
+                         LEFT JOIN LATERAL (SELECT *
+                                            FROM imdb.top_show
+                                            WHERE genre = :genre
+                                              AND decade = :decade
+                                              AND min_votes = :minVotes
+                                              AND rank > :after
+                                            ORDER BY rank
+                                            LIMIT :limit) page ON TRUE
+                ORDER BY page.rank;
+                """;
+        return query(showsTimer, sql, filter, cursor, limit, (rs, _) -> new RankedShow(
+                rs.getInt("rank"),
+                new Show(
+                        rs.getString("imdb_id"),
+                        rs.getString("primary_title"),
+                        rs.getString("start_year"),
+                        rs.getString("end_year"),
+                        rs.getDouble("imdb_rating"),
+                        rs.getInt("num_votes")
+                )
+        ));
+    }
+
+    public Page<RankedEpisode> getTopEpisodes(Filter filter, String cursor, int limit) {
+        String sql = """
+                SELECT dataset.version,
+                       page.rank,
+                       page.show_id,
+                       page.show_title,
+                       page.episode_title,
+                       page.season_num,
+                       page.episode_num,
+                       page.imdb_rating,
+                       page.num_votes
+                FROM (SELECT COALESCE(MAX(version), 0) AS version FROM imdb.dataset_version) dataset
+                         LEFT JOIN LATERAL (SELECT *
+                                            FROM imdb.top_episode
+                                            WHERE genre = :genre
+                                              AND decade = :decade
+                                              AND min_votes = :minVotes
+                                              AND rank > :after
+                                            ORDER BY rank
+                                            LIMIT :limit) page ON TRUE
+                ORDER BY page.rank;
+                """;
+        return query(episodesTimer, sql, filter, cursor, limit, (rs, _) -> new RankedEpisode(
+                rs.getInt("rank"),
+                rs.getString("show_id"),
+                rs.getString("show_title"),
+                new Episode(
+                        rs.getString("episode_title"),
+                        rs.getInt("season_num"),
+                        rs.getInt("episode_num"),
+                        rs.getDouble("imdb_rating"),
+                        rs.getInt("num_votes")
+                )
+        ));
+    }
+
+    /*
+     * The dataset version comes from the same statement as the page (on one
+     * row even when the page is empty), so it's the version of the
+     * leaderboard tables that were read: the ingest swaps the tables in and
+     * records the version in one transaction. DatasetVersion.current() only
+     * catches up once this node has reloaded the dataset.
+     */
+    private <T extends Ranked> Page<T> query(Timer timer, String sql, Filter filter, String cursor, int limit,
+                                             RowMapper<T> mapper) {
+        Cursor after = cursor == null ? null : Cursor.decode(cursor);
+        long[] version = {0};
+        List<T> entries = new ArrayList<>();
+        timer.record(() -> jdbc.query(sql, params(filter, after, limit), rs -> {
+            version[0] = rs.getLong("version");
+            if (rs.getObject("rank") != null) {
+                entries.add(mapper.mapRow(rs, entries.size()));
+            }
+        }));
+        if (after != null && after.version() != version[0]) {
+            throw new StaleCursorException();
+        }
+        return page(entries, version[0], limit);
+    }
+
+    private static SqlParameterSource params(Filter filter, Cursor after, int limit) {
+        return new MapSqlParameterSource()
+                .addValue("genre", filter.genre())
+                .addValue("decade", filter.decade())
+                .addValue("minVotes", filter.minVotes())
+                .addValue("after", after == null ? 0 : after.rank())
+                // One more than asked for, to know if there's a next page.
+                .addValue("limit", limit + 1);
+    }
+
+    private static <T extends Ranked> Page<T> page(List<T> entries, long version, int limit) {
+        if (entries.size() <= limit) {
+            return new Page<>(entries, null);
+        }
+        List<T> page = entries.subList(0, limit);
+        return new Page<>(page, new Cursor(version, page.getLast().rank()).encode());
+    }
+
+    private static Timer queryTimer(MeterRegistry meterRegistry, String query) {
+        return Timer.builder("imdbgraph.db.query")
+                .description("Time spent running a database query")
+                .tag("query", query)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Which leaderboard to read.
+     *
+     * @param genre    IMDB genre (e.g. "Drama"), or '' for any genre.
+     * @param decade   Decade the show started in (e.g. 1990), or 0 for any.
+     * @param minVotes One of {@link ImdbDataScraper#LEADERBOARD_MIN_VOTES}.
+     */
+    public record Filter(String genre, int decade, int minVotes) {
+    }
+
+    /**
+     * One page of a leaderboard.
+     *
+     * @param nextCursor Cursor of the next page, or null if this is the last.
+     */
+    public record Page<T extends Ranked>(List<T> entries, String nextCursor) {
+    }
+
+    public sealed interface Ranked permits RankedShow, RankedEpisode {
+        int rank();
+    }
+
+    public record RankedShow(int rank, Show show) implements Ranked {
+    }
+
+    public record RankedEpisode(int rank, String showId, String showTitle, Episode episode) implements Ranked {
+    }
+
+    /**
+     * Opaque to clients: the dataset version and the rank of the last entry
+     * of the previous page, base64 encoded.
+     */
+    private record Cursor(long version, int rank) {
+
+        String encode() {
+            byte[] bytes = (version + ":" + rank).getBytes(StandardCharsets.US_ASCII);
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        }
+
+        /**
+         * @throws InvalidCursorException If the cursor isn't one of ours.
+         */
+        static Cursor decode(String cursor) {
+            try {
+                String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.US_ASCII)
+                        .split(":");
+                if (parts.length != 2) {
+                    throw new InvalidCursorException();
+                }
+                return new Cursor(Long.parseLong(parts[0]), Integer.parseInt(parts[1]));
+            } catch (IllegalArgumentException e) { // Includes NumberFormatException
+                throw new InvalidCursorException();
+            }
+        }
+    }
+
+    public static class InvalidCursorException extends RuntimeException {
+        public InvalidCursorException() {
+            super("Invalid cursor");
+        }
+    }
+
+    /**
+     * The leaderboards were rebuilt since the cursor was handed out, so the
+     * client has to start over from the first page.
+     */
+    public static class StaleCursorException extends RuntimeException {
+        public StaleCursorException() {
+            super("Leaderboards were rebuilt since the cursor was returned");
+        }
+    }
+}
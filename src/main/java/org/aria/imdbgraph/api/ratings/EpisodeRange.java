@@ -0,0 +1,34 @@
+package org.aria.imdbgraph.api.ratings;
+
+/**
+ * Part of a show's episodes: every episode from episode {@code fromEpisode}
+ * of season {@code fromSeason} up to the end of season {@code toSeason}
+ * (both inclusive), and no more than {@code limit} of them.
+ */
+public record EpisodeRange(
+        int fromSeason,
+        int fromEpisode,
+        int toSeason,
+        int limit
+) {
+
+    public static final int FIRST_SEASON = Integer.MIN_VALUE;
+    public static final int FIRST_EPISODE = Integer.MIN_VALUE;
+    public static final int LAST_SEASON = Integer.MAX_VALUE;
+
+    public EpisodeRange {
+        if (toSeason < fromSeason) {
+            throw new IllegalArgumentException("toSeason is before fromSeason");
+        }
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
+    }
+
+    /**
+     * The range of the next page, starting at the given episode.
+     */
+    public EpisodeRange startingAt(int season, int episode) {
+        return new EpisodeRange(season, episode, toSeason, limit);
+    }
+}
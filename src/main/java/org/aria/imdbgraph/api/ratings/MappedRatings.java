@@ -0,0 +1,71 @@
+package org.aria.imdbgraph.api.ratings;
+
+import org.aria.imdbgraph.api.ratings.json.Ratings;
+import org.aria.imdbgraph.api.ratings.json.Show;
+import org.aria.imdbgraph.modules.DatasetSnapshot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * The same lookups as {@link RatingsSnapshot}, but answered from a
+ * {@link DatasetSnapshot} file mapped into memory instead of from the heap.
+ * Nothing is decoded until it's asked for, so there's nothing to load.
+ */
+final class MappedRatings {
+
+    private final DatasetSnapshot file;
+
+    MappedRatings(DatasetSnapshot file) {
+        this.file = file;
+    }
+
+    public long version() {
+        return file.version();
+    }
+
+    public Optional<Show> getShow(String showId) {
+        int i = file.indexOf(showId);
+        return i < 0 ? Optional.empty() : Optional.of(show(i));
+    }
+
+    public Optional<Ratings> getAllShowRatings(String showId) {
+        int i = file.indexOf(showId);
+        if (i < 0) {
+            return Optional.empty();
+        }
+        int first = file.firstEpisode(i);
+        int count = file.episodeCount(i);
+        Ratings.Builder ratings = new Ratings.Builder(show(i), count);
+        for (int e = first; e < first + count; e++) {
+            ratings.add(file.episodeTitle(e), file.season(e), file.episodeNumber(e), file.episodeRating(e),
+                    file.episodeVotes(e));
+        }
+        return Optional.of(ratings.build());
+    }
+
+    /**
+     * Every show in the file (used to build the search indexes).
+     */
+    public List<Show> getAllShows() {
+        List<Show> shows = new ArrayList<>(file.showCount());
+        for (int i = 0; i < file.showCount(); i++) {
+            shows.add(show(i));
+        }
+        return shows;
+    }
+
+    public int showCount() {
+        return file.showCount();
+    }
+
+    public int episodeCount() {
+        return file.episodeCount();
+    }
+
+    private Show show(int i) {
+        return new Show(file.showId(i), file.title(i), file.startYear(i), file.endYear(i), file.showRating(i),
+                file.showVotes(i));
+    }
+}
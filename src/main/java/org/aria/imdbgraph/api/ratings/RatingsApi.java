@@ -2,38 +2,218 @@ package org.aria.imdbgraph.api.ratings;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.aria.imdbgraph.api.ratings.RatingsResponseCache.CachedRatings;
+import org.aria.imdbgraph.api.ratings.json.BatchRatings;
 import org.aria.imdbgraph.api.ratings.json.Ratings;
+import org.aria.imdbgraph.api.ratings.json.RatingsSummary;
 import org.aria.imdbgraph.api.ratings.json.Show;
+import org.aria.imdbgraph.modules.ImdbDataScraper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.support.CronExpression;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 @RestController
 public class RatingsApi {
 
     private static final Logger logger = LogManager.getLogger(RatingsApi.class);
 
+    private static final int MAX_SUGGESTIONS = 20;
+
+    private static final CronExpression NEXT_UPDATE = CronExpression.parse(ImdbDataScraper.SCHEDULE);
+
     private final RatingsDb ratingsDb;
+    private final RatingsResponseCache responseCache;
+    private final Duration maxAge;
+    private final int maxBatchSize;
+    private final int maxPageSize;
 
-    public RatingsApi(RatingsDb ratingsDb) {
+    public RatingsApi(
+            RatingsDb ratingsDb,
+            RatingsResponseCache responseCache,
+            @Value("${imdbgraph.ratings.cache-max-age:1h}") Duration maxAge,
+            @Value("${imdbgraph.ratings.batch.max-size:50}") int maxBatchSize,
+            @Value("${imdbgraph.ratings.page.max-size:1000}") int maxPageSize
+    ) {
         this.ratingsDb = ratingsDb;
+        this.responseCache = responseCache;
+        this.maxAge = maxAge;
+        this.maxBatchSize = maxBatchSize;
+        this.maxPageSize = maxPageSize;
     }
 
-    @GetMapping(value = "/ratings/{showId}")
-    public Ratings getRatings(@PathVariable String showId) {
-        Optional<Ratings> ratings = ratingsDb.getAllShowRatings(showId);
+    /**
+     * Returns the ratings of a show, pre-serialized. Responses carry an ETag
+     * tied to the dataset version, so clients (and CDNs) that send it back in
+     * {@code If-None-Match} get a 304 until the next ingest.
+     * <p>
+     * JSON by default; clients can ask for a more compact format with the
+     * Accept header (see {@link RatingsFormat}). Requests for part of the
+     * show are handled by {@link #getRatingsRange}.
+     */
+    @GetMapping(value = "/ratings/{showId}", params = {"!fromSeason", "!fromEpisode", "!toSeason", "!limit"})
+    public ResponseEntity<byte[]> getRatings(
+            @PathVariable String showId,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding
+    ) {
+        RatingsFormat format = RatingsFormat.negotiate(accept);
+        Optional<CachedRatings> ratings = responseCache.get(showId, format);
         if (ratings.isEmpty()) {
             logger.info("Show not found: {}", showId);
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Show not found");
         }
-        logger.info("Returning ratings for show: {}", showId);
-        return ratings.get();
+        logger.info("Returning ratings for show: {} as {}", showId, format);
+
+        CachedRatings cached = ratings.get();
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(format.getMediaType())
+                .cacheControl(cacheControl())
+                .varyBy(HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_ENCODING);
+        if (cached.gzippedBody() != null && acceptsGzip(acceptEncoding)) {
+            return response.eTag(cached.eTag(true))
+                    .header(HttpHeaders.CONTENT_ENCODING, "gzip")
+                    .body(cached.gzippedBody());
+        }
+        return response.eTag(cached.eTag(false)).body(cached.body());
+    }
+
+    /**
+     * Returns part of the ratings of a show, for very long running shows:
+     * the episodes from {@code fromSeason} (and {@code fromEpisode}) to the
+     * end of {@code toSeason}, at most {@code limit} of them. The layout is
+     * the same as {@link #getRatings}, JSON only.
+     * <p>
+     * These responses aren't cached. {@code limit} is capped at (and
+     * defaults to) {@code imdbgraph.ratings.page.max-size}, so a request
+     * never holds more than that many episodes, however long the show is.
+     * When there are more episodes, a Link header points to the next page.
+     * <p>
+     * Only mapped when at least one of the parameters is present (the
+     * mapping of {@link #getRatings} is more specific otherwise).
+     */
+    @GetMapping(value = "/ratings/{showId}")
+    public ResponseEntity<Ratings> getRatingsRange(
+            @PathVariable String showId,
+            @RequestParam(value = "fromSeason", required = false) Integer fromSeason,
+            @RequestParam(value = "fromEpisode", required = false) Integer fromEpisode,
+            @RequestParam(value = "toSeason", required = false) Integer toSeason,
+            @RequestParam(value = "limit", required = false) Integer limit,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept
+    ) {
+        if (RatingsFormat.negotiate(accept) != RatingsFormat.JSON) {
+            throw new ResponseStatusException(HttpStatus.NOT_ACCEPTABLE, "Partial ratings are only available as JSON");
+        }
+        EpisodeRange range;
+        try {
+            range = new EpisodeRange(
+                    fromSeason != null ? fromSeason : EpisodeRange.FIRST_SEASON,
+                    fromEpisode != null ? fromEpisode : EpisodeRange.FIRST_EPISODE,
+                    toSeason != null ? toSeason : EpisodeRange.LAST_SEASON,
+                    limit != null ? Math.min(limit, maxPageSize) : maxPageSize
+            );
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+        Optional<Show> show = ratingsDb.getShow(showId);
+        if (show.isEmpty()) {
+            logger.info("Show not found: {}", showId);
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Show not found");
+        }
+        logger.info("Returning ratings for show: {} in {}", showId, range);
+
+        RatingsPage page = ratingsDb.getRatingsPage(show.get(), range);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .cacheControl(cacheControl())
+                .varyBy(HttpHeaders.ACCEPT);
+        if (page.next() != null) {
+            response.header(HttpHeaders.LINK, "<" + pageUri(page.next()) + ">; rel=\"next\"");
+        }
+        return response.body(page.ratings());
+    }
+
+    private static String pageUri(EpisodeRange range) {
+        ServletUriComponentsBuilder uri = ServletUriComponentsBuilder.fromCurrentRequest()
+                .replaceQueryParam("fromSeason", range.fromSeason())
+                .replaceQueryParam("fromEpisode", range.fromEpisode())
+                .replaceQueryParam("limit", range.limit());
+        if (range.toSeason() != EpisodeRange.LAST_SEASON) {
+            uri.replaceQueryParam("toSeason", range.toSeason());
+        }
+        return uri.build().toUriString();
+    }
+
+    /**
+     * Returns per season aggregates of a show's ratings (average, lowest and
+     * highest rating, best and worst episode, trend), for pages that don't
+     * need every episode.
+     */
+    @GetMapping(value = "/ratings/{showId}/summary")
+    public RatingsSummary getRatingsSummary(@PathVariable String showId) {
+        Optional<RatingsSummary> summary = ratingsDb.getRatingsSummary(showId);
+        if (summary.isEmpty()) {
+            logger.info("Show not found: {}", showId);
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Show not found");
+        }
+        logger.info("Returning ratings summary for show: {}", showId);
+        return summary.get();
+    }
+
+    /**
+     * Returns the ratings of several shows at once, e.g.
+     * {@code /ratings?ids=tt0903747,tt0944947}.
+     */
+    @GetMapping(value = "/ratings", params = "ids")
+    public BatchRatings getRatingsBatch(@RequestParam(value = "ids") List<String> showIds) {
+        return batch(showIds);
+    }
+
+    /**
+     * Same as {@link #getRatingsBatch(List)} with the IDs sent as a JSON array.
+     */
+    @PostMapping(value = "/ratings/batch")
+    public BatchRatings postRatingsBatch(@RequestBody List<String> showIds) {
+        return batch(showIds);
+    }
+
+    private BatchRatings batch(List<String> showIds) {
+        Set<String> uniqueIds = new LinkedHashSet<>(showIds);
+        if (uniqueIds.size() > maxBatchSize) {
+            logger.info("Rejected batch of {} shows", uniqueIds.size());
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "Too many shows requested (max " + maxBatchSize + ")");
+        }
+        Map<String, Ratings> ratings = ratingsDb.getAllShowRatings(uniqueIds);
+        List<String> notFound = new ArrayList<>();
+        for (String showId : uniqueIds) {
+            if (!ratings.containsKey(showId)) {
+                notFound.add(showId);
+            }
+        }
+        logger.info("Returning ratings for {} shows ({} not found)", ratings.size(), notFound.size());
+        return new BatchRatings(ratings, notFound);
     }
 
     @GetMapping(value = "/search")
@@ -41,4 +221,45 @@ public class RatingsApi {
         logger.info("Searching for q=\"{}\"", searchTerm);
         return ratingsDb.searchShows(searchTerm);
     }
+
+    /**
+     * Typeahead: the most voted shows with a word in their title starting with
+     * the prefix. Served from memory (unless
+     * {@code imdbgraph.search.suggest.in-memory} is off), so it's cheap enough
+     * to call on every keystroke.
+     */
+    @GetMapping(value = "/search/suggest")
+    public List<Show> suggest(
+            @RequestParam(value = "prefix") String prefix,
+            @RequestParam(value = "limit", defaultValue = "5") int limit
+    ) {
+        logger.debug("Suggesting for prefix=\"{}\"", prefix);
+        return ratingsDb.suggestShows(prefix, Math.clamp(limit, 1, MAX_SUGGESTIONS));
+    }
+
+    /*
+     * Data only changes when the scraper runs, so never let clients cache a
+     * response past the next scheduled ingest.
+     */
+    private CacheControl cacheControl() {
+        ZonedDateTime now = ZonedDateTime.now();
+        ZonedDateTime nextUpdate = NEXT_UPDATE.next(now);
+        Duration untilNextUpdate = nextUpdate == null ? maxAge : Duration.between(now, nextUpdate);
+        Duration age = untilNextUpdate.compareTo(maxAge) < 0 ? untilNextUpdate : maxAge;
+        return CacheControl.maxAge(age).cachePublic();
+    }
+
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            if (parts[0].trim().equalsIgnoreCase("gzip")) {
+                // "gzip;q=0" means the client explicitly refuses gzip.
+                return parts.length == 1 || !parts[1].trim().matches("q=0(\\.0*)?");
+            }
+        }
+        return false;
+    }
 }
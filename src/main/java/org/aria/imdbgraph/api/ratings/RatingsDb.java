@@ -1,38 +1,152 @@
 package org.aria.imdbgraph.api.ratings;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.aria.imdbgraph.api.ratings.json.Episode;
 import org.aria.imdbgraph.api.ratings.json.Ratings;
+import org.aria.imdbgraph.api.ratings.json.RatingsSummary;
+import org.aria.imdbgraph.api.ratings.json.SeasonSummary;
 import org.aria.imdbgraph.api.ratings.json.Show;
+import org.aria.imdbgraph.modules.DatasetSnapshot;
+import org.aria.imdbgraph.modules.DatasetUpdatedEvent;
+import org.aria.imdbgraph.modules.DatasetVersion;
 import org.aria.imdbgraph.modules.ImdbDataScraper;
+import org.aria.imdbgraph.modules.ReadReplica;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
 import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.PreparedStatementCreator;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcOperations;
 import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 /**
  * Database class that supports search/query operations involving IMDB ratings
  * from our internal database. See {@link ImdbDataScraper} for how this internal
  * database is updated with the latest data from IMDB.
+ * <p>
+ * When {@code imdbgraph.ratings.in-memory} is enabled, show and episode lookups
+ * are served from a {@link RatingsSnapshot} that is rebuilt at startup and
+ * after every ingest, so they never touch the database. Likewise, when
+ * {@code imdbgraph.search.in-memory} is enabled, searches are answered by a
+ * {@link ShowSearchIndex} instead of the pg_trgm index. Typeahead suggestions
+ * are always served from an in-memory {@link ShowPrefixIndex}.
+ * <p>
+ * When {@code imdbgraph.snapshot.dir} is set, the newest {@link DatasetSnapshot}
+ * file in it is mapped into memory at startup, and show and episode lookups
+ * (and the in-memory indexes) are served from it instead, as long as it holds
+ * the dataset the database has. Nothing is loaded from the database then. The
+ * directory is checked for newer files every
+ * {@code imdbgraph.snapshot.check-interval}; while there isn't an up to date
+ * one, lookups go back to the options above.
+ * <p>
+ * Every query is timed under the {@code imdbgraph.db.query} metric, tagged
+ * with the name of the query. Queries go to the read replica when there is
+ * one (see {@link ReadReplica}).
  */
 @Repository
 public class RatingsDb {
 
+    private static final Logger logger = LogManager.getLogger(RatingsDb.class);
+
+    // Rows fetched per round trip when streaming whole tables into memory.
+    private static final int SNAPSHOT_FETCH_SIZE = 10_000;
+
+    private static final int SEARCH_LIMIT = 5;
+
     private final NamedParameterJdbcOperations jdbc;
+    private final TransactionTemplate readOnlyTransaction;
+    private final boolean inMemory;
+    private final boolean searchInMemory;
+    private final boolean suggestInMemory;
+    private final double searchThreshold;
+    private final Path snapshotDir;
+    private final Timer episodesTimer;
+    private final Timer ratingsJsonTimer;
+    private final Timer ratingsPageTimer;
+    private final Timer batchShowsTimer;
+    private final Timer batchEpisodesTimer;
+    private final Timer summaryTimer;
+    private final Timer searchTimer;
+    private final Timer suggestTimer;
+    private final Timer allShowsTimer;
+    private final Timer showTimer;
+    private final Timer datasetVersionTimer;
+    private final Timer snapshotTimer;
 
-    public RatingsDb(NamedParameterJdbcOperations jdbc) {
-        this.jdbc = jdbc;
+    // Null unless an up to date snapshot file is open.
+    private volatile MappedRatings mapped;
+    // Null until the first snapshot is loaded (or if in-memory mode is off).
+    private volatile RatingsSnapshot snapshot;
+    private volatile ShowSearchIndex searchIndex;
+    private volatile ShowPrefixIndex prefixIndex;
+
+    public RatingsDb(
+            ReadReplica readReplica,
+            MeterRegistry meterRegistry,
+            @Value("${imdbgraph.ratings.in-memory:false}") boolean inMemory,
+            @Value("${imdbgraph.search.in-memory:false}") boolean searchInMemory,
+            @Value("${imdbgraph.search.suggest.in-memory:true}") boolean suggestInMemory,
+            @Value("${imdbgraph.search.word-similarity-threshold:0.6}") double searchThreshold,
+            @Value("${imdbgraph.snapshot.dir:}") String snapshotDir
+    ) {
+        this.jdbc = readReplica.jdbc();
+        this.episodesTimer = queryTimer(meterRegistry, "episodes");
+        this.ratingsJsonTimer = queryTimer(meterRegistry, "ratings_json");
+        this.ratingsPageTimer = queryTimer(meterRegistry, "ratings_page");
+        this.batchShowsTimer = queryTimer(meterRegistry, "batch_shows");
+        this.batchEpisodesTimer = queryTimer(meterRegistry, "batch_episodes");
+        this.summaryTimer = queryTimer(meterRegistry, "summary");
+        this.searchTimer = queryTimer(meterRegistry, "search");
+        this.suggestTimer = queryTimer(meterRegistry, "suggest");
+        this.allShowsTimer = queryTimer(meterRegistry, "all_shows");
+        this.showTimer = queryTimer(meterRegistry, "show");
+        this.datasetVersionTimer = queryTimer(meterRegistry, "dataset_version");
+        this.snapshotTimer = queryTimer(meterRegistry, "snapshot");
+        this.readOnlyTransaction = new TransactionTemplate(readReplica.transactionManager());
+        this.readOnlyTransaction.setReadOnly(true);
+        this.inMemory = inMemory;
+        this.searchInMemory = searchInMemory;
+        this.suggestInMemory = suggestInMemory;
+        this.searchThreshold = searchThreshold;
+        this.snapshotDir = snapshotDir.isBlank() ? null : Path.of(snapshotDir);
     }
 
     /**
-     * Given an IMDB ID, find the all ratings data about that show.
+     * Given an IMDB ID, find the all ratings data about that show. When an
+     * episode number is repeated within a season, the episode with the
+     * greatest ID is kept.
      */
     public Optional<Ratings> getAllShowRatings(String showId) {
+        MappedRatings file = mapped;
+        if (file != null) {
+            return file.getAllShowRatings(showId);
+        }
+        RatingsSnapshot current = snapshot;
+        if (current != null) {
+            return current.getAllShowRatings(showId);
+        }
         Optional<Show> show = getShow(showId);
         if (show.isEmpty()) {
             return Optional.empty();
@@ -48,17 +162,237 @@ public class RatingsDb {
                        COALESCE(episode_title, 'No title was found') AS primary_title
                 FROM imdb.episode
                 WHERE show_id = :showId
-                ORDER BY season_num, episode_num;
+                ORDER BY season_num, episode_num, episode_id;
+                """;
+        Ratings.Builder ratings = new Ratings.Builder(show.get(), 0);
+        episodesTimer.record(() -> jdbc.query(getEpisodesSQL, params, rs -> {
+            addEpisode(ratings, rs);
+        }));
+        return Optional.of(ratings.build());
+    }
+
+    /**
+     * Same as {@link #getAllShowRatings(String)} but already serialized: the
+     * whole JSON document is built by a single query, so there's no second
+     * round trip and no per-episode objects on our side.
+     * <p>
+     * The output is the JSON Jackson writes for the {@link Ratings} object,
+     * which is why the document is concatenated by hand instead of with
+     * {@code json_build_object} (which adds spaces around colons and formats
+     * doubles differently). It isn't always the same bytes: Postgres escapes
+     * rare control characters in titles with lower case hex digits where
+     * Jackson uses upper case, but both decode to the same document.
+     * Duplicate episode numbers within a season are collapsed to the episode
+     * with the greatest ID, the one {@link #getAllShowRatings(String)} keeps.
+     */
+    public Optional<byte[]> getAllShowRatingsJson(String showId) {
+        SqlParameterSource params = new MapSqlParameterSource()
+                .addValue("showId", showId);
+        String sql = """
+                WITH episodes AS (
+                    SELECT DISTINCT ON (season_num, episode_num)
+                           season_num,
+                           episode_num,
+                           '{"episodeTitle":' || COALESCE(to_json(episode_title)::TEXT, 'null') ||
+                           ',"season":' || season_num ||
+                           ',"episodeNumber":' || episode_num ||
+                           ',"imdbRating":' || imdb.json_double(imdb_rating) ||
+                           ',"numVotes":' || num_votes || '}' AS json
+                    FROM imdb.episode
+                    WHERE show_id = :showId
+                    ORDER BY season_num, episode_num, episode_id DESC
+                ), seasons AS (
+                    SELECT season_num,
+                           '"' || season_num || '":{' ||
+                           string_agg('"' || episode_num || '":' || json, ',' ORDER BY episode_num) ||
+                           '}' AS json
+                    FROM episodes
+                    GROUP BY season_num
+                )
+                SELECT '{"show":{"imdbId":' || to_json(imdb_id)::TEXT ||
+                       ',"title":' || to_json(primary_title)::TEXT ||
+                       ',"startYear":' || COALESCE(to_json(start_year)::TEXT, 'null') ||
+                       ',"endYear":' || COALESCE(to_json(end_year)::TEXT, 'null') ||
+                       ',"showRating":' || imdb.json_double(imdb_rating) ||
+                       ',"numVotes":' || num_votes ||
+                       '},"allEpisodeRatings":{' ||
+                       COALESCE((SELECT string_agg(json, ',' ORDER BY season_num) FROM seasons), '') ||
+                       '}}'
+                FROM imdb.show
+                WHERE imdb_id = :showId;
                 """;
-        List<Episode> allEpisodeRatings = jdbc.query(getEpisodesSQL, params, (rs, _) -> {
-            String title = rs.getString("episode_title");
-            int season = rs.getInt("season_num");
-            int episode = rs.getInt("episode_num");
-            double imdbRating = rs.getDouble("imdb_rating");
-            int numVotes = rs.getInt("num_votes");
-            return new Episode(title, season, episode, imdbRating, numVotes);
+        // The driver hands back the raw (UTF-8) bytes of a text column, so
+        // the document is never decoded into a String.
+        List<byte[]> json = ratingsJsonTimer.record(() -> jdbc.query(sql, params, (rs, _) -> rs.getBytes(1)));
+        return json.stream().findFirst();
+    }
+
+    /**
+     * One page of the ratings of a show: the episodes in {@code range}, in
+     * the same layout as {@link Ratings}, and the range of the next page if
+     * there are more. The page is read whole before it's returned, so the
+     * connection is given back before anything is written to the client;
+     * callers must keep {@code range.limit()} small. Reads from the database
+     * even in in-memory mode.
+     * <p>
+     * Duplicate episode numbers within a season are collapsed to the
+     * episode with the greatest ID, like {@link #getAllShowRatings(String)}.
+     */
+    public RatingsPage getRatingsPage(Show show, EpisodeRange range) {
+        SqlParameterSource params = new MapSqlParameterSource()
+                .addValue("showId", show.imdbId())
+                .addValue("fromSeason", range.fromSeason())
+                .addValue("fromEpisode", range.fromEpisode())
+                .addValue("toSeason", range.toSeason())
+                // One more, to know where the next page starts.
+                .addValue("limit", range.limit() + 1L);
+        String sql = """
+                SELECT DISTINCT ON (season_num, episode_num)
+                       episode_title,
+                       season_num,
+                       episode_num,
+                       imdb_rating,
+                       num_votes
+                FROM imdb.episode
+                WHERE show_id = :showId
+                  AND (season_num, episode_num) >= (:fromSeason, :fromEpisode)
+                  AND season_num <= :toSeason
+                ORDER BY season_num, episode_num, episode_id DESC
+                LIMIT :limit;
+                """;
+        Ratings.Builder ratings = new Ratings.Builder(show, range.limit());
+        List<EpisodeRange> next = new ArrayList<>(1);
+        int[] read = {0};
+        ratingsPageTimer.record(() -> jdbc.query(sql, params, rs -> {
+            if (read[0]++ < range.limit()) {
+                addEpisode(ratings, rs);
+            } else {
+                next.add(range.startingAt(rs.getInt("season_num"), rs.getInt("episode_num")));
+            }
+        }));
+        return new RatingsPage(ratings.build(), next.isEmpty() ? null : next.getFirst());
+    }
+
+    /**
+     * Batch version of {@link #getAllShowRatings(String)}. Loads all the shows
+     * and their episodes with one query each, on a single connection. Shows
+     * that don't exist are left out of the result.
+     */
+    public Map<String, Ratings> getAllShowRatings(Collection<String> showIds) {
+        Map<String, Ratings> result = new LinkedHashMap<>();
+        if (showIds.isEmpty()) {
+            return result;
+        }
+        MappedRatings file = mapped;
+        if (file != null) {
+            for (String showId : showIds) {
+                file.getAllShowRatings(showId).ifPresent(r -> result.put(showId, r));
+            }
+            return result;
+        }
+        RatingsSnapshot current = snapshot;
+        if (current != null) {
+            for (String showId : showIds) {
+                current.getAllShowRatings(showId).ifPresent(r -> result.put(showId, r));
+            }
+            return result;
+        }
+
+        SqlParameterSource params = new MapSqlParameterSource()
+                .addValue("showIds", showIds);
+        String showsSQL = """
+                SELECT imdb_id,
+                       primary_title,
+                       start_year,
+                       end_year,
+                       imdb_rating,
+                       num_votes
+                FROM imdb.show
+                WHERE imdb_id IN (:showIds);
+                """;
+        String episodesSQL = """
+                SELECT show_id,
+                       episode_title,
+                       season_num,
+                       episode_num,
+                       imdb_rating,
+                       num_votes
+                FROM imdb.episode
+                WHERE show_id IN (:showIds)
+                ORDER BY show_id, season_num, episode_num, episode_id;
+                """;
+        Map<String, Ratings.Builder> shows = new HashMap<>();
+        readOnlyTransaction.executeWithoutResult(_ -> {
+            batchShowsTimer.record(() -> jdbc.query(showsSQL, params, rs -> {
+                Show show = mapToShow(rs);
+                shows.put(show.imdbId(), new Ratings.Builder(show, 0));
+            }));
+            batchEpisodesTimer.record(() -> jdbc.query(episodesSQL, params, rs -> {
+                Ratings.Builder ratings = shows.get(rs.getString("show_id"));
+                if (ratings != null) {
+                    addEpisode(ratings, rs);
+                }
+            }));
         });
-        return Optional.of(new Ratings(show.get(), allEpisodeRatings));
+        for (String showId : showIds) {
+            Ratings.Builder ratings = shows.get(showId);
+            if (ratings != null) {
+                result.put(showId, ratings.build());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Given an IMDB ID, find the show and the aggregates of its episode
+     * ratings per season. The aggregates are computed by every ingest (see
+     * {@link ImdbDataScraper}), so this is a single indexed lookup no matter
+     * how many episodes the show has. Always read from the database, even in
+     * in-memory mode.
+     */
+    public Optional<RatingsSummary> getRatingsSummary(String showId) {
+        SqlParameterSource params = new MapSqlParameterSource()
+                .addValue("showId", showId);
+        String sql = """
+                SELECT imdb_id,
+                       primary_title,
+                       start_year,
+                       end_year,
+                       show.imdb_rating,
+                       show.num_votes,
+                       season_num,
+                       episode_count,
+                       rated_count,
+                       stats.num_votes AS season_num_votes,
+                       avg_rating,
+                       min_rating,
+                       max_rating,
+                       trend,
+                       best_episode_num,
+                       best_episode_title,
+                       best_num_votes,
+                       worst_episode_num,
+                       worst_episode_title,
+                       worst_num_votes
+                FROM imdb.show
+                         LEFT JOIN imdb.season_stats stats ON stats.show_id = show.imdb_id
+                WHERE imdb_id = :showId
+                ORDER BY season_num;
+                """;
+        List<Show> show = new ArrayList<>(1);
+        List<SeasonSummary> seasons = new ArrayList<>();
+        summaryTimer.record(() -> jdbc.query(sql, params, rs -> {
+            if (show.isEmpty()) {
+                show.add(mapToShow(rs));
+            }
+            if (rs.getObject("season_num") != null) {
+                seasons.add(mapToSeasonSummary(rs));
+            }
+        }));
+        if (show.isEmpty()) {
+            return Optional.empty();
+        }
+        return Optional.of(new RatingsSummary(show.getFirst(), seasons));
     }
 
     /**
@@ -66,6 +400,10 @@ public class RatingsDb {
      * title. An empty array can be returned if no shows are found.
      */
     public List<Show> searchShows(String searchQuery) {
+        ShowSearchIndex index = searchIndex;
+        if (index != null) {
+            return index.search(searchQuery, SEARCH_LIMIT);
+        }
         SqlParameterSource params = new MapSqlParameterSource()
                 .addValue("searchTerm", searchQuery);
         String sql = """
@@ -80,10 +418,72 @@ public class RatingsDb {
                 ORDER BY num_votes DESC
                 LIMIT 5;
                 """;
-        return jdbc.query(sql, params, (rs, _) -> mapToShow(rs));
+        return searchTimer.record(() -> jdbc.query(sql, params, (rs, _) -> mapToShow(rs)));
+    }
+
+    /**
+     * Given the start of a title (as typed so far), return the most voted
+     * shows with a word in their title starting with it.
+     */
+    public List<Show> suggestShows(String prefix, int limit) {
+        ShowPrefixIndex index = prefixIndex;
+        if (index != null) {
+            return index.suggest(prefix, limit);
+        }
+        // The normalized prefix only has letters, digits and spaces, so it
+        // can't contain any regex syntax. There's no index for this, every
+        // title is scanned.
+        String normalized = ShowPrefixIndex.normalize(prefix);
+        if (normalized.isEmpty()) {
+            return List.of();
+        }
+        SqlParameterSource params = new MapSqlParameterSource()
+                .addValue("pattern", "(^| )" + normalized)
+                .addValue("limit", limit);
+        String sql = """
+                SELECT imdb_id,
+                       primary_title,
+                       start_year,
+                       end_year,
+                       imdb_rating,
+                       num_votes
+                FROM imdb.show
+                WHERE regexp_replace(lower(primary_title), '[^[:alnum:]]+', ' ', 'g') ~ :pattern
+                ORDER BY num_votes DESC
+                LIMIT :limit;
+                """;
+        return suggestTimer.record(() -> jdbc.query(sql, params, (rs, _) -> mapToShow(rs)));
+    }
+
+    /**
+     * Every show in the database (used to build in-memory indexes).
+     */
+    List<Show> getAllShows() {
+        String sql = """
+                SELECT imdb_id,
+                       primary_title,
+                       start_year,
+                       end_year,
+                       imdb_rating,
+                       num_votes
+                FROM imdb.show;
+                """;
+        return allShowsTimer.record(() -> readOnlyTransaction.execute(_ -> jdbc.getJdbcOperations()
+                .query(streaming(sql), (rs, _) -> mapToShow(rs))));
     }
 
-    private Optional<Show> getShow(String showId) {
+    /**
+     * Given an IMDB ID, find the show without its episodes.
+     */
+    public Optional<Show> getShow(String showId) {
+        MappedRatings file = mapped;
+        if (file != null) {
+            return file.getShow(showId);
+        }
+        RatingsSnapshot current = snapshot;
+        if (current != null) {
+            return current.getShow(showId);
+        }
         SqlParameterSource params = new MapSqlParameterSource()
                 .addValue("showId", showId);
         String sql = """
@@ -98,14 +498,253 @@ public class RatingsDb {
                 WHERE imdb_id = :showId;
                 """;
         try {
-            Show show = jdbc.queryForObject(sql, params, (rs, _) -> mapToShow(rs));
+            Show show = showTimer.record(() -> jdbc.queryForObject(sql, params, (rs, _) -> mapToShow(rs)));
             return Optional.ofNullable(show);
         } catch (EmptyResultDataAccessException e) {
             return Optional.empty();
         }
     }
 
-    private static Show mapToShow(ResultSet rs) throws SQLException {
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void loadOnStartup() {
+        reloadMapped();
+        reloadSnapshot();
+        reloadSearchIndexes();
+    }
+
+    @Order(DatasetVersion.RELOAD_ORDER)
+    @TransactionalEventListener(fallbackExecution = true)
+    public synchronized void reloadOnUpdate(DatasetUpdatedEvent event) {
+        reloadMapped();
+        reloadSnapshot();
+        reloadSearchIndexes();
+    }
+
+    /**
+     * Picks up snapshot files written since the last check (by another node's
+     * ingest, or by this one's after the other listeners ran).
+     */
+    @Scheduled(fixedDelayString = "${imdbgraph.snapshot.check-interval:PT1M}")
+    public synchronized void checkSnapshotFile() {
+        if (snapshotDir == null) {
+            return;
+        }
+        MappedRatings before = mapped;
+        reloadMapped();
+        if (mapped != before) {
+            reloadSnapshot();
+            reloadSearchIndexes();
+        }
+    }
+
+    /**
+     * Maps the newest snapshot file, unless it's the one already mapped, and
+     * stops using the mapped one if the database has a newer dataset than
+     * it. A file that can't be read is skipped.
+     */
+    private void reloadMapped() {
+        if (snapshotDir == null) {
+            return;
+        }
+        long required = latestVersion();
+        MappedRatings current = mapped;
+        try {
+            Optional<Path> latest = DatasetSnapshot.latest(snapshotDir);
+            if (latest.isPresent()
+                    && DatasetSnapshot.versionOf(latest.get()) >= required
+                    && (current == null || DatasetSnapshot.versionOf(latest.get()) > current.version())) {
+                long start = System.nanoTime();
+                MappedRatings opened = new MappedRatings(DatasetSnapshot.open(latest.get()));
+                mapped = opened;
+                logger.info("Serving dataset version {} from {} ({} shows and {} episodes), mapped in {} ms",
+                        opened.version(),
+                        latest.get(),
+                        opened.showCount(),
+                        opened.episodeCount(),
+                        (System.nanoTime() - start) / 1_000_000);
+                return;
+            }
+        } catch (IOException e) {
+            logger.warn("Couldn't open the dataset snapshot in {}", snapshotDir, e);
+        }
+        if (current != null && current.version() < required) {
+            logger.info("Snapshot file has dataset version {} but the database has {}, reading the database",
+                    current.version(), required);
+            mapped = null;
+        }
+    }
+
+    private long latestVersion() {
+        Long version = datasetVersionTimer.record(() -> jdbc.getJdbcOperations().queryForObject(
+                "SELECT COALESCE(MAX(version), 0) FROM imdb.dataset_version", Long.class));
+        return version == null ? 0 : version;
+    }
+
+    /**
+     * Builds a new snapshot of the show and episode tables and swaps it in
+     * once it's complete. Requests keep being served from the previous
+     * snapshot while the new one is loading. Not needed while a snapshot
+     * file is mapped.
+     */
+    private void reloadSnapshot() {
+        if (!inMemory) {
+            return;
+        }
+        if (mapped != null) {
+            snapshot = null;
+            return;
+        }
+        long start = System.nanoTime();
+        RatingsSnapshot loaded = snapshotTimer.record(() -> readOnlyTransaction.execute(_ -> loadSnapshot()));
+        snapshot = loaded;
+        logger.info("Loaded ratings snapshot with {} shows and {} episodes in {} ms",
+                loaded.showCount(),
+                loaded.episodeCount(),
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private void reloadSearchIndexes() {
+        if (!suggestInMemory && !searchInMemory) {
+            return;
+        }
+        long start = System.nanoTime();
+        MappedRatings file = mapped;
+        List<Show> shows = file != null ? file.getAllShows() : getAllShows();
+        if (suggestInMemory) {
+            prefixIndex = ShowPrefixIndex.build(shows);
+        }
+        if (searchInMemory) {
+            searchIndex = ShowSearchIndex.build(shows, searchThreshold);
+        }
+        logger.info("Built search indexes over {} shows in {} ms",
+                shows.size(),
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private RatingsSnapshot loadSnapshot() {
+        RatingsSnapshot.Builder builder = new RatingsSnapshot.Builder();
+        // COLLATE "C" sorts by code point which is the same order as
+        // String.compareTo, so the snapshot can binary search the IDs.
+        String showsSQL = """
+                SELECT imdb_id,
+                       primary_title,
+                       start_year,
+                       end_year,
+                       imdb_rating,
+                       num_votes
+                FROM imdb.show
+                ORDER BY imdb_id COLLATE "C";
+                """;
+        jdbc.getJdbcOperations().query(streaming(showsSQL), rs -> {
+            builder.addShow(
+                    rs.getString("imdb_id"),
+                    rs.getString("primary_title"),
+                    rs.getString("start_year"),
+                    rs.getString("end_year"),
+                    rs.getDouble("imdb_rating"),
+                    rs.getInt("num_votes")
+            );
+        });
+        String episodesSQL = """
+                SELECT show_id,
+                       episode_title,
+                       season_num,
+                       episode_num,
+                       imdb_rating,
+                       num_votes
+                FROM imdb.episode
+                ORDER BY show_id COLLATE "C", season_num, episode_num, episode_id;
+                """;
+        jdbc.getJdbcOperations().query(streaming(episodesSQL), rs -> {
+            builder.addEpisode(
+                    rs.getString("show_id"),
+                    rs.getString("episode_title"),
+                    rs.getInt("season_num"),
+                    rs.getInt("episode_num"),
+                    rs.getDouble("imdb_rating"),
+                    rs.getInt("num_votes")
+            );
+        });
+        return builder.build();
+    }
+
+    private static Timer queryTimer(MeterRegistry meterRegistry, String query) {
+        return Timer.builder("imdbgraph.db.query")
+                .description("Time spent running a database query")
+                .tag("query", query)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Postgres only streams results in batches (instead of loading the whole
+     * result set in memory) when a fetch size is set inside a transaction.
+     */
+    private static PreparedStatementCreator streaming(String sql) {
+        return con -> {
+            PreparedStatement ps = con.prepareStatement(sql);
+            ps.setFetchSize(SNAPSHOT_FETCH_SIZE);
+            return ps;
+        };
+    }
+
+    static Episode mapToEpisode(ResultSet rs) throws SQLException {
+        String title = rs.getString("episode_title");
+        int season = rs.getInt("season_num");
+        int episode = rs.getInt("episode_num");
+        double imdbRating = rs.getDouble("imdb_rating");
+        int numVotes = rs.getInt("num_votes");
+        return new Episode(title, season, episode, imdbRating, numVotes);
+    }
+
+    /**
+     * Adds the episode in the current row without creating an
+     * {@link Episode} for it.
+     */
+    static void addEpisode(Ratings.Builder ratings, ResultSet rs) throws SQLException {
+        ratings.add(
+                rs.getString("episode_title"),
+                rs.getInt("season_num"),
+                rs.getInt("episode_num"),
+                rs.getDouble("imdb_rating"),
+                rs.getInt("num_votes")
+        );
+    }
+
+    private static SeasonSummary mapToSeasonSummary(ResultSet rs) throws SQLException {
+        int season = rs.getInt("season_num");
+        Episode best = null;
+        Episode worst = null;
+        if (rs.getObject("best_episode_num") != null) {
+            best = new Episode(
+                    rs.getString("best_episode_title"),
+                    season,
+                    rs.getInt("best_episode_num"),
+                    rs.getDouble("max_rating"),
+                    rs.getInt("best_num_votes")
+            );
+            worst = new Episode(
+                    rs.getString("worst_episode_title"),
+                    season,
+                    rs.getInt("worst_episode_num"),
+                    rs.getDouble("min_rating"),
+                    rs.getInt("worst_num_votes")
+            );
+        }
+        return new SeasonSummary(
+                season,
+                rs.getInt("episode_count"),
+                rs.getInt("rated_count"),
+                rs.getLong("season_num_votes"),
+                rs.getObject("avg_rating", Double.class),
+                rs.getObject("min_rating", Double.class),
+                rs.getObject("max_rating", Double.class),
+                rs.getObject("trend", Double.class),
+                best,
+                worst
+        );
+    }
+
+    static Show mapToShow(ResultSet rs) throws SQLException {
         String imdbId = rs.getString("imdb_id");
         String title = rs.getString("primary_title");
         String startYear = rs.getString("start_year");
@@ -0,0 +1,78 @@
+package org.aria.imdbgraph.api.ratings;
+
+import org.aria.imdbgraph.api.ratings.json.ColumnarRatings;
+import org.aria.imdbgraph.api.ratings.json.Ratings;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Representations {@code /ratings/{showId}} can be served in, picked with the
+ * Accept header. JSON ({@link Ratings}) is the default; the other formats are
+ * the {@link ColumnarRatings} layout, as JSON or CBOR.
+ */
+public enum RatingsFormat {
+    JSON(MediaType.APPLICATION_JSON, ""),
+    COLUMNAR_JSON(MediaType.parseMediaType("application/vnd.imdbgraph.columnar+json"), "-columnar"),
+    COLUMNAR_CBOR(MediaType.APPLICATION_CBOR, "-cbor");
+
+    private final MediaType mediaType;
+    private final String eTagSuffix;
+
+    RatingsFormat(MediaType mediaType, String eTagSuffix) {
+        this.mediaType = mediaType;
+        this.eTagSuffix = eTagSuffix;
+    }
+
+    public MediaType getMediaType() {
+        return mediaType;
+    }
+
+    String getETagSuffix() {
+        return eTagSuffix;
+    }
+
+    boolean isBinary() {
+        return this == COLUMNAR_CBOR;
+    }
+
+    /**
+     * The object to serialize for this format.
+     */
+    Object body(Ratings ratings) {
+        return this == JSON ? ratings : ColumnarRatings.of(ratings);
+    }
+
+    /**
+     * The format the client prefers, going by the quality values in its
+     * Accept header. Falls back to JSON when nothing else is asked for
+     * (including a missing or invalid header and wildcards).
+     */
+    public static RatingsFormat negotiate(String accept) {
+        if (accept == null || accept.isBlank()) {
+            return JSON;
+        }
+        List<MediaType> accepted;
+        try {
+            accepted = new ArrayList<>(MediaType.parseMediaTypes(accept));
+        } catch (InvalidMediaTypeException e) {
+            return JSON;
+        }
+        // Stable, so equally preferred types keep the client's order.
+        accepted.sort(Comparator.comparingDouble(MediaType::getQualityValue).reversed());
+        for (MediaType type : accepted) {
+            if (type.getQualityValue() == 0) {
+                break;
+            }
+            for (RatingsFormat format : values()) {
+                if (type.includes(format.mediaType)) {
+                    return format;
+                }
+            }
+        }
+        return JSON;
+    }
+}
@@ -0,0 +1,12 @@
+package org.aria.imdbgraph.api.ratings;
+
+import org.aria.imdbgraph.api.ratings.json.Ratings;
+
+/**
+ * A page of the ratings of a show (see {@link RatingsDb#getRatingsPage}).
+ *
+ * @param ratings The episodes in the page.
+ * @param next    The range of the next page, null if this is the last one.
+ */
+public record RatingsPage(Ratings ratings, EpisodeRange next) {
+}
@@ -0,0 +1,137 @@
+package org.aria.imdbgraph.api.ratings;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.aria.imdbgraph.api.ratings.json.Ratings;
+import org.aria.imdbgraph.modules.DatasetUpdatedEvent;
+import org.aria.imdbgraph.modules.DatasetVersion;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Optional;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Cache of fully serialized {@code /ratings/{showId}} responses so shows that
+ * are viewed often aren't re-queried and re-serialized on every request.
+ * <p>
+ * Entries are keyed by show, {@link RatingsFormat} and {@link DatasetVersion},
+ * so a cached response always matches the dataset it's labelled with, and
+ * entries from older versions are dropped once a new dataset is committed.
+ * <p>
+ * With {@code imdbgraph.ratings.json-from-db} enabled, responses are built by
+ * the database ({@link RatingsDb#getAllShowRatingsJson(String)}) instead of
+ * being serialized with Jackson. The other formats are always serialized with
+ * Jackson.
+ */
+@Component
+public class RatingsResponseCache {
+
+    private final RatingsDb ratingsDb;
+    private final ObjectMapper objectMapper;
+    private final ObjectMapper cborMapper = Jackson2ObjectMapperBuilder.cbor().build();
+    private final DatasetVersion datasetVersion;
+    private final boolean gzip;
+    private final boolean jsonFromDb;
+    private final Cache<Key, CachedRatings> cache;
+
+    public RatingsResponseCache(
+            RatingsDb ratingsDb,
+            ObjectMapper objectMapper,
+            DatasetVersion datasetVersion,
+            @Value("${imdbgraph.ratings.response-cache.max-size:64MB}") DataSize maxSize,
+            @Value("${imdbgraph.ratings.response-cache.gzip:true}") boolean gzip,
+            @Value("${imdbgraph.ratings.json-from-db:false}") boolean jsonFromDb
+    ) {
+        this.ratingsDb = ratingsDb;
+        this.objectMapper = objectMapper;
+        this.datasetVersion = datasetVersion;
+        this.gzip = gzip;
+        this.jsonFromDb = jsonFromDb;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxSize.toBytes())
+                .weigher((Key _, CachedRatings value) -> value.size())
+                .build();
+    }
+
+    /**
+     * Return the serialized ratings of a show for the current dataset, or an
+     * empty result if the show doesn't exist. Missing shows aren't cached.
+     */
+    public Optional<CachedRatings> get(String showId, RatingsFormat format) {
+        Key key = new Key(showId, format, datasetVersion.current());
+        return Optional.ofNullable(cache.get(key, this::load));
+    }
+
+    /*
+     * Runs once the version is bumped, so no response for an older version
+     * can be added after this.
+     */
+    @Order(DatasetVersion.EVICT_ORDER)
+    @TransactionalEventListener(fallbackExecution = true)
+    public void evictOldVersions(DatasetUpdatedEvent event) {
+        long current = datasetVersion.current();
+        cache.asMap().keySet().removeIf(key -> key.version() < current);
+    }
+
+    private CachedRatings load(Key key) {
+        RatingsFormat format = key.format();
+        Optional<byte[]> body = jsonFromDb && format == RatingsFormat.JSON
+                ? ratingsDb.getAllShowRatingsJson(key.showId())
+                : ratingsDb.getAllShowRatings(key.showId()).map(ratings -> serialize(ratings, format));
+        return body.map(bytes -> new CachedRatings(key.showId(), format, key.version(), bytes, gzip ? gzip(bytes) : null))
+                .orElse(null);
+    }
+
+    private byte[] serialize(Ratings ratings, RatingsFormat format) {
+        ObjectMapper mapper = format.isBinary() ? cborMapper : objectMapper;
+        try {
+            return mapper.writeValueAsBytes(format.body(ratings));
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] gzip(byte[] bytes) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4);
+        try (GZIPOutputStream gzipOut = new GZIPOutputStream(out)) {
+            gzipOut.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private record Key(String showId, RatingsFormat format, long version) {
+    }
+
+    /**
+     * Serialized ratings of a show.
+     *
+     * @param gzippedBody Same bytes as {@code body} but gzip compressed. Null
+     *                    if pre-compression is turned off.
+     */
+    public record CachedRatings(String showId, RatingsFormat format, long version, byte[] body, byte[] gzippedBody) {
+
+        /**
+         * Strong validator for this response. Each format and encoding is a
+         * different representation so it gets its own ETag.
+         */
+        public String eTag(boolean gzipped) {
+            return "\"" + version + "-" + showId + format.getETagSuffix() + (gzipped ? "-gzip" : "") + "\"";
+        }
+
+        private int size() {
+            return body.length + (gzippedBody == null ? 0 : gzippedBody.length);
+        }
+    }
+}
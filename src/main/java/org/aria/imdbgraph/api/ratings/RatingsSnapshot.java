@@ -0,0 +1,192 @@
+package org.aria.imdbgraph.api.ratings;
+
+import org.aria.imdbgraph.api.ratings.json.Ratings;
+import org.aria.imdbgraph.api.ratings.json.Show;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Immutable in-memory copy of the {@code imdb.show} and {@code imdb.episode}
+ * tables used by {@link RatingsDb} to answer requests without going to the
+ * database.
+ * <p>
+ * To keep the heap footprint small, every column is stored in its own
+ * primitive array instead of as objects. Shows are sorted by IMDB ID and the
+ * position of a show in that order (its "show index") is used to find its
+ * episodes: the episodes of show {@code i} live in the range
+ * {@code [episodeStart[i], episodeStart[i + 1])} of the episode arrays, already
+ * ordered by season and episode number.
+ */
+final class RatingsSnapshot {
+
+    // Shows (sorted by imdb_id).
+    private final String[] showIds;
+    private final String[] titles;
+    private final String[] startYears;
+    private final String[] endYears;
+    private final double[] showRatings;
+    private final int[] showVotes;
+
+    // Episodes (grouped by show index, then ordered by season and episode).
+    private final int[] episodeStart;
+    private final String[] episodeTitles;
+    private final int[] seasons;
+    private final int[] episodeNumbers;
+    private final double[] episodeRatings;
+    private final int[] episodeVotes;
+
+    private RatingsSnapshot(Builder b) {
+        this.showIds = Arrays.copyOf(b.showIds, b.showCount);
+        this.titles = Arrays.copyOf(b.titles, b.showCount);
+        this.startYears = Arrays.copyOf(b.startYears, b.showCount);
+        this.endYears = Arrays.copyOf(b.endYears, b.showCount);
+        this.showRatings = Arrays.copyOf(b.showRatings, b.showCount);
+        this.showVotes = Arrays.copyOf(b.showVotes, b.showCount);
+
+        // Turn per-show episode counts into start offsets.
+        this.episodeStart = new int[b.showCount + 1];
+        for (int i = 0; i < b.showCount; i++) {
+            episodeStart[i + 1] = episodeStart[i] + b.episodeCounts[i];
+        }
+        this.episodeTitles = Arrays.copyOf(b.episodeTitles, b.episodeCount);
+        this.seasons = Arrays.copyOf(b.seasons, b.episodeCount);
+        this.episodeNumbers = Arrays.copyOf(b.episodeNumbers, b.episodeCount);
+        this.episodeRatings = Arrays.copyOf(b.episodeRatings, b.episodeCount);
+        this.episodeVotes = Arrays.copyOf(b.episodeVotes, b.episodeCount);
+    }
+
+    public Optional<Show> getShow(String showId) {
+        int i = indexOf(showId);
+        return i < 0 ? Optional.empty() : Optional.of(show(i));
+    }
+
+    public Optional<Ratings> getAllShowRatings(String showId) {
+        int i = indexOf(showId);
+        if (i < 0) {
+            return Optional.empty();
+        }
+        Ratings.Builder ratings = new Ratings.Builder(show(i), episodeStart[i + 1] - episodeStart[i]);
+        for (int e = episodeStart[i]; e < episodeStart[i + 1]; e++) {
+            ratings.add(episodeTitles[e], seasons[e], episodeNumbers[e], episodeRatings[e], episodeVotes[e]);
+        }
+        return Optional.of(ratings.build());
+    }
+
+    public int showCount() {
+        return showIds.length;
+    }
+
+    public int episodeCount() {
+        return episodeTitles.length;
+    }
+
+    private int indexOf(String showId) {
+        return showId == null ? -1 : Arrays.binarySearch(showIds, showId);
+    }
+
+    private Show show(int i) {
+        return new Show(showIds[i], titles[i], startYears[i], endYears[i], showRatings[i], showVotes[i]);
+    }
+
+    /**
+     * Collects rows into growable arrays. Shows must be added in ascending
+     * IMDB ID order (plain {@link String#compareTo} order) before any episode,
+     * and episodes must be added grouped by show in that same order.
+     */
+    static final class Builder {
+
+        private static final int INITIAL_CAPACITY = 1024;
+
+        // Many shows share the same start/end year so only keep one copy.
+        private final Map<String, String> years = new HashMap<>();
+
+        private int showCount = 0;
+        private String[] showIds = new String[INITIAL_CAPACITY];
+        private String[] titles = new String[INITIAL_CAPACITY];
+        private String[] startYears = new String[INITIAL_CAPACITY];
+        private String[] endYears = new String[INITIAL_CAPACITY];
+        private double[] showRatings = new double[INITIAL_CAPACITY];
+        private int[] showVotes = new int[INITIAL_CAPACITY];
+        private int[] episodeCounts;
+
+        private int episodeCount = 0;
+        private int lastShow = 0;
+        private String[] episodeTitles = new String[INITIAL_CAPACITY];
+        private int[] seasons = new int[INITIAL_CAPACITY];
+        private int[] episodeNumbers = new int[INITIAL_CAPACITY];
+        private double[] episodeRatings = new double[INITIAL_CAPACITY];
+        private int[] episodeVotes = new int[INITIAL_CAPACITY];
+
+        void addShow(String imdbId, String title, String startYear, String endYear, double rating, int votes) {
+            if (episodeCounts != null) {
+                throw new IllegalStateException("Shows must be added before episodes");
+            }
+            if (showCount > 0 && showIds[showCount - 1].compareTo(imdbId) >= 0) {
+                throw new IllegalArgumentException("Shows not sorted by ID: " + imdbId);
+            }
+            if (showCount == showIds.length) {
+                int capacity = showCount * 2;
+                showIds = Arrays.copyOf(showIds, capacity);
+                titles = Arrays.copyOf(titles, capacity);
+                startYears = Arrays.copyOf(startYears, capacity);
+                endYears = Arrays.copyOf(endYears, capacity);
+                showRatings = Arrays.copyOf(showRatings, capacity);
+                showVotes = Arrays.copyOf(showVotes, capacity);
+            }
+            showIds[showCount] = imdbId;
+            titles[showCount] = title;
+            startYears[showCount] = intern(startYear);
+            endYears[showCount] = intern(endYear);
+            showRatings[showCount] = rating;
+            showVotes[showCount] = votes;
+            showCount++;
+        }
+
+        /**
+         * Adds an episode to a previously added show. Episodes whose show is
+         * unknown are ignored.
+         */
+        void addEpisode(String showId, String title, int season, int episodeNumber, double rating, int votes) {
+            if (episodeCounts == null) {
+                episodeCounts = new int[showCount];
+            }
+            int show = Arrays.binarySearch(showIds, 0, showCount, showId);
+            if (show < 0) {
+                return;
+            }
+            if (show < lastShow) {
+                throw new IllegalArgumentException("Episodes not grouped by show: " + showId);
+            }
+            if (episodeCount == episodeTitles.length) {
+                int capacity = episodeCount * 2;
+                episodeTitles = Arrays.copyOf(episodeTitles, capacity);
+                seasons = Arrays.copyOf(seasons, capacity);
+                episodeNumbers = Arrays.copyOf(episodeNumbers, capacity);
+                episodeRatings = Arrays.copyOf(episodeRatings, capacity);
+                episodeVotes = Arrays.copyOf(episodeVotes, capacity);
+            }
+            episodeTitles[episodeCount] = title;
+            seasons[episodeCount] = season;
+            episodeNumbers[episodeCount] = episodeNumber;
+            episodeRatings[episodeCount] = rating;
+            episodeVotes[episodeCount] = votes;
+            episodeCount++;
+            episodeCounts[show]++;
+            lastShow = show;
+        }
+
+        RatingsSnapshot build() {
+            if (episodeCounts == null) {
+                episodeCounts = new int[showCount];
+            }
+            return new RatingsSnapshot(this);
+        }
+
+        private String intern(String year) {
+            return year == null ? null : years.computeIfAbsent(year, y -> y);
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package org.aria.imdbgraph.api.ratings;
+
+import org.aria.imdbgraph.api.ratings.json.Show;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Index used for typeahead suggestions: finds the most voted shows with a
+ * word in their title starting with a given prefix.
+ * <p>
+ * Every word of every (normalized) title is an entry, and entries are kept in
+ * a sorted array, so all entries matching a prefix form one contiguous range
+ * found by binary search. A segment tree over that array gives the most voted
+ * entry of any range, which is used to pull out the top matches one at a
+ * time without looking at the rest of the range.
+ */
+final class ShowPrefixIndex {
+
+    private final Show[] shows;
+    private final String[] titles; // Normalized
+
+    // (show << 16 | offset of a word in its title), sorted by the text from
+    // that offset on.
+    private final long[] entries;
+
+    // tree[i] is the entry with the most votes under node i (leaves start at
+    // leafStart). Unused leaves hold -1.
+    private final int[] tree;
+    private final int leafStart;
+
+    private ShowPrefixIndex(Show[] shows, String[] titles, long[] entries) {
+        this.shows = shows;
+        this.titles = titles;
+        this.entries = entries;
+
+        int size = Integer.highestOneBit(Math.max(1, entries.length - 1)) << 1;
+        this.leafStart = size;
+        this.tree = new int[size * 2];
+        Arrays.fill(tree, -1);
+        for (int i = 0; i < entries.length; i++) {
+            tree[size + i] = i;
+        }
+        for (int node = size - 1; node > 0; node--) {
+            tree[node] = better(tree[node * 2], tree[node * 2 + 1]);
+        }
+    }
+
+    static ShowPrefixIndex build(List<Show> allShows) {
+        Show[] shows = allShows.toArray(Show[]::new);
+        String[] titles = new String[shows.length];
+        long[] entries = new long[shows.length];
+        int count = 0;
+        for (int i = 0; i < shows.length; i++) {
+            titles[i] = normalize(shows[i].title());
+            String title = titles[i];
+            // Titles longer than an offset can store only get their first
+            // words indexed.
+            for (int offset = 0; offset < title.length() && offset <= 0xFFFF; offset++) {
+                if (offset == 0 || title.charAt(offset - 1) == ' ') {
+                    if (count == entries.length) {
+                        entries = Arrays.copyOf(entries, Math.max(16, count * 2));
+                    }
+                    entries[count++] = ((long) i << 16) | offset;
+                }
+            }
+        }
+        long[] sorted = Arrays.copyOf(entries, count);
+        sort(titles, sorted, new long[count], 0, count);
+        return new ShowPrefixIndex(shows, titles, sorted);
+    }
+
+    /**
+     * Return up to {@code limit} shows with a word starting with
+     * {@code prefix}, most voted first.
+     */
+    List<Show> suggest(String prefix, int limit) {
+        String normalized = normalize(prefix);
+        List<Show> results = new ArrayList<>(limit);
+        if (normalized.isEmpty() || limit <= 0) {
+            return results;
+        }
+        int from = lowerBound(normalized);
+        int to = upperBound(normalized, from);
+        if (from >= to) {
+            return results;
+        }
+
+        // Best-first search over sub-ranges: take the top entry of a range,
+        // then split the range around it.
+        PriorityQueue<int[]> ranges = new PriorityQueue<>(
+                (a, b) -> Integer.compare(votes(b[2]), votes(a[2]))
+        );
+        ranges.add(new int[]{from, to, best(from, to)});
+        BitSet seen = new BitSet();
+        while (!ranges.isEmpty() && results.size() < limit) {
+            int[] range = ranges.poll();
+            int top = range[2];
+            int show = show(top);
+            if (!seen.get(show)) { // A show matches once per matching word.
+                seen.set(show);
+                results.add(shows[show]);
+            }
+            if (range[0] < top) {
+                ranges.add(new int[]{range[0], top, best(range[0], top)});
+            }
+            if (top + 1 < range[1]) {
+                ranges.add(new int[]{top + 1, range[1], best(top + 1, range[1])});
+            }
+        }
+        return results;
+    }
+
+    int size() {
+        return shows.length;
+    }
+
+    /**
+     * Lower-case the string and collapse everything that isn't a letter or a
+     * digit into single spaces, so "Star Trek: Voyager" becomes
+     * "star trek voyager".
+     */
+    static String normalize(String s) {
+        StringBuilder out = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                out.append(Character.toLowerCase(c));
+            } else if (!out.isEmpty() && out.charAt(out.length() - 1) != ' ') {
+                out.append(' ');
+            }
+        }
+        int end = out.length();
+        if (end > 0 && out.charAt(end - 1) == ' ') {
+            out.setLength(end - 1);
+        }
+        return out.toString();
+    }
+
+    // First entry whose text is >= prefix.
+    private int lowerBound(String prefix) {
+        int lo = 0;
+        int hi = entries.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(entries[mid], prefix) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // First entry (from lo) whose text doesn't start with prefix.
+    private int upperBound(String prefix, int lo) {
+        int hi = entries.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (startsWith(entries[mid], prefix)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // Entry with the most votes in [from, to).
+    private int best(int from, int to) {
+        int result = -1;
+        for (int l = from + leafStart, r = to + leafStart; l < r; l >>= 1, r >>= 1) {
+            if ((l & 1) == 1) {
+                result = better(result, tree[l++]);
+            }
+            if ((r & 1) == 1) {
+                result = better(result, tree[--r]);
+            }
+        }
+        return result;
+    }
+
+    private int better(int a, int b) {
+        if (a < 0) {
+            return b;
+        }
+        if (b < 0) {
+            return a;
+        }
+        return votes(b) > votes(a) ? b : a;
+    }
+
+    private int votes(int entry) {
+        return shows[show(entry)].numVotes();
+    }
+
+    private int show(int entry) {
+        return (int) (entries[entry] >>> 16);
+    }
+
+    private int compare(long entry, String prefix) {
+        String title = titles[(int) (entry >>> 16)];
+        int offset = (int) (entry & 0xFFFF);
+        int length = Math.min(title.length() - offset, prefix.length());
+        for (int i = 0; i < length; i++) {
+            int diff = title.charAt(offset + i) - prefix.charAt(i);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return (title.length() - offset) - prefix.length();
+    }
+
+    private boolean startsWith(long entry, String prefix) {
+        String title = titles[(int) (entry >>> 16)];
+        return title.startsWith(prefix, (int) (entry & 0xFFFF));
+    }
+
+    // Merge sort of entries[from, to) by their suffixes (the JDK only sorts
+    // primitives in their natural order).
+    private static void sort(String[] titles, long[] entries, long[] buffer, int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        sort(titles, entries, buffer, from, mid);
+        sort(titles, entries, buffer, mid, to);
+        if (compareSuffixes(titles, entries[mid - 1], entries[mid]) <= 0) {
+            return; // Already in order.
+        }
+        System.arraycopy(entries, from, buffer, from, to - from);
+        int left = from;
+        int right = mid;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < mid && compareSuffixes(titles, buffer[left], buffer[right]) <= 0)) {
+                entries[i] = buffer[left++];
+            } else {
+                entries[i] = buffer[right++];
+            }
+        }
+    }
+
+    // Same order as comparing the suffixes with String.compareTo, without
+    // creating the substrings.
+    private static int compareSuffixes(String[] titles, long a, long b) {
+        String titleA = titles[(int) (a >>> 16)];
+        String titleB = titles[(int) (b >>> 16)];
+        int offsetA = (int) (a & 0xFFFF);
+        int offsetB = (int) (b & 0xFFFF);
+        int lengthA = titleA.length() - offsetA;
+        int lengthB = titleB.length() - offsetB;
+        for (int i = 0; i < Math.min(lengthA, lengthB); i++) {
+            int diff = titleA.charAt(offsetA + i) - titleB.charAt(offsetB + i);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return lengthA - lengthB;
+    }
+}
@@ -0,0 +1,259 @@
+package org.aria.imdbgraph.api.ratings;
+
+import org.aria.imdbgraph.api.ratings.json.Show;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+
+/**
+ * In-memory replacement for the {@code :searchTerm <% primary_title} query
+ * (pg_trgm word similarity) used by {@link RatingsDb#searchShows(String)}.
+ * <p>
+ * Titles are broken into trigrams the same way pg_trgm does it, and an
+ * inverted index maps every trigram to the (int) positions of the shows whose
+ * title contains it. Shows are stored sorted by number of votes, so walking
+ * the posting lists in order visits the most popular shows first and the
+ * search can stop as soon as it has enough results.
+ *
+ * @see <a href="https://www.postgresql.org/docs/current/pgtrgm.html">pg_trgm</a>
+ */
+final class ShowSearchIndex {
+
+    // Sorted by num_votes (descending).
+    private final Show[] shows;
+
+    // Posting list of trigrams[i] is postings[postingStart[i]..postingStart[i + 1]).
+    private final long[] trigrams;
+    private final int[] postingStart;
+    private final int[] postings;
+
+    private final double threshold;
+
+    private ShowSearchIndex(Show[] shows, long[] trigrams, int[] postingStart, int[] postings, double threshold) {
+        this.shows = shows;
+        this.trigrams = trigrams;
+        this.postingStart = postingStart;
+        this.postings = postings;
+        this.threshold = threshold;
+    }
+
+    /**
+     * @param threshold Same as the {@code pg_trgm.word_similarity_threshold}
+     *                  setting (0.6 by default in Postgres).
+     */
+    static ShowSearchIndex build(List<Show> allShows, double threshold) {
+        Show[] shows = allShows.toArray(Show[]::new);
+        Arrays.sort(shows, Comparator.comparingInt(Show::numVotes).reversed());
+
+        // Unique trigrams of every title.
+        long[][] showTrigrams = new long[shows.length][];
+        int total = 0;
+        for (int i = 0; i < shows.length; i++) {
+            showTrigrams[i] = unique(trigramSequence(shows[i].title()));
+            total += showTrigrams[i].length;
+        }
+        long[] all = new long[total];
+        int n = 0;
+        for (long[] t : showTrigrams) {
+            System.arraycopy(t, 0, all, n, t.length);
+            n += t.length;
+        }
+        long[] trigrams = unique(all);
+
+        // Count postings per trigram, turn counts into offsets, then fill the
+        // lists. Shows are visited in order so every list ends up sorted.
+        int[] postingStart = new int[trigrams.length + 1];
+        for (long[] t : showTrigrams) {
+            for (long trigram : t) {
+                postingStart[Arrays.binarySearch(trigrams, trigram) + 1]++;
+            }
+        }
+        for (int i = 0; i < trigrams.length; i++) {
+            postingStart[i + 1] += postingStart[i];
+        }
+        int[] postings = new int[total];
+        int[] next = Arrays.copyOf(postingStart, trigrams.length);
+        for (int i = 0; i < shows.length; i++) {
+            for (long trigram : showTrigrams[i]) {
+                postings[next[Arrays.binarySearch(trigrams, trigram)]++] = i;
+            }
+        }
+        return new ShowSearchIndex(shows, trigrams, postingStart, postings, threshold);
+    }
+
+    int size() {
+        return shows.length;
+    }
+
+    /**
+     * Return up to {@code limit} shows whose title is word-similar to the
+     * query, most voted first.
+     */
+    List<Show> search(String query, int limit) {
+        long[] queryTrigrams = unique(trigramSequence(query));
+        List<Show> results = new ArrayList<>(limit);
+        if (queryTrigrams.length == 0 || limit <= 0) {
+            return results;
+        }
+
+        // Word similarity is at most (shared trigrams / query trigrams), so
+        // skip shows that don't share enough trigrams to pass the threshold.
+        int required = Math.max(1, (int) Math.ceil(threshold * queryTrigrams.length - 1e-9));
+
+        // Merge the posting lists of the query trigrams in show order.
+        PriorityQueue<int[]> cursors = new PriorityQueue<>(Comparator.comparingInt(c -> postings[c[0]]));
+        for (long trigram : queryTrigrams) {
+            int t = Arrays.binarySearch(trigrams, trigram);
+            if (t >= 0) {
+                cursors.add(new int[]{postingStart[t], postingStart[t + 1]});
+            }
+        }
+        while (!cursors.isEmpty() && results.size() < limit) {
+            int show = postings[cursors.peek()[0]];
+            int shared = 0;
+            while (!cursors.isEmpty() && postings[cursors.peek()[0]] == show) {
+                int[] cursor = cursors.poll();
+                shared++;
+                if (++cursor[0] < cursor[1]) {
+                    cursors.add(cursor);
+                }
+            }
+            if (shared >= required && wordSimilarity(queryTrigrams, shows[show].title()) >= threshold) {
+                results.add(shows[show]);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Port of pg_trgm's {@code word_similarity(query, text)}: the greatest
+     * similarity between the trigrams of the query and any continuous extent
+     * of the (ordered) trigrams of the text.
+     *
+     * @param queryTrigrams Sorted, unique trigrams of the query.
+     */
+    static float wordSimilarity(long[] queryTrigrams, String text) {
+        long[] sequence = trigramSequence(text);
+        long[] distinct = unique(sequence);
+        int[] indexes = new int[sequence.length];
+        for (int i = 0; i < sequence.length; i++) {
+            indexes[i] = Arrays.binarySearch(distinct, sequence[i]);
+        }
+        boolean[] found = new boolean[distinct.length];
+        for (int i = 0; i < distinct.length; i++) {
+            found[i] = Arrays.binarySearch(queryTrigrams, distinct[i]) >= 0;
+        }
+        int queryLength = queryTrigrams.length;
+
+        // Same sliding window as iterate_word_similarity() in trgm_op.c.
+        int[] lastPosition = new int[distinct.length];
+        Arrays.fill(lastPosition, -1);
+        int extentLength = 0;
+        int count = 0;
+        int lower = -1;
+        float max = 0.0f;
+        for (int i = 0; i < sequence.length; i++) {
+            int trigram = indexes[i];
+            if (lower >= 0 || found[trigram]) {
+                if (lastPosition[trigram] < 0) {
+                    extentLength++;
+                    if (found[trigram]) {
+                        count++;
+                    }
+                }
+                lastPosition[trigram] = i;
+            }
+            if (!found[trigram]) {
+                continue;
+            }
+            if (lower == -1) {
+                lower = i;
+                extentLength = 1;
+            }
+            float current = similarity(count, queryLength, extentLength);
+
+            // Try moving the lower bound up for a better similarity.
+            int tmpCount = count;
+            int tmpLength = extentLength;
+            int previousLower = lower;
+            for (int tmpLower = lower; tmpLower <= i; tmpLower++) {
+                float tmp = similarity(tmpCount, queryLength, tmpLength);
+                if (tmp > current) {
+                    current = tmp;
+                    extentLength = tmpLength;
+                    lower = tmpLower;
+                    count = tmpCount;
+                }
+                int t = indexes[tmpLower];
+                if (lastPosition[t] == tmpLower) {
+                    tmpLength--;
+                    if (found[t]) {
+                        tmpCount--;
+                    }
+                }
+            }
+            max = Math.max(max, current);
+            for (int tmpLower = previousLower; tmpLower < lower; tmpLower++) {
+                int t = indexes[tmpLower];
+                if (lastPosition[t] == tmpLower) {
+                    lastPosition[t] = -1;
+                }
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Trigrams of a string in order (with duplicates), generated like
+     * pg_trgm: the string is lower-cased and split into words of letters and
+     * digits, and each word is padded with two spaces in front and one
+     * behind. Every trigram is packed into a long (16 bits per char).
+     */
+    static long[] trigramSequence(String s) {
+        String lower = s.toLowerCase(Locale.ROOT);
+        long[] result = new long[lower.length() * 3 + 3];
+        int n = 0;
+        int i = 0;
+        while (i < lower.length()) {
+            if (!Character.isLetterOrDigit(lower.charAt(i))) {
+                i++;
+                continue;
+            }
+            int end = i;
+            while (end < lower.length() && Character.isLetterOrDigit(lower.charAt(end))) {
+                end++;
+            }
+            // Sliding window over "  " + word + " ".
+            char a = ' ';
+            char b = ' ';
+            for (int j = i; j <= end; j++) {
+                char c = j < end ? lower.charAt(j) : ' ';
+                result[n++] = ((long) a << 32) | ((long) b << 16) | c;
+                a = b;
+                b = c;
+            }
+            i = end;
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    private static long[] unique(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int n = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                sorted[n++] = sorted[i];
+            }
+        }
+        return Arrays.copyOf(sorted, n);
+    }
+
+    private static float similarity(int count, int length1, int length2) {
+        return (float) count / (float) (length1 + length2 - count);
+    }
+}
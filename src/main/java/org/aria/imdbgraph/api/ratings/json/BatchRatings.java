@@ -0,0 +1,16 @@
+package org.aria.imdbgraph.api.ratings.json;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Data-class containing the ratings of several TV shows requested at once.
+ *
+ * @param ratings  Ratings of every show that was found, keyed by IMDB ID.
+ * @param notFound IDs of the requested shows that don't exist.
+ */
+public record BatchRatings(
+        Map<String, Ratings> ratings,
+        List<String> notFound
+) {
+}
@@ -0,0 +1,59 @@
+package org.aria.imdbgraph.api.ratings.json;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The same data as {@link Ratings}, laid out by column for clients that only
+ * plot graphs. Every season is a few parallel arrays instead of an object
+ * per episode, so field names aren't repeated for every episode, and the
+ * episode titles are kept apart in {@code titles}.
+ *
+ * @param titles Title of every episode (or null), in the order the episodes
+ *               appear in {@code seasons}.
+ */
+public record ColumnarRatings(
+        Show show,
+        List<Season> seasons,
+        List<String> titles
+) {
+
+    /**
+     * Episodes of one season, ordered by episode number. The i-th element of
+     * every array belongs to the same episode.
+     */
+    public record Season(
+            int season,
+            int[] episodeNumbers,
+            float[] imdbRatings,
+            int[] numVotes
+    ) {
+    }
+
+    public static ColumnarRatings of(Ratings ratings) {
+        int count = ratings.episodeCount();
+        List<Season> seasons = new ArrayList<>();
+        List<String> titles = new ArrayList<>(count);
+        int start = 0;
+        while (start < count) {
+            int season = ratings.season(start);
+            int end = start;
+            while (end < count && ratings.season(end) == season) {
+                end++;
+            }
+            int size = end - start;
+            int[] episodeNumbers = new int[size];
+            float[] imdbRatings = new float[size];
+            int[] numVotes = new int[size];
+            for (int i = 0; i < size; i++) {
+                episodeNumbers[i] = ratings.episodeNumber(start + i);
+                imdbRatings[i] = (float) ratings.imdbRating(start + i);
+                numVotes[i] = ratings.numVotes(start + i);
+                titles.add(ratings.episodeTitle(start + i));
+            }
+            seasons.add(new Season(season, episodeNumbers, imdbRatings, numVotes));
+            start = end;
+        }
+        return new ColumnarRatings(ratings.show(), seasons, titles);
+    }
+}
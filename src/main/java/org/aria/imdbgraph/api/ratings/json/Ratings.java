@@ -1,26 +1,173 @@
 package org.aria.imdbgraph.api.ratings.json;
 
-import java.util.LinkedHashMap;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
+import java.util.Objects;
 
 /**
  * Data-class containing all the IMDB episode ratings of a TV show.
+ * <p>
+ * Serialized as {@code {"show": ..., "allEpisodeRatings": {season: {episode:
+ * Episode}}}}, but held as one primitive array per column, ordered by season
+ * and episode number, rather than as nested maps of {@link Episode} records.
+ * That's five arrays per show however many episodes it has, instead of a
+ * boxed key, a map entry and a record per episode. {@link RatingsSerializer}
+ * writes the nested layout straight from the arrays.
  */
-public record Ratings(
-        Show show, Map<Integer,
-        Map<Integer, Episode>> allEpisodeRatings
-) {
+@JsonSerialize(using = RatingsSerializer.class)
+public final class Ratings {
+
+    private final Show show;
+    private final String[] titles;
+    private final int[] seasons;
+    private final int[] episodeNumbers;
+    private final double[] imdbRatings;
+    private final int[] numVotes;
+
+    /**
+     * @param allEpisodeRatings Ordered by season and episode number.
+     */
     public Ratings(Show show, List<Episode> allEpisodeRatings) {
-        this(show, toMap(allEpisodeRatings));
+        this(builder(show, allEpisodeRatings));
+    }
+
+    private Ratings(Builder b) {
+        this.show = b.show;
+        this.titles = Arrays.copyOf(b.titles, b.size);
+        this.seasons = Arrays.copyOf(b.seasons, b.size);
+        this.episodeNumbers = Arrays.copyOf(b.episodeNumbers, b.size);
+        this.imdbRatings = Arrays.copyOf(b.imdbRatings, b.size);
+        this.numVotes = Arrays.copyOf(b.numVotes, b.size);
+    }
+
+    public Show show() {
+        return show;
+    }
+
+    public int episodeCount() {
+        return seasons.length;
+    }
+
+    public String episodeTitle(int i) {
+        return titles[i];
+    }
+
+    public int season(int i) {
+        return seasons[i];
+    }
+
+    public int episodeNumber(int i) {
+        return episodeNumbers[i];
+    }
+
+    public double imdbRating(int i) {
+        return imdbRatings[i];
+    }
+
+    public int numVotes(int i) {
+        return numVotes[i];
     }
 
-    private static Map<Integer, Map<Integer, Episode>> toMap(List<Episode> episodeSequence) {
-        Map<Integer, Map<Integer, Episode>> map = new LinkedHashMap<>();
-        for (Episode e : episodeSequence) {
-            Map<Integer, Episode> seasonRatings = map.computeIfAbsent(e.season(), _ -> new LinkedHashMap<>());
-            seasonRatings.put(e.episodeNumber(), e);
+    public Episode episode(int i) {
+        return new Episode(titles[i], seasons[i], episodeNumbers[i], imdbRatings[i], numVotes[i]);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Ratings other
+               && Objects.equals(show, other.show)
+               && Arrays.equals(titles, other.titles)
+               && Arrays.equals(seasons, other.seasons)
+               && Arrays.equals(episodeNumbers, other.episodeNumbers)
+               && Arrays.equals(imdbRatings, other.imdbRatings)
+               && Arrays.equals(numVotes, other.numVotes);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(show, Arrays.hashCode(seasons), Arrays.hashCode(episodeNumbers));
+    }
+
+    @Override
+    public String toString() {
+        return "Ratings[show=" + show + ", episodes=" + episodeCount() + "]";
+    }
+
+    private static Builder builder(Show show, List<Episode> episodes) {
+        Builder builder = new Builder(show, episodes.size());
+        for (Episode e : episodes) {
+            builder.add(e.episodeTitle(), e.season(), e.episodeNumber(), e.imdbRating(), e.numVotes());
+        }
+        return builder;
+    }
+
+    /**
+     * Collects the episodes of a show straight from database rows, without
+     * creating an {@link Episode} per row. Episodes must be added ordered by
+     * season and episode number. When an episode number is repeated within a
+     * season, the last one added wins.
+     */
+    public static final class Builder {
+
+        private static final int MIN_CAPACITY = 16;
+
+        private final Show show;
+        private int size = 0;
+        private String[] titles;
+        private int[] seasons;
+        private int[] episodeNumbers;
+        private double[] imdbRatings;
+        private int[] numVotes;
+
+        public Builder(Show show, int expectedEpisodes) {
+            int capacity = Math.max(expectedEpisodes, MIN_CAPACITY);
+            this.show = show;
+            this.titles = new String[capacity];
+            this.seasons = new int[capacity];
+            this.episodeNumbers = new int[capacity];
+            this.imdbRatings = new double[capacity];
+            this.numVotes = new int[capacity];
+        }
+
+        public Builder add(String title, int season, int episodeNumber, double imdbRating, int votes) {
+            // Same checks as Episode.
+            if (votes < 0) {
+                throw new IllegalArgumentException("Negative votes");
+            }
+            if (imdbRating < 0.0 || imdbRating > 10.0) {
+                throw new IllegalArgumentException("Invalid rating");
+            }
+            if (size > 0) {
+                int lastSeason = seasons[size - 1];
+                int lastEpisode = episodeNumbers[size - 1];
+                if (season < lastSeason || (season == lastSeason && episodeNumber < lastEpisode)) {
+                    throw new IllegalArgumentException("Episodes not ordered: " + season + "." + episodeNumber);
+                }
+                if (season == lastSeason && episodeNumber == lastEpisode) {
+                    size--;
+                }
+            }
+            if (size == seasons.length) {
+                int capacity = size * 2;
+                titles = Arrays.copyOf(titles, capacity);
+                seasons = Arrays.copyOf(seasons, capacity);
+                episodeNumbers = Arrays.copyOf(episodeNumbers, capacity);
+                imdbRatings = Arrays.copyOf(imdbRatings, capacity);
+                numVotes = Arrays.copyOf(numVotes, capacity);
+            }
+            titles[size] = title;
+            seasons[size] = season;
+            episodeNumbers[size] = episodeNumber;
+            imdbRatings[size] = imdbRating;
+            numVotes[size] = votes;
+            size++;
+            return this;
+        }
+
+        public Ratings build() {
+            return new Ratings(this);
         }
-        return map;
     }
 }
@@ -0,0 +1,49 @@
+package org.aria.imdbgraph.api.ratings.json;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+
+/**
+ * Writes {@link Ratings} the way Jackson writes the nested maps it used to
+ * hold: the episodes grouped in an object per season, keyed by episode
+ * number, each with the same fields (in the same order) as {@link Episode}.
+ * Nothing is allocated per episode besides the keys.
+ */
+final class RatingsSerializer extends StdSerializer<Ratings> {
+
+    RatingsSerializer() {
+        super(Ratings.class);
+    }
+
+    @Override
+    public void serialize(Ratings ratings, JsonGenerator gen, SerializerProvider provider) throws IOException {
+        gen.writeStartObject();
+        provider.defaultSerializeField("show", ratings.show(), gen);
+        gen.writeObjectFieldStart("allEpisodeRatings");
+        int count = ratings.episodeCount();
+        for (int i = 0; i < count; i++) {
+            int season = ratings.season(i);
+            if (i == 0 || season != ratings.season(i - 1)) {
+                if (i > 0) {
+                    gen.writeEndObject();
+                }
+                gen.writeObjectFieldStart(Integer.toString(season));
+            }
+            gen.writeObjectFieldStart(Integer.toString(ratings.episodeNumber(i)));
+            gen.writeStringField("episodeTitle", ratings.episodeTitle(i));
+            gen.writeNumberField("season", season);
+            gen.writeNumberField("episodeNumber", ratings.episodeNumber(i));
+            gen.writeNumberField("imdbRating", ratings.imdbRating(i));
+            gen.writeNumberField("numVotes", ratings.numVotes(i));
+            gen.writeEndObject();
+        }
+        if (count > 0) {
+            gen.writeEndObject();
+        }
+        gen.writeEndObject();
+        gen.writeEndObject();
+    }
+}
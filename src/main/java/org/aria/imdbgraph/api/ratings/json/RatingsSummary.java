@@ -0,0 +1,13 @@
+package org.aria.imdbgraph.api.ratings.json;
+
+import java.util.List;
+
+/**
+ * Data-class containing a TV show with per season aggregates of its episode
+ * ratings, instead of every episode like {@link Ratings}.
+ */
+public record RatingsSummary(
+        Show show,
+        List<SeasonSummary> seasons
+) {
+}
@@ -0,0 +1,27 @@
+package org.aria.imdbgraph.api.ratings.json;
+
+/**
+ * Data-class containing aggregates of the episode ratings of one season.
+ * Episodes without any votes aren't rated yet, so they only count towards
+ * {@code episodeCount}. The rating fields are null if no episode is rated.
+ *
+ * @param averageRating Average rating of the episodes, weighted by votes.
+ * @param trend         How much the rating changes from one episode to the
+ *                      next over the season (least squares slope). Null with
+ *                      less than two rated episodes.
+ * @param bestEpisode   Highest rated episode (the most voted one on a tie).
+ * @param worstEpisode  Lowest rated episode (the most voted one on a tie).
+ */
+public record SeasonSummary(
+        int season,
+        int episodeCount,
+        int ratedEpisodeCount,
+        long numVotes,
+        Double averageRating,
+        Double minRating,
+        Double maxRating,
+        Double trend,
+        Episode bestEpisode,
+        Episode worstEpisode
+) {
+}
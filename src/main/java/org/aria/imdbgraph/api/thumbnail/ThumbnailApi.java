@@ -2,11 +2,12 @@ package org.aria.imdbgraph.api.thumbnail;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.aria.imdbgraph.api.thumbnail.ThumbnailDb.Thumbnail;
+import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RestController;
-
-import java.util.Optional;
+import org.springframework.web.server.ResponseStatusException;
 
 @RestController
 public class ThumbnailApi {
@@ -21,11 +22,14 @@ public class ThumbnailApi {
 
     @GetMapping("/thumbnail/{showId}")
     public String getRatings(@PathVariable(value = "showId") String showId) {
-        Optional<String> thumbnailUrl = thumbnailDb.getThumbnailUrl(showId);
-        if (thumbnailUrl.isEmpty()) {
+        Thumbnail thumbnail = thumbnailDb.getThumbnail(showId);
+        if (thumbnail.status() == Thumbnail.Status.UNKNOWN_SHOW) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Show not found");
+        }
+        if (thumbnail.url() == null) {
             logger.info("Could not find thumbnail for show: {}", showId);
             return null;
         }
-        return thumbnailUrl.get();
+        return thumbnail.url();
     }
 }
@@ -0,0 +1,88 @@
+package org.aria.imdbgraph.api.thumbnail;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.aria.imdbgraph.modules.Bulkhead;
+import org.aria.imdbgraph.modules.OmdbClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClientException;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Fetches thumbnails ahead of time, most voted shows first, so users almost
+ * never wait on OMDB.
+ * <p>
+ * Every {@code imdbgraph.thumbnails.backfill.interval}, a batch of shows
+ * without a cached thumbnail is fetched through {@link ThumbnailDb}. Batches
+ * are sized to spread {@code imdbgraph.thumbnails.backfill.budget-share} of
+ * the OMDB budget evenly over its window; the rest of the budget is never
+ * touched, so it stays available for cache misses from users.
+ * <p>
+ * The budget is counted by each node's {@link OmdbClient}, not shared, so
+ * the backfill must only be enabled on one node; otherwise every node spends
+ * its share of the same OMDB key.
+ */
+@Component
+public class ThumbnailBackfill {
+
+    private static final Logger logger = LogManager.getLogger(ThumbnailBackfill.class);
+
+    private final ThumbnailDb thumbnailDb;
+    private final OmdbClient omdbClient;
+    private final boolean enabled;
+    private final Duration interval;
+    private final double budgetShare;
+
+    public ThumbnailBackfill(
+            ThumbnailDb thumbnailDb,
+            OmdbClient omdbClient,
+            @Value("${imdbgraph.thumbnails.backfill.enabled:false}") boolean enabled,
+            @Value("${imdbgraph.thumbnails.backfill.interval:PT10M}") Duration interval,
+            @Value("${imdbgraph.thumbnails.backfill.budget-share:0.8}") double budgetShare
+    ) {
+        this.thumbnailDb = thumbnailDb;
+        this.omdbClient = omdbClient;
+        this.enabled = enabled;
+        this.interval = interval;
+        this.budgetShare = budgetShare;
+    }
+
+    @Scheduled(
+            initialDelayString = "${imdbgraph.thumbnails.backfill.interval:PT10M}",
+            fixedDelayString = "${imdbgraph.thumbnails.backfill.interval:PT10M}"
+    )
+    public void backfill() {
+        if (!enabled) {
+            return;
+        }
+        int share = (int) (omdbClient.getLimit() * budgetShare);
+        int reserved = omdbClient.getLimit() - share;
+        double runsPerWindow = (double) omdbClient.getWindow().toMillis() / interval.toMillis();
+        int batchSize = (int) Math.max(1, Math.ceil(share / runsPerWindow));
+        int available = Math.min(batchSize, omdbClient.remainingBudget() - reserved);
+        if (available <= 0) {
+            logger.debug("Skipping thumbnail backfill, OMDB budget is reserved for users");
+            return;
+        }
+
+        List<String> showIds = thumbnailDb.getShowsWithoutThumbnail(available);
+        int fetched = 0;
+        for (String showId : showIds) {
+            if (omdbClient.remainingBudget() <= reserved) {
+                break;
+            }
+            try {
+                thumbnailDb.getThumbnail(showId);
+            } catch (Bulkhead.BulkheadFullException | RestClientException e) {
+                logger.warn("Stopping thumbnail backfill early", e);
+                break;
+            }
+            fetched++;
+        }
+        logger.info("Backfilled thumbnails for {} shows", fetched);
+    }
+}
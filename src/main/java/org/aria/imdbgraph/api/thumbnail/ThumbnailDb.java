@@ -1,44 +1,288 @@
 package org.aria.imdbgraph.api.thumbnail;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import org.aria.imdbgraph.modules.OmdbClient;
+import org.aria.imdbgraph.modules.ReadReplica;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Repository;
 
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+/**
+ * Thumbnail URLs, cached in the thumbnails table and fetched from OMDB on a
+ * miss.
+ * <p>
+ * Lookups first go through a bounded in-memory cache (Caffeine, which admits
+ * and evicts by how often entries are used), so popular shows don't hit the
+ * database at all. Shows OMDB has no poster for are recorded too, in memory
+ * and as a row without a URL, and aren't asked for again until
+ * {@code imdbgraph.thumbnails.no-poster-ttl} has passed. IDs that aren't
+ * shows are only remembered in memory, for
+ * {@code imdbgraph.thumbnails.unknown-show-ttl} (they can't go in the table,
+ * and may become shows with the next ingest).
+ * <p>
+ * Only one OMDB fetch per show is in flight at a time: concurrent misses for
+ * the same show wait for the first one instead of spending more of the OMDB
+ * budget (and racing to insert the same row). Most thumbnails should already
+ * be cached by {@link ThumbnailBackfill} before anyone asks for them.
+ * <p>
+ * Lookups go to the read replica when there is one (see {@link ReadReplica});
+ * inserts, and the lookup that guards them, go to the primary.
+ */
 @Repository
 public class ThumbnailDb {
 
     private final JdbcTemplate jdbcTemplate;
+    private final JdbcTemplate readJdbcTemplate;
     private final OmdbClient omdbClient;
+    private final Duration noPosterTtl;
+    private final Duration unknownShowTtl;
 
-    public ThumbnailDb(JdbcTemplate jdbcTemplate, OmdbClient omdbClient) {
+    private final Timer selectTimer;
+    private final Timer insertTimer;
+    private final Counter cacheHits;
+    private final Counter cacheMisses;
+
+    private final Cache<String, Thumbnail> memory;
+    private final ConcurrentMap<String, CompletableFuture<Thumbnail>> inFlight = new ConcurrentHashMap<>();
+
+    public ThumbnailDb(
+            JdbcTemplate jdbcTemplate,
+            ReadReplica readReplica,
+            OmdbClient omdbClient,
+            MeterRegistry meterRegistry,
+            @Value("${imdbgraph.thumbnails.cache.max-size:100000}") long maxSize,
+            @Value("${imdbgraph.thumbnails.no-poster-ttl:7d}") Duration noPosterTtl,
+            @Value("${imdbgraph.thumbnails.unknown-show-ttl:1h}") Duration unknownShowTtl
+    ) {
         this.jdbcTemplate = jdbcTemplate;
+        this.readJdbcTemplate = readReplica.jdbcTemplate();
         this.omdbClient = omdbClient;
+        this.noPosterTtl = noPosterTtl;
+        this.unknownShowTtl = unknownShowTtl;
+        this.selectTimer = queryTimer(meterRegistry, "thumbnail");
+        this.insertTimer = queryTimer(meterRegistry, "thumbnail_insert");
+        this.cacheHits = cacheCounter(meterRegistry, "hit");
+        this.cacheMisses = cacheCounter(meterRegistry, "miss");
+        this.memory = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfter(new UntilExpiresAt())
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, memory, "thumbnails");
+        Gauge.builder("imdbgraph.thumbnail.memory.hit.ratio", memory, c -> c.stats().hitRate())
+                .description("Share of thumbnail lookups answered from memory")
+                .register(meterRegistry);
     }
 
+    /**
+     * Return the thumbnail URL of a show, or an empty result if it has none
+     * (or the OMDB budget is used up).
+     */
     public Optional<String> getThumbnailUrl(String showId) {
-        // Check cache
-        List<String> results = jdbcTemplate.query(
-                "SELECT thumbnail_url FROM imdb.thumbnails WHERE imdb_id = ?",
-                (rs, _) -> rs.getString(1),
-                showId
+        return Optional.ofNullable(getThumbnail(showId).url());
+    }
+
+    public Thumbnail getThumbnail(String showId) {
+        Thumbnail remembered = memory.getIfPresent(showId);
+        if (remembered != null) {
+            return remembered;
+        }
+        Thumbnail thumbnail = getStoredOrFetch(showId);
+        if (thumbnail.isCacheable()) {
+            memory.put(showId, thumbnail);
+        }
+        return thumbnail;
+    }
+
+    /**
+     * Most voted shows that have no thumbnail stored (or whose "no poster"
+     * entry has expired), for {@link ThumbnailBackfill}.
+     */
+    public List<String> getShowsWithoutThumbnail(int limit) {
+        return readJdbcTemplate.queryForList("""
+                        SELECT imdb_id
+                        FROM imdb.show s
+                        WHERE NOT EXISTS(SELECT 1
+                                         FROM imdb.thumbnails t
+                                         WHERE t.imdb_id = s.imdb_id
+                                           AND (t.thumbnail_url IS NOT NULL OR t.fetched_at > ?))
+                        ORDER BY num_votes DESC
+                        LIMIT ?""",
+                String.class,
+                Timestamp.from(Instant.now().minus(noPosterTtl)),
+                limit
         );
-        if (results.size() == 1) { // Return cached
-            return Optional.of(results.getFirst());
-        }
-
-        // Check db + update cache.
-        var url = omdbClient.getThumbnailUrl(showId); // Fetch
-        if (url.isPresent()) { // Update cache
-            jdbcTemplate.update(
-                    "INSERT INTO imdb.thumbnails(imdb_id, thumbnail_url) VALUES(?, ?)",
-                    showId, url
-            );
-            return url;
-        } else {
+    }
+
+    private Thumbnail getStoredOrFetch(String showId) {
+        Optional<Thumbnail> stored = getStored(readJdbcTemplate, showId);
+        if (stored.isPresent()) {
+            cacheHits.increment();
+            return stored.get();
+        }
+        cacheMisses.increment();
+
+        CompletableFuture<Thumbnail> fetch = new CompletableFuture<>();
+        CompletableFuture<Thumbnail> existing = inFlight.putIfAbsent(showId, fetch);
+        if (existing != null) { // Someone else is already fetching it.
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+        }
+        try {
+            Thumbnail thumbnail = fetch(showId);
+            fetch.complete(thumbnail);
+            return thumbnail;
+        } catch (RuntimeException e) {
+            fetch.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(showId, fetch);
+        }
+    }
+
+    private Thumbnail fetch(String showId) {
+        // The previous fetch may have finished between the first lookup and
+        // this one taking its place. Asks the primary, since the replica may
+        // not have that row yet.
+        Optional<Thumbnail> stored = getStored(jdbcTemplate, showId);
+        if (stored.isPresent()) {
+            return stored.get();
+        }
+        Optional<String> url;
+        try {
+            url = omdbClient.getThumbnailUrl(showId);
+        } catch (OmdbClient.BudgetExhaustedException e) {
+            return Thumbnail.notFetched();
+        }
+        Instant now = Instant.now();
+        insertTimer.record(() -> jdbcTemplate.update("""
+                        INSERT INTO imdb.thumbnails(imdb_id, thumbnail_url, fetched_at)
+                        VALUES (?, ?, ?)
+                        ON CONFLICT (imdb_id) DO UPDATE SET thumbnail_url = excluded.thumbnail_url,
+                                                            fetched_at    = excluded.fetched_at""",
+                showId, url.orElse(null), Timestamp.from(now)
+        ));
+        return url.map(Thumbnail::found).orElseGet(() -> Thumbnail.noPoster(now.plus(noPosterTtl)));
+    }
+
+    // Empty if the show's thumbnail has to be fetched from OMDB.
+    private Optional<Thumbnail> getStored(JdbcTemplate jdbc, String showId) {
+        List<Thumbnail> results = selectTimer.record(() -> jdbc.query("""
+                        SELECT t.thumbnail_url, t.fetched_at
+                        FROM imdb.show s
+                                 LEFT JOIN imdb.thumbnails t ON t.imdb_id = s.imdb_id
+                        WHERE s.imdb_id = ?""",
+                (rs, _) -> {
+                    String url = rs.getString(1);
+                    Timestamp fetchedAt = rs.getTimestamp(2);
+                    if (url != null) {
+                        return Thumbnail.found(url);
+                    } else if (fetchedAt != null) {
+                        return Thumbnail.noPoster(fetchedAt.toInstant().plus(noPosterTtl));
+                    } else {
+                        return null;
+                    }
+                },
+                showId
+        ));
+        if (results.isEmpty()) {
+            return Optional.of(Thumbnail.unknownShow(Instant.now().plus(unknownShowTtl)));
+        }
+        Thumbnail thumbnail = results.getFirst();
+        if (thumbnail == null || !thumbnail.isCacheable()) {
             return Optional.empty();
         }
+        return Optional.of(thumbnail);
+    }
+
+    private static Timer queryTimer(MeterRegistry meterRegistry, String query) {
+        return Timer.builder("imdbgraph.db.query")
+                .description("Time spent running a database query")
+                .tag("query", query)
+                .register(meterRegistry);
+    }
+
+    private static Counter cacheCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("imdbgraph.thumbnail.cache")
+                .description("Thumbnail lookups (not answered from memory) found in the thumbnails table (hit) or not (miss)")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    /**
+     * What's known about a show's thumbnail.
+     *
+     * @param url       Null unless {@code status} is {@link Status#FOUND}.
+     * @param expiresAt When this should be looked up again. Null if never.
+     */
+    public record Thumbnail(Status status, String url, Instant expiresAt) {
+
+        public enum Status {
+            FOUND,
+            NO_POSTER,
+            UNKNOWN_SHOW
+        }
+
+        static Thumbnail found(String url) {
+            return new Thumbnail(Status.FOUND, url, null);
+        }
+
+        static Thumbnail noPoster(Instant expiresAt) {
+            return new Thumbnail(Status.NO_POSTER, null, expiresAt);
+        }
+
+        static Thumbnail unknownShow(Instant expiresAt) {
+            return new Thumbnail(Status.UNKNOWN_SHOW, null, expiresAt);
+        }
+
+        // OMDB wasn't asked, so nothing is known yet.
+        static Thumbnail notFetched() {
+            return noPoster(Instant.EPOCH);
+        }
+
+        private boolean isCacheable() {
+            return expiresAt == null || expiresAt.isAfter(Instant.now());
+        }
+    }
+
+    private static final class UntilExpiresAt implements Expiry<String, Thumbnail> {
+
+        @Override
+        public long expireAfterCreate(String key, Thumbnail value, long currentTime) {
+            if (value.expiresAt() == null) {
+                return Long.MAX_VALUE;
+            }
+            return Math.max(0, Duration.between(Instant.now(), value.expiresAt()).toNanos());
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, Thumbnail value, long currentTime, long currentDuration) {
+            return expireAfterCreate(key, value, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String key, Thumbnail value, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
     }
 }
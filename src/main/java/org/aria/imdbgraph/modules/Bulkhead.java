@@ -0,0 +1,93 @@
+package org.aria.imdbgraph.modules;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Caps how many threads can use a resource (the database, OMDB) at once.
+ * <p>
+ * With virtual threads there's no thread pool limiting how many requests run
+ * at the same time anymore, so without this every request would pile onto
+ * the resource and wait there. Instead, callers queue here (fairly) for at
+ * most {@code maxWait} and then fail fast with a
+ * {@link BulkheadFullException}, which is answered with a 503.
+ */
+public final class Bulkhead implements MeterBinder {
+
+    private final String name;
+    private final int maxConcurrent;
+    private final Duration maxWait;
+    private final Semaphore permits;
+    private final AtomicLong rejected = new AtomicLong();
+
+    public Bulkhead(String name, int maxConcurrent, Duration maxWait) {
+        this.name = name;
+        this.maxConcurrent = maxConcurrent;
+        this.maxWait = maxWait;
+        this.permits = new Semaphore(maxConcurrent, true);
+    }
+
+    /**
+     * Wait for a turn. Every successful call must be followed by exactly one
+     * {@link #release()}.
+     *
+     * @throws BulkheadFullException If no turn came up within the max wait.
+     */
+    public void acquire() {
+        try {
+            if (!permits.tryAcquire(maxWait.toNanos(), TimeUnit.NANOSECONDS)) {
+                rejected.incrementAndGet();
+                throw new BulkheadFullException(name);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BulkheadFullException(name);
+        }
+    }
+
+    public void release() {
+        permits.release();
+    }
+
+    public <T> T call(Supplier<T> task) {
+        acquire();
+        try {
+            return task.get();
+        } finally {
+            release();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("imdbgraph.bulkhead.active", permits, p -> maxConcurrent - p.availablePermits())
+                .description("Callers currently holding a turn")
+                .tag("name", name)
+                .register(registry);
+        Gauge.builder("imdbgraph.bulkhead.queued", permits, Semaphore::getQueueLength)
+                .description("Callers waiting for a turn")
+                .tag("name", name)
+                .register(registry);
+        FunctionCounter.builder("imdbgraph.bulkhead.rejected", rejected, AtomicLong::get)
+                .description("Callers that gave up waiting for a turn")
+                .tag("name", name)
+                .register(registry);
+    }
+
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    public static class BulkheadFullException extends RuntimeException {
+        public BulkheadFullException(String name) {
+            super("Too many concurrent requests for: " + name);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package org.aria.imdbgraph.modules;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Puts a {@link Bulkhead} in front of the connection pool for requests: a
+ * thread serving an HTTP request can only take a connection from the pool
+ * with a turn, and the turn is given back when the connection is closed
+ * (returned to the pool). Everything else (Flyway, ingests, snapshot exports
+ * and reloads) takes connections without a turn, so a burst of requests
+ * can't make them fail.
+ * <p>
+ * {@code imdbgraph.bulkhead.database.max-concurrent} should be less than the
+ * pool size, by as many connections as an ingest uses, otherwise requests
+ * would just wait in the pool instead.
+ */
+@Component
+public class DatabaseBulkhead implements BeanPostProcessor, MeterBinder {
+
+    private final Bulkhead bulkhead;
+
+    public DatabaseBulkhead(
+            @Value("${imdbgraph.bulkhead.database.max-concurrent:10}") int maxConcurrent,
+            @Value("${imdbgraph.bulkhead.database.max-wait:5s}") Duration maxWait
+    ) {
+        this.bulkhead = new Bulkhead("database", maxConcurrent, maxWait);
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof DataSource dataSource && !(bean instanceof BulkheadDataSource)) {
+            return new BulkheadDataSource(dataSource, bulkhead);
+        }
+        return bean;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        bulkhead.bindTo(registry);
+    }
+
+    private static final class BulkheadDataSource extends DelegatingDataSource {
+
+        private final Bulkhead bulkhead;
+
+        BulkheadDataSource(DataSource target, Bulkhead bulkhead) {
+            super(target);
+            this.bulkhead = bulkhead;
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            if (!inRequest()) {
+                return obtainTargetDataSource().getConnection();
+            }
+            bulkhead.acquire();
+            try {
+                return releasingOnClose(obtainTargetDataSource().getConnection());
+            } catch (SQLException | RuntimeException e) {
+                bulkhead.release();
+                throw e;
+            }
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            if (!inRequest()) {
+                return obtainTargetDataSource().getConnection(username, password);
+            }
+            bulkhead.acquire();
+            try {
+                return releasingOnClose(obtainTargetDataSource().getConnection(username, password));
+            } catch (SQLException | RuntimeException e) {
+                bulkhead.release();
+                throw e;
+            }
+        }
+
+        // Spring binds the request to the thread handling it.
+        private static boolean inRequest() {
+            return RequestContextHolder.getRequestAttributes() != null;
+        }
+
+        private Connection releasingOnClose(Connection connection) {
+            AtomicBoolean released = new AtomicBoolean(false);
+            return (Connection) Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class},
+                    (_, method, args) -> {
+                        try {
+                            return method.invoke(connection, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        } finally {
+                            if (method.getName().equals("close") && released.compareAndSet(false, true)) {
+                                bulkhead.release();
+                            }
+                        }
+                    }
+            );
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package org.aria.imdbgraph.modules;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.String.format;
+
+/**
+ * Lets every node know when another one has committed a new dataset, so it
+ * reloads straight away instead of serving the old one until it restarts.
+ * <p>
+ * The node that ran the ingest sends a Postgres {@code NOTIFY} on
+ * {@value #CHANNEL} once the dataset is committed, after
+ * {@link DatasetSnapshotExporter} has written it to a snapshot file, so the
+ * other nodes can map the new file instead of reading the dataset from the
+ * database. Every node {@code LISTEN}s on
+ * a connection of its own (outside the pool) and publishes a
+ * {@link DatasetUpdatedEvent} for notifications from other nodes, after a
+ * random delay of up to {@code imdbgraph.dataset.notifications.max-jitter}
+ * so they don't all reload from the database at the same moment. The node
+ * that ran the ingest has already published the event itself.
+ * <p>
+ * If the connection drops, it's opened again after
+ * {@code imdbgraph.dataset.notifications.reconnect-delay}, and a dataset
+ * committed in the meantime is reloaded like a notification would have been.
+ */
+@Component
+public class DatasetNotifications implements DisposableBean {
+
+    public static final String CHANNEL = "imdbgraph_dataset";
+
+    private static final Logger logger = LogManager.getLogger(DatasetNotifications.class);
+
+    // Tells the notifications this node sent apart from the others'.
+    private static final String NODE_ID = UUID.randomUUID().toString();
+
+    // How long a wait for notifications lasts, so a stop is noticed.
+    private static final int POLL_MILLIS = 1000;
+
+    private final DatasetVersion datasetVersion;
+    private final ApplicationEventPublisher eventPublisher;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final String url;
+    private final String username;
+    private final String password;
+    private final boolean enabled;
+    private final Duration maxJitter;
+    private final Duration reconnectDelay;
+
+    private final ScheduledExecutorService reloads = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("dataset-reload").daemon().factory());
+
+    private volatile Thread listener;
+
+    public DatasetNotifications(
+            DatasetVersion datasetVersion,
+            ApplicationEventPublisher eventPublisher,
+            JdbcTemplate jdbcTemplate,
+            PlatformTransactionManager transactionManager,
+            @Value("${spring.datasource.url}") String url,
+            @Value("${spring.datasource.username:}") String username,
+            @Value("${spring.datasource.password:}") String password,
+            @Value("${imdbgraph.dataset.notifications.enabled:true}") boolean enabled,
+            @Value("${imdbgraph.dataset.notifications.max-jitter:10s}") Duration maxJitter,
+            @Value("${imdbgraph.dataset.notifications.reconnect-delay:5s}") Duration reconnectDelay
+    ) {
+        this.datasetVersion = datasetVersion;
+        this.eventPublisher = eventPublisher;
+        this.jdbcTemplate = jdbcTemplate;
+        // The ingest's transaction has committed but may still be bound to
+        // the thread when the event is handled, and a NOTIFY is only sent
+        // when its transaction commits.
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.url = url;
+        this.username = username;
+        this.password = password;
+        this.enabled = enabled;
+        this.maxJitter = maxJitter;
+        this.reconnectDelay = reconnectDelay;
+    }
+
+    /*
+     * Runs after DatasetSnapshotExporter's listener, so the snapshot file of
+     * the new version is there by the time the other nodes reload. If the
+     * notification can't be sent, they pick the dataset up when they next
+     * check for snapshot files or reconnect.
+     */
+    @Order(Ordered.HIGHEST_PRECEDENCE + 2)
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onDatasetUpdated(DatasetUpdatedEvent event) {
+        if (event.remote()) {
+            return;
+        }
+        try {
+            transactionTemplate.executeWithoutResult(_ -> jdbcTemplate.execute(
+                    format("NOTIFY %s, '%d:%s'", CHANNEL, event.version(), NODE_ID)));
+        } catch (RuntimeException e) {
+            logger.error("Couldn't tell the other nodes about dataset version {}", event.version(), e);
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled || listener != null) {
+            return;
+        }
+        Thread thread = Thread.ofPlatform().name("dataset-notifications").daemon().unstarted(this::listen);
+        listener = thread;
+        thread.start();
+    }
+
+    @Override
+    public void destroy() {
+        Thread running = listener;
+        listener = null;
+        if (running != null) {
+            running.interrupt();
+        }
+        reloads.shutdownNow();
+    }
+
+    private void listen() {
+        boolean reconnecting = false;
+        while (listener == Thread.currentThread()) {
+            try (Connection con = DriverManager.getConnection(url, username, password)) {
+                PGConnection pg = con.unwrap(PGConnection.class);
+                try (Statement statement = con.createStatement()) {
+                    statement.execute("LISTEN " + CHANNEL);
+                    if (reconnecting) {
+                        catchUp(statement);
+                    }
+                }
+                logger.info("Listening for new datasets on {}", CHANNEL);
+                reconnecting = true;
+                while (listener == Thread.currentThread()) {
+                    PGNotification[] notifications = pg.getNotifications(POLL_MILLIS);
+                    if (notifications == null) {
+                        continue;
+                    }
+                    for (PGNotification notification : notifications) {
+                        onNotification(notification.getParameter());
+                    }
+                }
+            } catch (SQLException e) {
+                if (listener != Thread.currentThread()) {
+                    return;
+                }
+                logger.warn("Lost the connection listening for new datasets, reconnecting in {}", reconnectDelay, e);
+                try {
+                    Thread.sleep(reconnectDelay);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    // Notifications sent while the connection was down are lost.
+    private void catchUp(Statement statement) throws SQLException {
+        try (ResultSet rs = statement.executeQuery("SELECT COALESCE(MAX(version), 0) FROM imdb.dataset_version")) {
+            rs.next();
+            scheduleReload(rs.getLong(1));
+        }
+    }
+
+    private void onNotification(String payload) {
+        int colon = payload.indexOf(':');
+        if (colon < 0) {
+            logger.warn("Ignoring malformed dataset notification '{}'", payload);
+            return;
+        }
+        if (payload.substring(colon + 1).equals(NODE_ID)) {
+            return;
+        }
+        try {
+            scheduleReload(Long.parseLong(payload.substring(0, colon)));
+        } catch (NumberFormatException e) {
+            logger.warn("Ignoring malformed dataset notification '{}'", payload);
+        }
+    }
+
+    private void scheduleReload(long version) {
+        if (version <= datasetVersion.current()) {
+            return;
+        }
+        long delay = ThreadLocalRandom.current().nextLong(maxJitter.toMillis() + 1);
+        logger.info("Dataset version {} was committed by another node, reloading in {} ms", version, delay);
+        reloads.schedule(() -> reload(version), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void reload(long version) {
+        // Already reloaded, for this notification or a later one.
+        if (version <= datasetVersion.current()) {
+            return;
+        }
+        try {
+            eventPublisher.publishEvent(new DatasetUpdatedEvent(version, Instant.now(), true));
+        } catch (RuntimeException e) {
+            logger.error("Couldn't reload dataset version {}", version, e);
+        }
+    }
+}
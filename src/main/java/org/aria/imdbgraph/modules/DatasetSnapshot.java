@@ -0,0 +1,572 @@
+package org.aria.imdbgraph.modules;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.ObjLongConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A version of the dataset (shows and episodes) in a single binary file, so
+ * API nodes can start serving without loading anything from the database.
+ * Files are written by {@link DatasetSnapshotExporter} once every ingest
+ * commits (see {@link Writer}) and opened with {@link #open(Path)}, which
+ * maps the file into memory: values are read straight from the page cache,
+ * so opening a snapshot takes about as long as checking its checksum and
+ * barely uses the heap.
+ * <p>
+ * Layout (big endian):
+ * <pre>
+ * header    magic, format, dataset version, counts, strings offset, length, CRC32C
+ * shows     one fixed size record per show, sorted by the UTF-8 bytes of the ID:
+ *           ID, title, start and end year (string offsets), rating, votes,
+ *           first episode and episode count
+ * episodes  one fixed size record per episode, grouped by show in the same
+ *           order and ordered by season and episode number: title (string
+ *           offset), season, episode number, votes, rating
+ * strings   length (-1 for null) and UTF-8 bytes of every string
+ * </pre>
+ * The show records are the index: a show is found by binary search, and its
+ * episodes are the range its record points to.
+ */
+public final class DatasetSnapshot {
+
+    private static final long MAGIC = 0x494D4442534E4150L; // "IMDBSNAP"
+    private static final int FORMAT = 1;
+
+    private static final int HEADER_SIZE = 64;
+    private static final int SHOW_SIZE = 40;
+    private static final int EPISODE_SIZE = 24;
+
+    private static final Pattern FILE_NAME = Pattern.compile("dataset-(\\d+)\\.snapshot");
+
+    private final ByteBuffer buffer;
+    private final long version;
+    private final int showCount;
+    private final int episodeCount;
+    private final int episodesAt;
+    private final int stringsAt;
+
+    private DatasetSnapshot(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.limit() < HEADER_SIZE || buffer.getLong(0) != MAGIC) {
+            throw new IOException("Not a dataset snapshot");
+        }
+        if (buffer.getInt(8) != FORMAT) {
+            throw new IOException("Unsupported snapshot format " + buffer.getInt(8));
+        }
+        this.showCount = buffer.getInt(12);
+        this.version = buffer.getLong(16);
+        this.episodeCount = buffer.getInt(24);
+        this.stringsAt = (int) buffer.getLong(32);
+        this.episodesAt = HEADER_SIZE + showCount * SHOW_SIZE;
+        if (buffer.getLong(40) != buffer.limit()) {
+            throw new IOException("Snapshot is truncated");
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(HEADER_SIZE, buffer.limit() - HEADER_SIZE));
+        if (crc.getValue() != buffer.getLong(48)) {
+            throw new IOException("Snapshot checksum doesn't match");
+        }
+    }
+
+    /**
+     * Maps a snapshot file and checks its checksum.
+     *
+     * @throws IOException If the file can't be read or isn't a valid snapshot.
+     */
+    public static DatasetSnapshot open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot too large to map: " + channel.size());
+            }
+            // Stays valid after the channel is closed.
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new DatasetSnapshot(buffer);
+        }
+    }
+
+    /**
+     * The snapshot file with the highest dataset version in {@code dir}.
+     */
+    public static Optional<Path> latest(Path dir) throws IOException {
+        return files(dir).stream().max(Comparator.comparingLong(DatasetSnapshot::versionOf));
+    }
+
+    public long version() {
+        return version;
+    }
+
+    public int showCount() {
+        return showCount;
+    }
+
+    public int episodeCount() {
+        return episodeCount;
+    }
+
+    /**
+     * Position of a show in the snapshot, or a negative number if it isn't
+     * in it.
+     */
+    public int indexOf(String showId) {
+        if (showId == null) {
+            return -1;
+        }
+        byte[] id = showId.getBytes(UTF_8);
+        int low = 0;
+        int high = showCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareString(show(mid), id);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    public String showId(int show) {
+        return string(buffer.getInt(show(show)));
+    }
+
+    public String title(int show) {
+        return string(buffer.getInt(show(show) + 4));
+    }
+
+    public String startYear(int show) {
+        return string(buffer.getInt(show(show) + 8));
+    }
+
+    public String endYear(int show) {
+        return string(buffer.getInt(show(show) + 12));
+    }
+
+    public double showRating(int show) {
+        return buffer.getDouble(show(show) + 16);
+    }
+
+    public int showVotes(int show) {
+        return buffer.getInt(show(show) + 24);
+    }
+
+    /**
+     * Position of the show's first episode; its episodes are the next
+     * {@link #episodeCount(int)} ones.
+     */
+    public int firstEpisode(int show) {
+        return buffer.getInt(show(show) + 28);
+    }
+
+    public int episodeCount(int show) {
+        return buffer.getInt(show(show) + 32);
+    }
+
+    public String episodeTitle(int episode) {
+        return string(buffer.getInt(episode(episode)));
+    }
+
+    public int season(int episode) {
+        return buffer.getInt(episode(episode) + 4);
+    }
+
+    public int episodeNumber(int episode) {
+        return buffer.getInt(episode(episode) + 8);
+    }
+
+    public int episodeVotes(int episode) {
+        return buffer.getInt(episode(episode) + 12);
+    }
+
+    public double episodeRating(int episode) {
+        return buffer.getDouble(episode(episode) + 16);
+    }
+
+    private int show(int show) {
+        return HEADER_SIZE + show * SHOW_SIZE;
+    }
+
+    private int episode(int episode) {
+        return episodesAt + episode * EPISODE_SIZE;
+    }
+
+    // The ID of the show whose record starts at showAt, compared to id.
+    private int compareString(int showAt, byte[] id) {
+        int at = stringsAt + buffer.getInt(showAt);
+        int length = buffer.getInt(at);
+        for (int i = 0; i < Math.min(length, id.length); i++) {
+            int cmp = Byte.compareUnsigned(buffer.get(at + 4 + i), id[i]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(length, id.length);
+    }
+
+    private String string(int offset) {
+        int at = stringsAt + offset;
+        int length = buffer.getInt(at);
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(at + 4, bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static List<Path> files(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(f -> FILE_NAME.matcher(f.getFileName().toString()).matches()).toList();
+        }
+    }
+
+    /**
+     * The dataset version of a snapshot file, from its name (-1 if it isn't
+     * named like one).
+     */
+    public static long versionOf(Path file) {
+        Matcher matcher = FILE_NAME.matcher(file.getFileName().toString());
+        return matcher.matches() ? Long.parseLong(matcher.group(1)) : -1;
+    }
+
+    /**
+     * Writes the shows and episodes of a dataset to a snapshot file. Shows
+     * must be added in ascending order of the UTF-8 bytes of their IDs
+     * ({@code ORDER BY imdb_id COLLATE "C"}) before any episode, and
+     * episodes grouped by show in that same order, then ordered by season
+     * and episode number.
+     * <p>
+     * Each section is written to a temporary file in the snapshot directory
+     * as it's added, so the writer only holds the show IDs and two ints per
+     * show however large the dataset is. {@link #finish()} copies the
+     * sections into the snapshot, computing the checksum as it goes, and
+     * writes the header last. Closing a writer deletes its temporary files.
+     */
+    public static final class Writer implements Closeable {
+
+        private static final int INITIAL_SHOWS = 1024;
+
+        private final Path dir;
+        private final long version;
+
+        // Many shows share the same start/end year so only keep one copy.
+        private final Map<String, Integer> years = new HashMap<>();
+        private final Map<String, Integer> showIndexes = new HashMap<>();
+
+        private final Section shows;
+        private final Section episodes;
+        private final Section strings;
+
+        private int showCount = 0;
+        private byte[] lastShowId;
+        // Filled into the show records by finish().
+        private int[] firstEpisodes = new int[INITIAL_SHOWS];
+        private int[] episodeCounts = new int[INITIAL_SHOWS];
+
+        private int episodeCount = 0;
+        private int lastShow = -1;
+
+        public Writer(Path dir, long version) throws IOException {
+            this.dir = dir;
+            this.version = version;
+            Files.createDirectories(dir);
+            List<Section> sections = new ArrayList<>(3);
+            try {
+                for (String name : List.of("shows", "episodes", "strings")) {
+                    sections.add(new Section(dir, "dataset-" + version + "-" + name));
+                }
+            } catch (IOException e) {
+                for (Section section : sections) {
+                    section.close();
+                }
+                throw e;
+            }
+            this.shows = sections.get(0);
+            this.episodes = sections.get(1);
+            this.strings = sections.get(2);
+        }
+
+        /**
+         * @throws UncheckedIOException If the show can't be written to the
+         *                              temporary file.
+         */
+        public void addShow(String imdbId, String title, String startYear, String endYear, double rating, int votes) {
+            if (episodeCount > 0) {
+                throw new IllegalStateException("Shows must be added before episodes");
+            }
+            byte[] id = imdbId.getBytes(UTF_8);
+            if (lastShowId != null && Arrays.compareUnsigned(lastShowId, id) >= 0) {
+                throw new IllegalArgumentException("Shows not sorted by ID: " + imdbId);
+            }
+            if (showCount == firstEpisodes.length) {
+                firstEpisodes = Arrays.copyOf(firstEpisodes, showCount * 2);
+                episodeCounts = Arrays.copyOf(episodeCounts, showCount * 2);
+            }
+            int idAt = addString(imdbId);
+            int titleAt = addString(title);
+            int startYearAt = addYear(startYear);
+            int endYearAt = addYear(endYear);
+            shows.room(SHOW_SIZE)
+                    .putInt(idAt)
+                    .putInt(titleAt)
+                    .putInt(startYearAt)
+                    .putInt(endYearAt)
+                    .putDouble(rating)
+                    .putInt(votes)
+                    .putInt(0) // First episode and episode count, filled in by finish().
+                    .putInt(0)
+                    .putInt(0); // Padding, to keep ratings 8 byte aligned.
+            showIndexes.put(imdbId, showCount);
+            lastShowId = id;
+            showCount++;
+        }
+
+        /**
+         * Adds an episode to a previously added show. Episodes whose show is
+         * unknown are ignored.
+         *
+         * @throws UncheckedIOException If the episode can't be written to the
+         *                              temporary file.
+         */
+        public void addEpisode(String showId, String title, int season, int episodeNumber, double rating, int votes) {
+            Integer show = showIndexes.get(showId);
+            if (show == null) {
+                return;
+            }
+            if (show < lastShow) {
+                throw new IllegalArgumentException("Episodes not grouped by show: " + showId);
+            }
+            if (show != lastShow) {
+                firstEpisodes[show] = episodeCount;
+                lastShow = show;
+            }
+            episodeCounts[show]++;
+            int titleAt = addString(title);
+            episodes.room(EPISODE_SIZE)
+                    .putInt(titleAt)
+                    .putInt(season)
+                    .putInt(episodeNumber)
+                    .putInt(votes)
+                    .putDouble(rating);
+            episodeCount++;
+        }
+
+        /**
+         * Writes the snapshot to the directory as {@code dataset-<version>.snapshot}
+         * and deletes the temporary files. The file is written under a
+         * temporary name and renamed once complete, so readers never see a
+         * partial snapshot.
+         */
+        public Path finish() throws IOException {
+            Path file = dir.resolve("dataset-" + version + ".snapshot");
+            Path partial = dir.resolve(file.getFileName() + ".partial");
+            try {
+                long stringsAt = HEADER_SIZE + shows.size() + episodes.size();
+                long length = stringsAt + strings.size();
+                if (length > Integer.MAX_VALUE) {
+                    throw new IOException("Snapshot too large to map: " + length);
+                }
+                CRC32C crc = new CRC32C();
+                try (FileChannel out = FileChannel.open(partial, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                    out.position(HEADER_SIZE);
+                    shows.copyTo(out, crc, this::fillInEpisodes);
+                    episodes.copyTo(out, crc, (_, _) -> { });
+                    strings.copyTo(out, crc, (_, _) -> { });
+                    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+                            .putLong(MAGIC)
+                            .putInt(FORMAT)
+                            .putInt(showCount)
+                            .putLong(version)
+                            .putInt(episodeCount)
+                            .putInt(0)
+                            .putLong(stringsAt)
+                            .putLong(length)
+                            .putLong(crc.getValue());
+                    header.position(HEADER_SIZE).flip();
+                    while (header.hasRemaining()) {
+                        out.write(header, header.position());
+                    }
+                    out.force(true);
+                }
+                return Files.move(partial, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(partial);
+                close();
+            }
+        }
+
+        /**
+         * Deletes the temporary files. Does nothing once the snapshot is
+         * finished.
+         */
+        @Override
+        public void close() throws IOException {
+            try (shows; episodes; strings) {
+                // Just closing them.
+            }
+        }
+
+        // chunk holds whole show records, starting at offset in the section.
+        private void fillInEpisodes(ByteBuffer chunk, long offset) {
+            int show = (int) (offset / SHOW_SIZE);
+            for (int at = 0; at < chunk.limit(); at += SHOW_SIZE, show++) {
+                chunk.putInt(at + 28, firstEpisodes[show]).putInt(at + 32, episodeCounts[show]);
+            }
+        }
+
+        private int addYear(String year) {
+            return year == null ? addString(null) : years.computeIfAbsent(year, this::addString);
+        }
+
+        private int addString(String value) {
+            long offset = strings.size();
+            if (offset > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Snapshot too large");
+            }
+            if (value == null) {
+                strings.room(4).putInt(-1);
+                return (int) offset;
+            }
+            byte[] bytes = value.getBytes(UTF_8);
+            strings.room(4).putInt(bytes.length);
+            strings.put(bytes);
+            return (int) offset;
+        }
+    }
+
+    /**
+     * A section of a snapshot that's being written, buffered into a
+     * temporary file which is deleted when it's closed.
+     */
+    private static final class Section implements Closeable {
+
+        private static final int BUFFER_SIZE = 64 * 1024;
+
+        // A whole number of show and episode records.
+        private static final int COPY_SIZE = 1024 * SHOW_SIZE * EPISODE_SIZE;
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private long written = 0;
+
+        Section(Path dir, String prefix) throws IOException {
+            Path file = Files.createTempFile(dir, prefix, ".tmp");
+            try {
+                this.channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                        StandardOpenOption.DELETE_ON_CLOSE);
+            } catch (IOException e) {
+                Files.deleteIfExists(file);
+                throw e;
+            }
+        }
+
+        long size() {
+            return written + buffer.position();
+        }
+
+        /**
+         * The buffer, with room for at least {@code bytes} more bytes.
+         */
+        ByteBuffer room(int bytes) {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+            return buffer;
+        }
+
+        void put(byte[] bytes) {
+            if (bytes.length <= buffer.capacity()) {
+                room(bytes.length).put(bytes);
+            } else {
+                flush();
+                write(ByteBuffer.wrap(bytes));
+            }
+        }
+
+        /**
+         * Copies everything written so far to {@code out}, in chunks of
+         * whole records that {@code patch} may change first (given the
+         * offset of the chunk in the section), and adds them to {@code crc}.
+         */
+        void copyTo(FileChannel out, CRC32C crc, ObjLongConsumer<ByteBuffer> patch) throws IOException {
+            flush();
+            ByteBuffer chunk = ByteBuffer.allocate(COPY_SIZE);
+            for (long at = 0; at < written; at += chunk.limit()) {
+                chunk.clear().limit((int) Math.min(COPY_SIZE, written - at));
+                while (chunk.hasRemaining()) {
+                    if (channel.read(chunk, at + chunk.position()) < 0) {
+                        throw new EOFException("Snapshot section is truncated");
+                    }
+                }
+                chunk.flip();
+                patch.accept(chunk, at);
+                crc.update(chunk.duplicate());
+                while (chunk.hasRemaining()) {
+                    out.write(chunk);
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        private void flush() {
+            buffer.flip();
+            write(buffer);
+            buffer.clear();
+        }
+
+        private void write(ByteBuffer bytes) {
+            try {
+                while (bytes.hasRemaining()) {
+                    written += channel.write(bytes);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Deletes all but the {@code keep} most recent snapshots in {@code dir}.
+     * Nodes that still have an older one mapped keep reading it; the space
+     * is only freed once they let go of it.
+     */
+    public static void deleteOlder(Path dir, int keep) throws IOException {
+        List<Path> files = new ArrayList<>(files(dir));
+        files.sort(Comparator.comparingLong(DatasetSnapshot::versionOf).reversed());
+        for (Path file : files.subList(Math.min(keep, files.size()), files.size())) {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package org.aria.imdbgraph.modules;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.time.Duration;
+
+/**
+ * Writes every dataset {@link ImdbDataScraper} commits to a
+ * {@link DatasetSnapshot} file in {@code imdbgraph.snapshot.dir}, so API
+ * nodes sharing that directory can serve it without loading it from the
+ * database. Does nothing if the directory isn't set, or on the nodes that
+ * only hear about the new dataset from another node's ingest.
+ * <p>
+ * The time it takes is recorded under the {@code imdbgraph.ingest.stage}
+ * metric, tagged {@code snapshot}.
+ */
+@Component
+public class DatasetSnapshotExporter {
+
+    private static final Logger logger = LogManager.getLogger(DatasetSnapshotExporter.class);
+
+    private static final int FETCH_SIZE = 10_000;
+
+    // The newest snapshot and the one before it, which nodes that haven't
+    // picked up the new one yet may still be reading.
+    private static final int SNAPSHOTS_KEPT = 2;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final MeterRegistry meterRegistry;
+    private final TransactionTemplate transactionTemplate;
+    private final Path dir;
+
+    public DatasetSnapshotExporter(
+            JdbcTemplate jdbcTemplate,
+            PlatformTransactionManager transactionManager,
+            MeterRegistry meterRegistry,
+            @Value("${imdbgraph.snapshot.dir:}") String dir
+    ) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.meterRegistry = meterRegistry;
+        // The ingest's transaction has committed but may still be bound to
+        // the thread when the event is handled, hence a new one. Repeatable
+        // read so the shows, episodes and version are from the same dataset.
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.transactionTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        this.transactionTemplate.setReadOnly(true);
+        this.dir = dir.isBlank() ? null : Path.of(dir);
+    }
+
+    /*
+     * Runs right after ReadReplica's listener, so the file is there by the
+     * time the other listeners reload the data and DatasetNotifications tells
+     * the other nodes about it. A snapshot that can't be
+     * written doesn't fail the ingest: API nodes keep reading the database.
+     */
+    @Order(Ordered.HIGHEST_PRECEDENCE + 1)
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onDatasetUpdated(DatasetUpdatedEvent event) {
+        if (dir == null || event.remote()) {
+            return;
+        }
+        try {
+            export();
+        } catch (IOException | RuntimeException e) {
+            logger.error("Couldn't write a snapshot of dataset version {} to {}", event.version(), dir, e);
+        }
+    }
+
+    /**
+     * Writes the dataset currently in the database to a new snapshot file,
+     * and deletes the older ones.
+     *
+     * @return The new file.
+     */
+    public Path export() throws IOException {
+        if (dir == null) {
+            throw new IllegalStateException("imdbgraph.snapshot.dir isn't set");
+        }
+        long start = System.nanoTime();
+        Path file;
+        try {
+            file = transactionTemplate.execute(_ -> write());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        DatasetSnapshot.deleteOlder(dir, SNAPSHOTS_KEPT);
+
+        Duration time = Duration.ofNanos(System.nanoTime() - start);
+        Timer.builder("imdbgraph.ingest.stage")
+                .description("Time spent in each stage of an ingest")
+                .tag("stage", "snapshot")
+                .register(meterRegistry)
+                .record(time);
+        logger.info("Wrote dataset snapshot {} in {} ms", file, time.toMillis());
+        return file;
+    }
+
+    // The rows are written to the snapshot's temporary files as they're
+    // read, so neither the result sets nor the snapshot are held in memory.
+    private Path write() {
+        Long version = jdbcTemplate.queryForObject(
+                "SELECT COALESCE(MAX(version), 0) FROM imdb.dataset_version", Long.class);
+        try (DatasetSnapshot.Writer writer = new DatasetSnapshot.Writer(dir, version == null ? 0 : version)) {
+            addRows(writer);
+            return writer.finish();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void addRows(DatasetSnapshot.Writer writer) {
+        // COLLATE "C" sorts by the bytes of the (UTF-8) IDs, the order the
+        // snapshot binary searches them in.
+        String showsSQL = """
+                SELECT imdb_id,
+                       primary_title,
+                       start_year,
+                       end_year,
+                       imdb_rating,
+                       num_votes
+                FROM imdb.show
+                ORDER BY imdb_id COLLATE "C";
+                """;
+        jdbcTemplate.query(streaming(showsSQL), rs -> {
+            writer.addShow(
+                    rs.getString("imdb_id"),
+                    rs.getString("primary_title"),
+                    rs.getString("start_year"),
+                    rs.getString("end_year"),
+                    rs.getDouble("imdb_rating"),
+                    rs.getInt("num_votes")
+            );
+        });
+        String episodesSQL = """
+                SELECT show_id,
+                       episode_title,
+                       season_num,
+                       episode_num,
+                       imdb_rating,
+                       num_votes
+                FROM imdb.episode
+                ORDER BY show_id COLLATE "C", season_num, episode_num, episode_id;
+                """;
+        jdbcTemplate.query(streaming(episodesSQL), rs -> {
+            writer.addEpisode(
+                    rs.getString("show_id"),
+                    rs.getString("episode_title"),
+                    rs.getInt("season_num"),
+                    rs.getInt("episode_num"),
+                    rs.getDouble("imdb_rating"),
+                    rs.getInt("num_votes")
+            );
+        });
+    }
+
+    private static PreparedStatementCreator streaming(String sql) {
+        return con -> {
+            PreparedStatement ps = con.prepareStatement(sql);
+            ps.setFetchSize(FETCH_SIZE);
+            return ps;
+        };
+    }
+}
@@ -0,0 +1,24 @@
+package org.aria.imdbgraph.modules;
+
+import java.time.Instant;
+
+/**
+ * Published by {@link ImdbDataScraper} once a new IMDB dataset has been loaded
+ * into the database. Anything that keeps a copy of the data in memory should
+ * listen for this event and reload.
+ * <p>
+ * Listeners should use
+ * {@link org.springframework.transaction.event.TransactionalEventListener} so
+ * they only see the new data after the ingest transaction has committed.
+ *
+ * @param version   The row added to {@code imdb.dataset_version} by the ingest.
+ * @param updatedAt When the ingest finished.
+ * @param remote    Whether the ingest ran on another node (see
+ *                  {@link DatasetNotifications}).
+ */
+public record DatasetUpdatedEvent(long version, Instant updatedAt, boolean remote) {
+
+    public DatasetUpdatedEvent(long version, Instant updatedAt) {
+        this(version, updatedAt, false);
+    }
+}
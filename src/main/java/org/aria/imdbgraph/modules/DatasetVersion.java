@@ -0,0 +1,88 @@
+package org.aria.imdbgraph.modules;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+/**
+ * Keeps track of the version of the IMDB dataset currently being served. The
+ * version only changes when {@link ImdbDataScraper} commits a new dataset, so
+ * anything derived from the data (like cached responses) can be keyed by it.
+ * <p>
+ * Exposed as the {@code imdbgraph.dataset.version} metric, so it can be
+ * checked that every node serves the same dataset.
+ */
+@Service
+public class DatasetVersion implements MeterBinder {
+
+    /**
+     * Order of the {@link DatasetUpdatedEvent} listeners that reload
+     * in-memory copies of the data. They run before the version is bumped,
+     * so nothing read from an old copy is labelled with the new version.
+     */
+    public static final int RELOAD_ORDER = Ordered.LOWEST_PRECEDENCE - 2;
+
+    /**
+     * Order of the listener bumping the version.
+     */
+    public static final int BUMP_ORDER = Ordered.LOWEST_PRECEDENCE - 1;
+
+    /**
+     * Order of the listeners dropping what was derived from older versions.
+     * They run once the version is bumped, so nothing can be added under an
+     * old version after they've run.
+     */
+    public static final int EVICT_ORDER = Ordered.LOWEST_PRECEDENCE;
+
+    private static final Logger logger = LogManager.getLogger();
+
+    private final JdbcTemplate jdbcTemplate;
+
+    // 0 means no ingest has ever completed.
+    private volatile long current = 0;
+
+    public DatasetVersion(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public long current() {
+        return current;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadOnStartup() {
+        Long latest = jdbcTemplate.queryForObject(
+                "SELECT COALESCE(MAX(version), 0) FROM imdb.dataset_version",
+                Long.class
+        );
+        current = latest == null ? 0 : latest;
+        logger.info("Serving dataset version {}", current);
+    }
+
+    /*
+     * Runs after the listeners reloading in-memory copies of the data, so
+     * they're already reloaded by the time anyone sees the new version.
+     */
+    @Order(BUMP_ORDER)
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onDatasetUpdated(DatasetUpdatedEvent event) {
+        current = Math.max(current, event.version());
+        logger.info("Serving dataset version {}", current);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("imdbgraph.dataset.version", this, DatasetVersion::current)
+                .description("Version of the IMDB dataset being served")
+                .register(registry);
+    }
+}
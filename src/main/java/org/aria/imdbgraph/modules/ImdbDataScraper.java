@@ -1,52 +1,150 @@
 package org.aria.imdbgraph.modules;
 
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.postgresql.copy.CopyManager;
 import org.postgresql.jdbc.PgConnection;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.PessimisticLockingFailureException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.datasource.DataSourceUtils;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Repository;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import javax.sql.DataSource;
 import java.io.BufferedReader;
+import java.io.EOFException;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
 
 import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.aria.imdbgraph.modules.ImdbFileDownloader.ImdbFile;
+import static org.aria.imdbgraph.modules.ImdbFileDownloader.Validators;
 import static org.aria.imdbgraph.modules.ImdbFileDownloader.ImdbFile.*;
 
 /**
  * IMDB has no free API to use to fetch their ratings data directly. Instead,
  * they release all their data in text files once a day. This class downloads
  * those files daily and updates an internal database with all the new data.
+ * <p>
+ * The duration and row count of every stage of an ingest are recorded under
+ * the {@code imdbgraph.ingest.stage} and {@code imdbgraph.ingest.rows}
+ * metrics, tagged with the stage.
+ * <p>
+ * With the {@link Strategy#SHADOW} strategy, the new show and episode tables
+ * are built in the {@code imdb_shadow} schema while the current ones keep
+ * being served, and only the final swap takes locks on the live tables.
+ * <p>
+ * Every ingest also rebuilds the tables derived from the new shows and
+ * episodes: {@code imdb.season_stats} (per season rating aggregates, see
+ * {@link #buildSeasonStatsTable}) and the leaderboards in
+ * {@code imdb.top_show} and {@code imdb.top_episode} (see
+ * {@link #buildLeaderboardTables}). Once committed, the new dataset is also
+ * written to a file by {@link DatasetSnapshotExporter} if that's enabled.
  */
 @Repository
 @EnableScheduling
 public class ImdbDataScraper {
 
+    /**
+     * When the daily ingest runs (8:00 AM UTC).
+     */
+    public static final String SCHEDULE = "0 0 8 * * *";
+
     private static final Logger logger = LoggerFactory.getLogger(ImdbDataScraper.class);
 
+    private static final LoadTables TEMP_TABLES = new LoadTables(
+            "temp_title",
+            "temp_episode",
+            "temp_ratings"
+    );
+    private static final LoadTables STAGING_TABLES = new LoadTables(
+            "imdb.staging_title",
+            "imdb.staging_episode",
+            "imdb.staging_ratings"
+    );
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private static final int SWAP_ATTEMPTS = 10;
+
+    /**
+     * Tables (in the imdb schema) computed from the show and episode tables
+     * by every ingest.
+     */
+    private static final List<String> DERIVED_TABLES = List.of("season_stats", "top_show", "top_episode");
+
+    /**
+     * Minimum numbers of votes the leaderboards are built for. A show or
+     * episode with fewer votes than the threshold isn't ranked.
+     */
+    public static final List<Integer> LEADERBOARD_MIN_VOTES = List.of(1_000, 10_000, 100_000);
+
+    /**
+     * How many shows or episodes each leaderboard keeps.
+     */
+    public static final int LEADERBOARD_SIZE = 1_000;
+
     private final JdbcTemplate jdbcTemplate;
     private final DataSource dataSource;
     private final ImdbFileDownloader imdbFileDownloader;
+    private final ApplicationEventPublisher eventPublisher;
+    private final MeterRegistry meterRegistry;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean streaming;
+    private final Strategy strategy;
+    private final Duration swapLockTimeout;
+
+    private volatile Map<String, Duration> lastRunTimings = Map.of();
 
     public ImdbDataScraper(
             JdbcTemplate jdbcTemplate,
-            ImdbFileDownloader imdbFileDownloader
+            ImdbFileDownloader imdbFileDownloader,
+            ApplicationEventPublisher eventPublisher,
+            MeterRegistry meterRegistry,
+            PlatformTransactionManager transactionManager,
+            @Value("${imdbgraph.ingest.streaming:false}") boolean streaming,
+            @Value("${imdbgraph.ingest.strategy:REBUILD}") Strategy strategy,
+            @Value("${imdbgraph.ingest.swap-lock-timeout:500ms}") Duration swapLockTimeout
     ) {
         this.imdbFileDownloader = imdbFileDownloader;
         this.jdbcTemplate = jdbcTemplate;
         this.dataSource = jdbcTemplate.getDataSource();
+        this.eventPublisher = eventPublisher;
+        this.meterRegistry = meterRegistry;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.streaming = streaming;
+        this.strategy = strategy;
+        this.swapLockTimeout = swapLockTimeout;
     }
 
     /**
@@ -58,10 +156,17 @@ public class ImdbDataScraper {
      * @throws ImdbFileParsingException If any error occurs when trying to load
      *                                  the IMDB files into the database.
      */
-    @Transactional
-    @Scheduled(cron = "0 0 8 * * *")
+    @Scheduled(cron = SCHEDULE)
     public void updateDatabase() throws ImdbFileParsingException {
-        update();
+        if (!filesChangedSinceLastIngest()) {
+            logger.info("No IMDB file changed since the last ingest, skipping it");
+            return;
+        }
+        if (strategy == Strategy.SHADOW) {
+            updateInShadowSchema();
+        } else {
+            transactionTemplate.executeWithoutResult(_ -> update());
+        }
     }
 
     /*
@@ -73,88 +178,561 @@ public class ImdbDataScraper {
      * https://stackoverflow.com/a/17267423/6310030
      * https://www.postgresql.org/docs/current/populate.html
      * https://dba.stackexchange.com/questions/41059/optimizing-bulk-update-performance-in-postgresql
+     *
+     * Has to run in a transaction, so it doesn't support the SHADOW strategy
+     * (see updateInShadowSchema).
      */
     public void update() {
-        //language=SQL
-        jdbcTemplate.execute("""
-                CREATE TEMPORARY TABLE temp_title
-                (
-                    imdb_id         VARCHAR(10),
-                    title_type      TEXT,
-                    primary_title   TEXT,
-                    original_title  TEXT,
-                    is_adult        BOOLEAN,
-                    start_year      CHAR(4),
-                    end_year        CHAR(4),
-                    runtime_minutes INT,
-                    genres          TEXT
-                ) ON COMMIT DROP;
-                
-                CREATE TEMPORARY TABLE temp_episode
-                (
-                    episode_id  VARCHAR(10),
-                    show_id     VARCHAR(10),
-                    season_num  INT,
-                    episode_num INT
-                ) ON COMMIT DROP;
-                
-                CREATE TEMPORARY TABLE temp_ratings
-                (
-                    imdb_id     VARCHAR(10) PRIMARY KEY,
-                    imdb_rating DOUBLE PRECISION,
-                    num_votes   INT
-                ) ON COMMIT DROP;
-                """);
+        Map<String, Duration> timings = new LinkedHashMap<>();
 
-        // Copy from files to temp tables
-        Map<ImdbFile, String> tables = Map.of(
-                TITLES, "temp_title",
-                EPISODES, "temp_episode",
-                RATINGS, "temp_ratings"
-        );
-        for (Entry<ImdbFile, String> e : tables.entrySet()) {
-            ImdbFile file = e.getKey();
-            String table = e.getValue();
-
-            Path downloadedFile = imdbFileDownloader.download(file);
-            copy(downloadedFile, table);
+        LoadTables tables;
+        if (streaming) {
+            long start = System.nanoTime();
+            long rows = streamIntoStagingTables();
+            stage(timings, "stream", start, rows);
+            tables = STAGING_TABLES;
+        } else {
+            copyIntoTempTables(timings);
+            tables = TEMP_TABLES;
         }
 
         // Updates show table using new data from temp tables.
+        long start = System.nanoTime();
         //noinspection SqlResolve,SqlCheckUsingColumns
         //language=SQL
-        jdbcTemplate.execute("""
+        int shows = jdbcTemplate.update("""
                 INSERT INTO imdb.show(imdb_id,
                                       primary_title,
                                       start_year,
                                       end_year,
                                       imdb_rating,
-                                      num_votes)
+                                      num_votes,
+                                      genres)
                 SELECT imdb_id,
                        primary_title,
                        start_year,
                        end_year,
                        COALESCE(imdb_rating, 0.0),
-                       COALESCE(num_votes, 0)
-                FROM temp_title
-                         LEFT JOIN temp_ratings USING (imdb_id)
+                       COALESCE(num_votes, 0),
+                       string_to_array(genres, ',')
+                FROM %1$s
+                         LEFT JOIN %3$s USING (imdb_id)
                 WHERE title_type IN ('tvSeries', 'tvShort', 'tvSpecial', 'tvMiniSeries')
                 ON CONFLICT (imdb_id) DO UPDATE
                     SET primary_title = excluded.primary_title,
                         start_year    = excluded.start_year,
                         end_year      = excluded.end_year,
                         imdb_rating   = excluded.imdb_rating,
-                        num_votes     = excluded.num_votes;
+                        num_votes     = excluded.num_votes,
+                        genres        = excluded.genres
+                    -- Skip rows that didn't change so they aren't rewritten.
+                    WHERE (show.primary_title, show.start_year, show.end_year, show.imdb_rating, show.num_votes,
+                           show.genres)
+                        IS DISTINCT FROM
+                          (excluded.primary_title, excluded.start_year, excluded.end_year, excluded.imdb_rating,
+                           excluded.num_votes, excluded.genres);
+                """.formatted(tables.titles(), tables.episodes(), tables.ratings()));
+        logger.info("Shows successfully updated: {} inserted or changed", shows);
+        stage(timings, "show_upsert", start, shows);
+
+        switch (strategy) {
+            case REBUILD -> rebuildEpisodes(tables, timings);
+            case INCREMENTAL -> applyEpisodeChanges(tables, timings);
+            case SHADOW -> throw new IllegalStateException("Shadow ingests can't run in a transaction");
+        }
+        rebuildDerivedTables(timings);
+        start = System.nanoTime();
+
+        if (streaming) {
+            // Free up the space now instead of waiting for the next ingest.
+            jdbcTemplate.execute("TRUNCATE imdb.staging_title, imdb.staging_episode, imdb.staging_ratings");
+        }
+
+        long version = newVersion();
+        stage(timings, "finish", start, 0);
+        lastRunTimings = Collections.unmodifiableMap(timings);
+        logger.info("Dataset version {} loaded. Stage timings: {}", version, timings);
+
+        // Listeners are only notified once the surrounding transaction commits.
+        eventPublisher.publishEvent(new DatasetUpdatedEvent(version, Instant.now()));
+    }
+
+    /*
+     * Shadow ingest: the tables readers use are built from scratch in the
+     * imdb_shadow schema, each statement committing on its own, so nothing
+     * the API reads is locked and no transaction stays open for the whole
+     * ingest. Once the new tables are indexed and analyzed, they're moved
+     * into the imdb schema in place of the old ones. That only changes the
+     * catalog, so the exclusive locks it needs are held for milliseconds.
+     */
+    private void updateInShadowSchema() {
+        Map<String, Duration> timings = new LinkedHashMap<>();
+
+        long start = System.nanoTime();
+        if (streaming) {
+            long rows = streamIntoStagingTables();
+            stage(timings, "stream", start, rows);
+        } else {
+            // Only the unlogged staging tables are written in this transaction.
+            transactionTemplate.executeWithoutResult(_ -> copyIntoStagingTables(timings));
+        }
+
+        start = System.nanoTime();
+        //language=SQL
+        jdbcTemplate.execute("""
+                DROP TABLE IF EXISTS %s, imdb_shadow.episode, imdb_shadow.show;
+                CREATE TABLE imdb_shadow.show (LIKE imdb.show INCLUDING DEFAULTS);
+                """.formatted(derivedTables("imdb_shadow", "")));
+        //noinspection SqlResolve
+        //language=SQL
+        int shows = jdbcTemplate.update("""
+                INSERT INTO imdb_shadow.show(imdb_id,
+                                             primary_title,
+                                             start_year,
+                                             end_year,
+                                             imdb_rating,
+                                             num_votes,
+                                             genres)
+                SELECT imdb_id,
+                       primary_title,
+                       start_year,
+                       end_year,
+                       COALESCE(imdb_rating, 0.0),
+                       COALESCE(num_votes, 0),
+                       string_to_array(genres, ',')
+                FROM imdb.staging_title
+                         LEFT JOIN imdb.staging_ratings USING (imdb_id)
+                WHERE title_type IN ('tvSeries', 'tvShort', 'tvSpecial', 'tvMiniSeries');
                 """);
-        logger.info("Shows successfully updated");
+        // Like the upsert of the other strategies, never drop shows (they may
+        // have thumbnails).
+        //noinspection SqlResolve
+        //language=SQL
+        jdbcTemplate.execute("""
+                INSERT INTO imdb_shadow.show
+                SELECT *
+                FROM imdb.show
+                WHERE NOT EXISTS (SELECT FROM imdb_shadow.show new WHERE new.imdb_id = show.imdb_id);
+                
+                ALTER TABLE imdb_shadow.show ADD PRIMARY KEY (imdb_id);
+                CREATE INDEX trigram_index ON imdb_shadow.show USING GIN (primary_title gin_trgm_ops);
+                CREATE INDEX ON imdb_shadow.show (imdb_rating DESC);
+                """);
+        stage(timings, "show_build", start, shows);
+
+        start = System.nanoTime();
+        int episodes = buildEpisodeTable(STAGING_TABLES, "imdb_shadow.episode", "imdb_shadow.show");
+        stage(timings, "episode_rebuild", start, episodes);
+
+        buildDerivedTables("imdb_shadow", "", timings);
+
+        start = System.nanoTime();
+        jdbcTemplate.execute("ANALYZE imdb_shadow.show; ANALYZE imdb_shadow.episode;");
+        for (String table : DERIVED_TABLES) {
+            jdbcTemplate.execute("ANALYZE imdb_shadow." + table);
+        }
+        stage(timings, "analyze", start, 0);
+
+        start = System.nanoTime();
+        long version = swapInShadowTables();
+        stage(timings, "swap", start, 0);
+
+        start = System.nanoTime();
+        // Every old show was copied over, so this can't fail. It doesn't block
+        // reads or writes while it runs.
+        jdbcTemplate.execute("ALTER TABLE imdb.thumbnails VALIDATE CONSTRAINT thumbnails_show_imdb_id_fk");
+        jdbcTemplate.execute("TRUNCATE imdb.staging_title, imdb.staging_episode, imdb.staging_ratings");
+        stage(timings, "finish", start, 0);
+        lastRunTimings = Collections.unmodifiableMap(timings);
+        logger.info("Dataset version {} loaded from shadow schema ({} shows, {} episodes). Stage timings: {}",
+                version, shows, episodes, timings);
+
+        // Not in a transaction, so listeners are notified right away.
+        eventPublisher.publishEvent(new DatasetUpdatedEvent(version, Instant.now()));
+    }
+
+    /**
+     * Whether any IMDB file changed since the ones the current dataset
+     * version was loaded from. True if that isn't known.
+     */
+    private boolean filesChangedSinceLastIngest() {
+        Map<String, Validators> ingested = new HashMap<>();
+        //language=SQL
+        jdbcTemplate.query("""
+                        SELECT file, etag, last_modified
+                        FROM imdb.dataset_source
+                        WHERE version = (SELECT max(version) FROM imdb.dataset_version)""",
+                rs -> {
+                    ingested.put(rs.getString(1), new Validators(rs.getString(2), rs.getString(3)));
+                });
+        for (ImdbFile file : ImdbFile.values()) {
+            Validators source = ingested.get(file.getName());
+            if (source == null || imdbFileDownloader.isModified(file, source)) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-        // Updates episode table using new data from temp tables.
+    /**
+     * Replace the live show, episode and derived tables with the shadow ones,
+     * and record the new dataset version, in one short transaction.
+     * <p>
+     * While the swap waits for its exclusive locks, every query that comes
+     * after it waits too. So if the locks aren't granted within
+     * {@code imdbgraph.ingest.swap-lock-timeout} (because of a long running
+     * query), the swap gives up and tries again a bit later instead of
+     * stalling readers behind it.
+     */
+    private long swapInShadowTables() {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                Long version = transactionTemplate.execute(_ -> {
+                    jdbcTemplate.execute(format("SET LOCAL lock_timeout = %d", swapLockTimeout.toMillis()));
+                    //noinspection SqlResolve
+                    //language=SQL
+                    jdbcTemplate.execute("""
+                            LOCK TABLE imdb.show, imdb.episode, %1$s, imdb.thumbnails IN ACCESS EXCLUSIVE MODE;
+                            
+                            ALTER TABLE imdb.thumbnails DROP CONSTRAINT thumbnails_show_imdb_id_fk;
+                            DROP TABLE %1$s;
+                            DROP TABLE imdb.episode;
+                            DROP TABLE imdb.show;
+                            ALTER TABLE imdb_shadow.show SET SCHEMA imdb;
+                            ALTER TABLE imdb_shadow.episode SET SCHEMA imdb;
+                            %2$s
+                            ALTER TABLE imdb.thumbnails ADD CONSTRAINT thumbnails_show_imdb_id_fk
+                                FOREIGN KEY (imdb_id) REFERENCES imdb.show NOT VALID;
+                            """.formatted(
+                            derivedTables("imdb", ""),
+                            DERIVED_TABLES.stream()
+                                    .map(table -> "ALTER TABLE imdb_shadow." + table + " SET SCHEMA imdb;")
+                                    .collect(Collectors.joining("\n"))
+                    ));
+                    return newVersion();
+                });
+                return version == null ? 0 : version;
+            } catch (PessimisticLockingFailureException e) {
+                if (attempt == SWAP_ATTEMPTS) {
+                    throw e;
+                }
+                logger.info("Shadow swap couldn't lock the live tables (attempt {}), retrying", attempt);
+                try {
+                    Thread.sleep(swapLockTimeout.toMillis() * attempt);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Record a new dataset version, along with the files it was loaded from.
+     */
+    private long newVersion() {
+        //language=SQL
+        Long version = jdbcTemplate.queryForObject(
+                "INSERT INTO imdb.dataset_version DEFAULT VALUES RETURNING version",
+                Long.class
+        );
+        if (version == null) {
+            return 0;
+        }
+        for (ImdbFile file : ImdbFile.values()) {
+            Validators source = imdbFileDownloader.lastDownloaded(file);
+            if (source != null) {
+                //language=SQL
+                jdbcTemplate.update(
+                        "INSERT INTO imdb.dataset_source(version, file, etag, last_modified) VALUES (?, ?, ?, ?)",
+                        version, file.getName(), source.etag(), source.lastModified()
+                );
+            }
+        }
+        return version;
+    }
+
+    /**
+     * How long each stage of the last ingest run by this instance took, in
+     * the order they ran. Empty until an ingest has completed.
+     */
+    public Map<String, Duration> getLastRunTimings() {
+        return lastRunTimings;
+    }
+
+    /**
+     * Record a stage that started at {@code start} (from
+     * {@link System#nanoTime()}) and just finished. Stages that run more than
+     * once per ingest (one per file) add up.
+     */
+    private void stage(Map<String, Duration> timings, String stage, long start, long rows) {
+        Duration time = Duration.ofNanos(System.nanoTime() - start);
+        timings.merge(stage, time, Duration::plus);
+        Timer.builder("imdbgraph.ingest.stage")
+                .description("Time spent in each stage of an ingest")
+                .tag("stage", stage)
+                .register(meterRegistry)
+                .record(time);
+        DistributionSummary.builder("imdbgraph.ingest.rows")
+                .description("Rows written by each stage of an ingest")
+                .tag("stage", stage)
+                .register(meterRegistry)
+                .record(rows);
+    }
+
+    /**
+     * Rebuild the whole episode table from scratch in a new table and swap it
+     * in for the old one.
+     */
+    private void rebuildEpisodes(LoadTables tables, Map<String, Duration> timings) {
+        long start = System.nanoTime();
+        jdbcTemplate.execute("DROP TABLE IF EXISTS imdb.episode_new");
+        int episodes = buildEpisodeTable(tables, "imdb.episode_new", "imdb.show");
+        stage(timings, "episode_rebuild", start, episodes);
+
+        start = System.nanoTime();
+        //noinspection SqlResolve
+        //language=SQL
+        jdbcTemplate.execute("""
+                DROP TABLE imdb.episode;
+                ALTER TABLE imdb.episode_new RENAME TO episode;
+                """);
+        stage(timings, "swap", start, 0);
+        logger.info("Episodes successfully updated: {} episodes", episodes);
+    }
+
+    /**
+     * Create a complete episode table (with its keys and indexes) from the
+     * loaded files, for the shows in {@code showTable}. Returns the number of
+     * episodes.
+     */
+    private int buildEpisodeTable(LoadTables tables, String table, String showTable) {
         //noinspection SqlResolve,SqlCheckUsingColumns
         //language=SQL
+        int episodes = jdbcTemplate.update("""
+                CREATE TABLE %4$s AS
+                SELECT show_id,
+                       episode_id,
+                       primary_title as episode_title,
+                       season_num,
+                       episode_num,
+                       COALESCE(imdb_rating, 0.0) as imdb_rating,
+                       COALESCE(num_votes, 0) as num_votes
+                FROM %2$s
+                         LEFT JOIN %1$s ON (episode_id = imdb_id)
+                         LEFT JOIN %3$s USING (imdb_id)
+                WHERE show_id IN (SELECT imdb_id FROM %5$s)
+                  AND season_num >= 0
+                  AND episode_num >= 0;
+                """.formatted(tables.titles(), tables.episodes(), tables.ratings(), table, showTable));
+        //noinspection SqlResolve
+        //language=SQL
         jdbcTemplate.execute("""
-                DROP TABLE IF EXISTS imdb.episode_new;
+                ALTER TABLE %1$s ADD PRIMARY KEY (episode_id);
+                ALTER TABLE %1$s ADD FOREIGN KEY (show_id) REFERENCES %2$s(imdb_id);
+                CREATE INDEX ON %1$s (show_id);
                 
-                CREATE TABLE imdb.episode_new AS
+                ALTER TABLE %1$s ALTER COLUMN show_id SET NOT NULL;
+                ALTER TABLE %1$s ALTER COLUMN episode_id SET NOT NULL;
+                ALTER TABLE %1$s ALTER COLUMN season_num SET NOT NULL;
+                ALTER TABLE %1$s ALTER COLUMN episode_num SET NOT NULL;
+                ALTER TABLE %1$s ALTER COLUMN imdb_rating SET NOT NULL;
+                ALTER TABLE %1$s ALTER COLUMN num_votes SET NOT NULL;
+                """.formatted(table, showTable));
+        return episodes;
+    }
+
+    /**
+     * Rebuild the derived tables from the (already updated) show and episode
+     * tables in new tables and swap them in for the old ones. They're cheap
+     * to compute next to the episodes, so this is done even with the
+     * INCREMENTAL strategy.
+     */
+    private void rebuildDerivedTables(Map<String, Duration> timings) {
+        jdbcTemplate.execute("DROP TABLE IF EXISTS " + derivedTables("imdb", "_new"));
+        buildDerivedTables("imdb", "_new", timings);
+
+        long start = System.nanoTime();
+        for (String table : DERIVED_TABLES) {
+            //noinspection SqlResolve
+            //language=SQL
+            jdbcTemplate.execute("""
+                    DROP TABLE imdb.%1$s;
+                    ALTER TABLE imdb.%1$s_new RENAME TO %1$s;
+                    """.formatted(table));
+        }
+        stage(timings, "swap", start, 0);
+    }
+
+    /**
+     * Build every derived table from the show and episode tables in
+     * {@code schema}, named like the live ones plus {@code suffix}.
+     */
+    private void buildDerivedTables(String schema, String suffix, Map<String, Duration> timings) {
+        long start = System.nanoTime();
+        int seasons = buildSeasonStatsTable(schema + ".episode", schema + ".season_stats" + suffix);
+        stage(timings, "season_stats", start, seasons);
+
+        start = System.nanoTime();
+        int ranked = buildLeaderboardTables(
+                schema + ".show",
+                schema + ".episode",
+                schema + ".top_show" + suffix,
+                schema + ".top_episode" + suffix
+        );
+        stage(timings, "leaderboards", start, ranked);
+    }
+
+    private static String derivedTables(String schema, String suffix) {
+        return DERIVED_TABLES.stream()
+                .map(table -> schema + "." + table + suffix)
+                .collect(Collectors.joining(", "));
+    }
+
+    /**
+     * Create a season stats table with the columns of {@code imdb.season_stats}
+     * (defined by its migration) and fill it from the episodes in
+     * {@code episodeTable}: one row per season with its number of
+     * episodes, total votes, vote weighted average, lowest and highest
+     * rating, best and worst episode, and trend (the least squares slope of
+     * the rating over the episode number). Episodes without votes are
+     * counted, but left out of everything to do with ratings. Returns the
+     * number of seasons.
+     */
+    private int buildSeasonStatsTable(String episodeTable, String table) {
+        jdbcTemplate.execute("CREATE TABLE %s (LIKE imdb.season_stats)".formatted(table));
+        // The columns are in the same order as in the table.
+        //noinspection SqlResolve
+        //language=SQL
+        int seasons = jdbcTemplate.update("""
+                INSERT INTO %2$s
+                SELECT show_id,
+                       season_num,
+                       count(*)::INT                                                   AS episode_count,
+                       (count(*) FILTER (WHERE num_votes > 0))::INT                    AS rated_count,
+                       COALESCE(sum(num_votes), 0)::BIGINT                             AS num_votes,
+                       sum(imdb_rating * num_votes) / NULLIF(sum(num_votes), 0)        AS avg_rating,
+                       min(imdb_rating) FILTER (WHERE num_votes > 0)                   AS min_rating,
+                       max(imdb_rating) FILTER (WHERE num_votes > 0)                   AS max_rating,
+                       regr_slope(imdb_rating, episode_num) FILTER (WHERE num_votes > 0) AS trend,
+                       (array_agg(episode_num ORDER BY imdb_rating DESC, num_votes DESC)
+                        FILTER (WHERE num_votes > 0))[1]                               AS best_episode_num,
+                       (array_agg(episode_title ORDER BY imdb_rating DESC, num_votes DESC)
+                        FILTER (WHERE num_votes > 0))[1]                               AS best_episode_title,
+                       (array_agg(num_votes ORDER BY imdb_rating DESC, num_votes DESC)
+                        FILTER (WHERE num_votes > 0))[1]                               AS best_num_votes,
+                       (array_agg(episode_num ORDER BY imdb_rating, num_votes DESC)
+                        FILTER (WHERE num_votes > 0))[1]                               AS worst_episode_num,
+                       (array_agg(episode_title ORDER BY imdb_rating, num_votes DESC)
+                        FILTER (WHERE num_votes > 0))[1]                               AS worst_episode_title,
+                       (array_agg(num_votes ORDER BY imdb_rating, num_votes DESC)
+                        FILTER (WHERE num_votes > 0))[1]                               AS worst_num_votes
+                FROM %1$s
+                GROUP BY show_id, season_num;
+                """.formatted(episodeTable, table));
+        jdbcTemplate.execute("ALTER TABLE %s ADD PRIMARY KEY (show_id, season_num)".formatted(table));
+        return seasons;
+    }
+
+    /**
+     * Create the leaderboard tables (like {@code imdb.top_show} and
+     * {@code imdb.top_episode}): the {@link #LEADERBOARD_SIZE} highest rated
+     * shows and episodes for every combination of genre, decade and minimum
+     * number of votes ({@link #LEADERBOARD_MIN_VOTES}), plus any genre ('')
+     * and any decade (0). Episodes are filtered by the genres and start year
+     * of their show. Ties are broken by votes, then ID, so ranks are the same
+     * from one build to the next if the data didn't change. Returns the
+     * number of rows written.
+     * <p>
+     * Only buckets that have something in them get rows, and every show is
+     * in at most (genres + 1) * 2 * thresholds buckets, so the tables stay
+     * small compared to the show and episode tables.
+     */
+    private int buildLeaderboardTables(String showTable, String episodeTable, String topShowTable,
+                                       String topEpisodeTable) {
+        String minVotes = LEADERBOARD_MIN_VOTES.stream()
+                .map(votes -> "(" + votes + ")")
+                .collect(Collectors.joining(", "));
+        //noinspection SqlResolve
+        //language=SQL
+        int shows = jdbcTemplate.update("""
+                CREATE TABLE %2$s AS
+                SELECT genre, decade, min_votes, rank::INT, imdb_id, primary_title, start_year, end_year,
+                       imdb_rating, num_votes
+                FROM (SELECT genre,
+                             decade,
+                             min_votes,
+                             row_number() OVER (PARTITION BY genre, decade, min_votes
+                                                ORDER BY imdb_rating DESC, num_votes DESC, imdb_id) AS rank,
+                             imdb_id,
+                             primary_title,
+                             start_year,
+                             end_year,
+                             imdb_rating,
+                             num_votes
+                      FROM %1$s show
+                               CROSS JOIN LATERAL unnest(array_append(COALESCE(genres, '{}'), '')) AS g(genre)
+                               CROSS JOIN LATERAL (VALUES (0), (%5$s)) AS d(decade)
+                               JOIN (VALUES %3$s) AS t(min_votes) ON num_votes >= min_votes
+                      WHERE decade IS NOT NULL) ranked
+                WHERE rank <= %4$d;
+                """.formatted(showTable, topShowTable, minVotes, LEADERBOARD_SIZE, decade("start_year")));
+        //noinspection SqlResolve
+        //language=SQL
+        int episodes = jdbcTemplate.update("""
+                CREATE TABLE %3$s AS
+                SELECT genre, decade, min_votes, rank::INT, show_id, show_title, episode_id, episode_title,
+                       season_num, episode_num, imdb_rating, num_votes
+                FROM (SELECT genre,
+                             decade,
+                             min_votes,
+                             row_number() OVER (PARTITION BY genre, decade, min_votes
+                                                ORDER BY e.imdb_rating DESC, e.num_votes DESC, e.episode_id) AS rank,
+                             e.show_id,
+                             show.primary_title AS show_title,
+                             e.episode_id,
+                             e.episode_title,
+                             e.season_num,
+                             e.episode_num,
+                             e.imdb_rating,
+                             e.num_votes
+                      FROM %2$s e
+                               JOIN %1$s show ON show.imdb_id = e.show_id
+                               CROSS JOIN LATERAL unnest(array_append(COALESCE(show.genres, '{}'), '')) AS g(genre)
+                               CROSS JOIN LATERAL (VALUES (0), (%6$s)) AS d(decade)
+                               JOIN (VALUES %4$s) AS t(min_votes) ON e.num_votes >= min_votes
+                      WHERE decade IS NOT NULL) ranked
+                WHERE rank <= %5$d;
+                """.formatted(showTable, episodeTable, topEpisodeTable, minVotes, LEADERBOARD_SIZE,
+                decade("show.start_year")));
+        //language=SQL
+        jdbcTemplate.execute("""
+                ALTER TABLE %1$s ADD PRIMARY KEY (genre, decade, min_votes, rank);
+                ALTER TABLE %2$s ADD PRIMARY KEY (genre, decade, min_votes, rank);
+                """.formatted(topShowTable, topEpisodeTable));
+        return shows + episodes;
+    }
+
+    /**
+     * SQL for the decade a year column falls in (1994 is 1990), or NULL if
+     * it isn't a year.
+     */
+    private static String decade(String yearColumn) {
+        return "CASE WHEN %1$s ~ '^[0-9]{4}$' THEN substr(%1$s, 1, 3)::INT * 10 END".formatted(yearColumn);
+    }
+
+    /**
+     * Only apply the episodes that were added, changed or removed since the
+     * last ingest. Most ratings don't change from one day to the next, so this
+     * writes far fewer rows (and WAL) than rebuilding the table and its
+     * indexes.
+     */
+    private void applyEpisodeChanges(LoadTables tables, Map<String, Duration> timings) {
+        long start = System.nanoTime();
+        //noinspection SqlResolve,SqlCheckUsingColumns
+        //language=SQL
+        jdbcTemplate.execute("""
+                CREATE TEMPORARY TABLE temp_episode_latest ON COMMIT DROP AS
                 SELECT show_id,
                        episode_id,
                        primary_title as episode_title,
@@ -162,34 +740,232 @@ public class ImdbDataScraper {
                        episode_num,
                        COALESCE(imdb_rating, 0.0) as imdb_rating,
                        COALESCE(num_votes, 0) as num_votes
-                FROM temp_episode
-                         LEFT JOIN temp_title ON (episode_id = imdb_id)
-                         LEFT JOIN temp_ratings USING (imdb_id)
+                FROM %2$s
+                         LEFT JOIN %1$s ON (episode_id = imdb_id)
+                         LEFT JOIN %3$s USING (imdb_id)
                 WHERE show_id IN (SELECT imdb_id FROM imdb.show)
                   AND season_num >= 0
                   AND episode_num >= 0;
                 
-                ALTER TABLE imdb.episode_new ADD PRIMARY KEY (episode_id);
-                ALTER TABLE imdb.episode_new ADD FOREIGN KEY (show_id) REFERENCES imdb.show(imdb_id);
-                CREATE INDEX ON imdb.episode_new (show_id);
+                ALTER TABLE temp_episode_latest ADD PRIMARY KEY (episode_id);
+                ANALYZE temp_episode_latest;
+                """.formatted(tables.titles(), tables.episodes(), tables.ratings()));
+
+        //noinspection SqlResolve
+        //language=SQL
+        int deleted = jdbcTemplate.update("""
+                DELETE FROM imdb.episode
+                WHERE NOT EXISTS (SELECT FROM temp_episode_latest latest
+                                  WHERE latest.episode_id = episode.episode_id);
+                """);
+        //noinspection SqlResolve
+        //language=SQL
+        int changed = jdbcTemplate.update("""
+                UPDATE imdb.episode
+                SET show_id       = latest.show_id,
+                    episode_title = latest.episode_title,
+                    season_num    = latest.season_num,
+                    episode_num   = latest.episode_num,
+                    imdb_rating   = latest.imdb_rating,
+                    num_votes     = latest.num_votes
+                FROM temp_episode_latest latest
+                WHERE latest.episode_id = episode.episode_id
+                  AND (episode.show_id, episode.episode_title, episode.season_num,
+                       episode.episode_num, episode.imdb_rating, episode.num_votes)
+                    IS DISTINCT FROM
+                      (latest.show_id, latest.episode_title, latest.season_num,
+                       latest.episode_num, latest.imdb_rating, latest.num_votes);
+                """);
+        //noinspection SqlResolve
+        //language=SQL
+        int inserted = jdbcTemplate.update("""
+                INSERT INTO imdb.episode(show_id,
+                                         episode_id,
+                                         episode_title,
+                                         season_num,
+                                         episode_num,
+                                         imdb_rating,
+                                         num_votes)
+                SELECT show_id,
+                       episode_id,
+                       episode_title,
+                       season_num,
+                       episode_num,
+                       imdb_rating,
+                       num_votes
+                FROM temp_episode_latest latest
+                WHERE NOT EXISTS (SELECT FROM imdb.episode
+                                  WHERE episode.episode_id = latest.episode_id);
+                """);
+        logger.info("Episodes successfully updated: {} inserted, {} changed, {} deleted",
+                inserted, changed, deleted);
+        stage(timings, "episode_changes", start, inserted + changed + deleted);
+    }
+
+    private void copyIntoTempTables(Map<String, Duration> timings) {
+        //language=SQL
+        jdbcTemplate.execute("""
+                CREATE TEMPORARY TABLE temp_title
+                (
+                    imdb_id       VARCHAR(10),
+                    title_type    TEXT,
+                    primary_title TEXT,
+                    start_year    CHAR(4),
+                    end_year      CHAR(4),
+                    genres        TEXT
+                ) ON COMMIT DROP;
                 
-                ALTER TABLE imdb.episode_new ALTER COLUMN show_id SET NOT NULL;
-                ALTER TABLE imdb.episode_new ALTER COLUMN episode_id SET NOT NULL;
-                ALTER TABLE imdb.episode_new ALTER COLUMN season_num SET NOT NULL;
-                ALTER TABLE imdb.episode_new ALTER COLUMN episode_num SET NOT NULL;
-                ALTER TABLE imdb.episode_new ALTER COLUMN imdb_rating SET NOT NULL;
-                ALTER TABLE imdb.episode_new ALTER COLUMN num_votes SET NOT NULL;
+                CREATE TEMPORARY TABLE temp_episode
+                (
+                    episode_id  VARCHAR(10),
+                    show_id     VARCHAR(10),
+                    season_num  INT,
+                    episode_num INT
+                ) ON COMMIT DROP;
                 
-                DROP TABLE imdb.episode;
-                ALTER TABLE imdb.episode_new RENAME TO episode;
+                CREATE TEMPORARY TABLE temp_ratings
+                (
+                    imdb_id     VARCHAR(10) PRIMARY KEY,
+                    imdb_rating DOUBLE PRECISION,
+                    num_votes   INT
+                ) ON COMMIT DROP;
                 """);
-        logger.info("Episodes successfully updated");
+
+        // Copy from files to temp tables
+        Map<ImdbFile, String> tables = Map.of(
+                TITLES, TEMP_TABLES.titles(),
+                EPISODES, TEMP_TABLES.episodes(),
+                RATINGS, TEMP_TABLES.ratings()
+        );
+        for (Entry<ImdbFile, String> e : tables.entrySet()) {
+            ImdbFile file = e.getKey();
+            String table = e.getValue();
+
+            long start = System.nanoTime();
+            Path downloadedFile = imdbFileDownloader.download(file);
+            stage(timings, "download", start, 0);
+
+            start = System.nanoTime();
+            long rows = copy(downloadedFile, file, table);
+            stage(timings, "copy", start, rows);
+        }
     }
 
     /**
-     * Use Postgres COPY command to copy data from a file into a table.
+     * Download every file and copy it into its staging table. Has to run in
+     * a transaction, like {@link #copyIntoTempTables}.
      */
-    private void copy(Path path, String table) {
+    private void copyIntoStagingTables(Map<String, Duration> timings) {
+        jdbcTemplate.execute("TRUNCATE imdb.staging_title, imdb.staging_episode, imdb.staging_ratings");
+        Map<ImdbFile, String> tables = Map.of(
+                TITLES, STAGING_TABLES.titles(),
+                EPISODES, STAGING_TABLES.episodes(),
+                RATINGS, STAGING_TABLES.ratings()
+        );
+        for (Entry<ImdbFile, String> e : tables.entrySet()) {
+            long start = System.nanoTime();
+            Path downloadedFile = imdbFileDownloader.download(e.getKey());
+            stage(timings, "download", start, 0);
+
+            start = System.nanoTime();
+            long rows = copy(downloadedFile, e.getKey(), e.getValue());
+            stage(timings, "copy", start, rows);
+        }
+    }
+
+    /*
+     * Streaming mode: all three files are downloaded, decompressed and COPY'd
+     * at the same time without touching the disk. Temp tables only exist for
+     * the connection that created them, so every file is loaded on its own
+     * connection into an unlogged staging table instead. Those loads commit
+     * on their own before the real tables are updated.
+     */
+    private long streamIntoStagingTables() {
+        Map<ImdbFile, String> tables = Map.of(
+                TITLES, STAGING_TABLES.titles(),
+                EPISODES, STAGING_TABLES.episodes(),
+                RATINGS, STAGING_TABLES.ratings()
+        );
+        try (ExecutorService executor = Executors.newFixedThreadPool(tables.size())) {
+            Map<ImdbFile, Future<Long>> loads = new EnumMap<>(ImdbFile.class);
+            for (Entry<ImdbFile, String> e : tables.entrySet()) {
+                loads.put(e.getKey(), executor.submit(() -> streamCopy(e.getKey(), e.getValue())));
+            }
+            long rows = 0;
+            for (Entry<ImdbFile, Future<Long>> load : loads.entrySet()) {
+                try {
+                    rows += load.getValue().get();
+                } catch (ExecutionException exception) {
+                    loads.values().forEach(f -> f.cancel(true));
+                    throw new ImdbFileParsingException(exception.getCause(), load.getKey());
+                } catch (InterruptedException exception) {
+                    loads.values().forEach(f -> f.cancel(true));
+                    Thread.currentThread().interrupt();
+                    throw new ImdbFileParsingException(exception, load.getKey());
+                }
+            }
+            return rows;
+        }
+    }
+
+    /**
+     * Stream a file straight from IMDB into a staging table. Returns the
+     * number of rows copied.
+     */
+    private long streamCopy(ImdbFile file, String table) throws SQLException, IOException {
+        try (Connection connection = dataSource.getConnection();
+             InputStream in = imdbFileDownloader.stream(file)) {
+            connection.setAutoCommit(true);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("TRUNCATE " + table);
+            }
+
+            CopyManager copier = new CopyManager(connection.unwrap(PgConnection.class));
+            //language=SQL
+            String cmd = format("COPY %s FROM STDIN WITH (DELIMITER '\t');", table);
+            long rows;
+            if (file == TITLES) {
+                // Rows have to be parsed to be filtered, so decode them.
+                BufferedReader reader = new BufferedReader(new InputStreamReader(in, UTF_8), COPY_BUFFER_SIZE);
+                reader.readLine(); // Header
+                rows = copyTitles(reader, copier, cmd);
+            } else {
+                skipLine(in); // Header
+                rows = copier.copyIn(cmd, in, COPY_BUFFER_SIZE);
+            }
+
+            logger.info("Successfully streamed {} rows from {} to table {}", rows, file.getUri(), table);
+            return rows;
+        }
+    }
+
+    /**
+     * Copy only the TV titles (see {@link TitleFilter}) instead of every movie,
+     * short, video game, etc. on IMDB.
+     */
+    private static long copyTitles(BufferedReader titles, CopyManager copier, String cmd)
+            throws IOException, SQLException {
+        TitleFilter.Counts counts = new TitleFilter().copy(titles, copier.copyIn(cmd));
+        logger.info("Filtered titles: {} rows read, {} kept, {} dropped",
+                counts.read(), counts.kept(), counts.dropped());
+        return counts.kept();
+    }
+
+    private static void skipLine(InputStream in) throws IOException {
+        int b;
+        do {
+            b = in.read();
+        } while (b != -1 && b != '\n');
+        if (b == -1) {
+            throw new EOFException("File is empty");
+        }
+    }
+
+    /**
+     * Use Postgres COPY command to copy data from a file into a table. Returns
+     * the number of rows copied.
+     */
+    private long copy(Path path, ImdbFile file, String table) {
         try (BufferedReader f = Files.newBufferedReader(path)) {
             PgConnection connection = DataSourceUtils.getConnection(dataSource)
                     .unwrap(PgConnection.class);
@@ -201,19 +977,56 @@ public class ImdbDataScraper {
             CopyManager copier = new CopyManager(connection);
             //language=SQL
             String cmd = format("COPY %s FROM STDIN WITH (DELIMITER '\t');", table);
-            copier.copyIn(cmd, f);
+            long rows;
+            if (file == TITLES) {
+                rows = copyTitles(f, copier, cmd);
+            } else {
+                rows = copier.copyIn(cmd, f);
+            }
 
             // Clean up
-            logger.info("Successfully transferred {} to table {}", path, table);
+            logger.info("Successfully transferred {} rows from {} to table {}", rows, path, table);
             Files.delete(path);
+            return rows;
         } catch (SQLException | IOException exception) {
             throw new ImdbFileParsingException(exception, path);
         }
     }
 
+    /**
+     * How the episode table is brought up to date with the new files.
+     */
+    public enum Strategy {
+        /**
+         * Build a new episode table from scratch and swap it in.
+         */
+        REBUILD,
+        /**
+         * Only insert, update and delete the episodes that changed.
+         */
+        INCREMENTAL,
+        /**
+         * Build new show and episode tables in the {@code imdb_shadow} schema
+         * without locking the live ones or holding a transaction open, and
+         * swap them in at the end.
+         */
+        SHADOW
+    }
+
+    /**
+     * Names of the tables the raw IMDB files are copied into before the real
+     * tables are updated from them.
+     */
+    private record LoadTables(String titles, String episodes, String ratings) {
+    }
+
     public static class ImdbFileParsingException extends RuntimeException {
         public ImdbFileParsingException(Throwable cause, Path failedFile) {
             super("Failed to load file from: " + failedFile, cause);
         }
+
+        public ImdbFileParsingException(Throwable cause, ImdbFile failedFile) {
+            super("Failed to load file from: " + failedFile.getUri(), cause);
+        }
     }
 }
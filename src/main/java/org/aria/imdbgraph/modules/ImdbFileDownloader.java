@@ -2,23 +2,60 @@ package org.aria.imdbgraph.modules;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.EOFException;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.Reader;
 import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.HttpURLConnection;
 import java.net.URI;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.zip.GZIPInputStream;
 
+import static java.lang.String.format;
 import static java.nio.file.Files.copy;
 import static java.nio.file.Files.createTempFile;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
 import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 
 /**
  * Utility class used by {@link ImdbDataScraper} to download the latest data
  * files from IMDB.
  * <p>
+ * If {@code imdbgraph.ingest.keep-downloads-dir} is set, a copy of every
+ * compressed file is kept in that directory, and with
+ * {@code imdbgraph.ingest.replay-downloads} those copies are read instead of
+ * downloading the files again.
+ * <p>
+ * Downloads time out ({@code imdbgraph.ingest.download.connect-timeout} and
+ * {@code read-timeout}) and are retried with exponential backoff, picking up
+ * where they left off with a range request when the server supports it. A
+ * download that ends before its Content-Length is treated as a failure instead
+ * of being handed to the gzip decoder. Kept copies are stored with the ETag,
+ * Last-Modified date and SHA-256 of the file, so the next download is a
+ * conditional GET that reuses the (verified) copy if IMDB hasn't changed it.
+ * The same validators let {@link ImdbDataScraper} skip an ingest when no file
+ * changed (see {@link #isModified}).
+ * <p>
  * <a href="https://www.imdb.com/interfaces/">More info about file format</a>
  */
 @Service
@@ -28,23 +65,167 @@ public final class ImdbFileDownloader {
 
     private static final String DOWNLOAD_URL = "https://datasets.imdbws.com";
 
+    // Decompressed data buffered ahead of the reader when streaming (16 MB).
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int MAX_BUFFERED_CHUNKS = 256;
+
+    private final Path keepDownloadsDir;
+    private final boolean replayDownloads;
+    private final URI downloadUrl;
+    private final Duration connectTimeout;
+    private final Duration readTimeout;
+    private final int retries;
+    private final Duration retryBackoff;
+
+    // Validators of the last complete download of each file.
+    private final Map<ImdbFile, Validators> downloaded = new ConcurrentHashMap<>();
+
+    public ImdbFileDownloader(
+            @Value("${imdbgraph.ingest.keep-downloads-dir:}") String keepDownloadsDir,
+            @Value("${imdbgraph.ingest.replay-downloads:false}") boolean replayDownloads,
+            @Value("${imdbgraph.ingest.download.url:" + DOWNLOAD_URL + "}") String downloadUrl,
+            @Value("${imdbgraph.ingest.download.connect-timeout:10s}") Duration connectTimeout,
+            @Value("${imdbgraph.ingest.download.read-timeout:30s}") Duration readTimeout,
+            @Value("${imdbgraph.ingest.download.retries:5}") int retries,
+            @Value("${imdbgraph.ingest.download.retry-backoff:1s}") Duration retryBackoff
+    ) {
+        this.keepDownloadsDir = keepDownloadsDir.isBlank() ? null : Path.of(keepDownloadsDir);
+        this.replayDownloads = replayDownloads;
+        this.downloadUrl = URI.create(downloadUrl.endsWith("/") ? downloadUrl : downloadUrl + "/");
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.retries = retries;
+        this.retryBackoff = retryBackoff;
+    }
+
     /**
      * Downloads and unzips an IMDB data file and return the Path of the file if
      * succesful.
      */
     public Path download(ImdbFile file) {
-        URI uri = file.getUri();
-        try (InputStream remote = new GZIPInputStream(uri.toURL().openStream())) {
+        try (InputStream compressed = openCompressed(file);
+             InputStream remote = new GZIPInputStream(compressed)) {
             Path local = createTempFile(file.name, ".tmp");
             copy(remote, local, REPLACE_EXISTING);
+            compressed.transferTo(OutputStream.nullOutputStream());
 
-            log.info("Downloaded file: {} to {}", uri, local);
+            log.info("Downloaded file: {} to {}", uri(file), local);
             return local;
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
     }
 
+    /**
+     * Downloads an IMDB data file and returns its decompressed contents as a
+     * stream without writing them to disk. The file is downloaded and
+     * decompressed on a background thread into a bounded buffer, so the
+     * network and the reader of the stream work at the same time.
+     */
+    public InputStream stream(ImdbFile file) {
+        try {
+            InputStream compressed = openCompressed(file);
+            return new PrefetchingInputStream(compressed, "download-" + file.getName());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * ETag and Last-Modified date of the last complete download of a file
+     * (including one answered from a kept copy because the file hadn't
+     * changed). Null if the file wasn't downloaded from IMDB, e.g. when
+     * replaying kept files.
+     */
+    public Validators lastDownloaded(ImdbFile file) {
+        return downloaded.get(file);
+    }
+
+    /**
+     * Ask IMDB (with a conditional HEAD request) whether a file changed since
+     * it had the given validators. Answers true when it can't tell, so a
+     * failed check never skips an ingest.
+     */
+    public boolean isModified(ImdbFile file, Validators since) {
+        if (since == null || (since.etag() == null && since.lastModified() == null)) {
+            return true;
+        }
+        try {
+            HttpURLConnection connection = connect(file);
+            try {
+                connection.setRequestMethod("HEAD");
+                addConditionalHeaders(connection, since);
+                return connection.getResponseCode() != HttpURLConnection.HTTP_NOT_MODIFIED;
+            } finally {
+                connection.disconnect();
+            }
+        } catch (IOException e) {
+            log.warn("Could not check if {} changed", uri(file), e);
+            return true;
+        }
+    }
+
+    private InputStream openCompressed(ImdbFile file) throws IOException {
+        if (keepDownloadsDir == null) {
+            return new Download(file, null);
+        }
+        Path kept = keepDownloadsDir.resolve(file.getName());
+        if (replayDownloads && Files.exists(kept)) {
+            log.info("Replaying previously downloaded file: {}", kept);
+            return Files.newInputStream(kept);
+        }
+        Files.createDirectories(keepDownloadsDir);
+
+        KeptFile previous = KeptFile.read(kept);
+        Download download = new Download(file, previous == null ? null : previous.validators());
+        if (download.isNotModified()) {
+            if (previous.matches(kept)) {
+                log.info("{} hasn't changed, using kept copy {}", uri(file), kept);
+                downloaded.put(file, previous.validators());
+                return Files.newInputStream(kept);
+            }
+            log.warn("Kept copy {} is corrupt, downloading it again", kept);
+            KeptFile.delete(kept);
+            download = new Download(file, null);
+        }
+        return new KeepCopyInputStream(download, kept);
+    }
+
+    private URI uri(ImdbFile file) {
+        return downloadUrl.resolve(file.getName());
+    }
+
+    private HttpURLConnection connect(ImdbFile file) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) uri(file).toURL().openConnection();
+        connection.setConnectTimeout((int) connectTimeout.toMillis());
+        connection.setReadTimeout((int) readTimeout.toMillis());
+        return connection;
+    }
+
+    private static void addConditionalHeaders(HttpURLConnection connection, Validators validators) {
+        if (validators.etag() != null) {
+            connection.setRequestProperty("If-None-Match", validators.etag());
+        }
+        if (validators.lastModified() != null) {
+            connection.setRequestProperty("If-Modified-Since", validators.lastModified());
+        }
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * What identifies a version of a file on IMDB's server. Either may be
+     * null if the server didn't send it.
+     */
+    public record Validators(String etag, String lastModified) {
+    }
+
     public enum ImdbFile {
         TITLES("title.basics.tsv.gz"),
         EPISODES("title.episode.tsv.gz"),
@@ -64,4 +245,403 @@ public final class ImdbFileDownloader {
             return URI.create(DOWNLOAD_URL + "/" + name);
         }
     }
+
+    /**
+     * A download of one file, read as a stream. Failed requests and reads are
+     * retried (with exponential backoff) up to {@code retries} times in
+     * total, and a download that fails part way resumes from the last byte
+     * read with a range request. If-Range makes sure the rest comes from the
+     * same version of the file. If the server ignores the range but the file
+     * didn't change, the bytes already read are skipped instead.
+     */
+    private final class Download extends InputStream {
+
+        private final ImdbFile file;
+        private final Validators conditional; // Only for the first request.
+        private final MessageDigest digest = newSha256();
+
+        private HttpURLConnection connection;
+        private InputStream body;
+        private boolean notModified = false;
+        private boolean complete = false;
+        private String etag;
+        private String lastModified;
+        private long length = -1; // Unknown
+        private long position = 0;
+        private int failures = 0;
+
+        Download(ImdbFile file, Validators conditional) throws IOException {
+            this.file = file;
+            this.conditional = conditional;
+            open();
+        }
+
+        boolean isNotModified() {
+            return notModified;
+        }
+
+        Validators validators() {
+            return new Validators(etag, lastModified);
+        }
+
+        long length() {
+            return position;
+        }
+
+        String sha256() {
+            return HexFormat.of().formatHex(digest.digest());
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int n = read(one, 0, 1);
+            return n == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            while (true) {
+                try {
+                    int n = body.read(b, off, len);
+                    if (n == -1) {
+                        if (length >= 0 && position < length) {
+                            throw new EOFException(format("%s ended after %d of %d bytes", uri(file), position, length));
+                        }
+                        if (!complete) {
+                            complete = true;
+                            downloaded.put(file, validators());
+                        }
+                        return -1;
+                    }
+                    digest.update(b, off, n);
+                    position += n;
+                    return n;
+                } catch (FatalDownloadException e) {
+                    throw e;
+                } catch (IOException e) {
+                    disconnect();
+                    backOff(e);
+                    open();
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            disconnect();
+        }
+
+        private void open() throws IOException {
+            while (true) {
+                try {
+                    request();
+                    return;
+                } catch (FatalDownloadException e) {
+                    throw e;
+                } catch (IOException e) {
+                    disconnect();
+                    backOff(e);
+                }
+            }
+        }
+
+        private void request() throws IOException {
+            connection = connect(file);
+            if (position > 0) {
+                connection.setRequestProperty("Range", "bytes=" + position + "-");
+                if (etag != null || lastModified != null) {
+                    connection.setRequestProperty("If-Range", etag != null ? etag : lastModified);
+                }
+            } else if (conditional != null) {
+                addConditionalHeaders(connection, conditional);
+            }
+
+            int status = connection.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED && position == 0 && conditional != null) {
+                notModified = true;
+                disconnect();
+                body = InputStream.nullInputStream();
+            } else if (status == HttpURLConnection.HTTP_PARTIAL && position > 0) {
+                String range = connection.getHeaderField("Content-Range");
+                if (range == null || !range.startsWith("bytes " + position + "-")) {
+                    throw new FatalDownloadException(format("%s resumed at the wrong place: %s", uri(file), range));
+                }
+                log.info("Resuming download of {} at byte {}", uri(file), position);
+                body = connection.getInputStream();
+            } else if (status == HttpURLConnection.HTTP_OK && position == 0) {
+                etag = connection.getHeaderField("ETag");
+                lastModified = connection.getHeaderField("Last-Modified");
+                length = connection.getContentLengthLong();
+                body = connection.getInputStream();
+            } else if (status == HttpURLConnection.HTTP_OK) {
+                // Range not supported, or the file changed (so If-Range failed).
+                if (!Objects.equals(etag, connection.getHeaderField("ETag"))
+                    || !Objects.equals(lastModified, connection.getHeaderField("Last-Modified"))) {
+                    throw new FatalDownloadException(format("%s changed while it was downloaded", uri(file)));
+                }
+                body = connection.getInputStream();
+                body.skipNBytes(position);
+            } else if (status >= 500 || status == 429) {
+                throw new IOException(format("%s answered HTTP %d", uri(file), status));
+            } else {
+                throw new FatalDownloadException(format("%s answered HTTP %d", uri(file), status));
+            }
+        }
+
+        private void backOff(IOException failure) throws IOException {
+            failures++;
+            if (failures > retries) {
+                throw failure;
+            }
+            long delay = retryBackoff.toMillis() << Math.min(failures - 1, 10);
+            log.warn("Download of {} failed at byte {} ({}), retrying in {} ms ({} of {})",
+                    uri(file), position, failure.toString(), delay, failures, retries);
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to retry " + uri(file));
+            }
+        }
+
+        private void disconnect() {
+            if (connection != null) {
+                connection.disconnect();
+                connection = null;
+            }
+        }
+    }
+
+    /**
+     * A download failure that retrying won't fix (e.g. a 404, or the file
+     * changing between two parts of a resumed download).
+     */
+    private static final class FatalDownloadException extends IOException {
+        FatalDownloadException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * What's known about a kept copy of a file, stored next to it in a
+     * {@code .properties} file once the copy is complete.
+     */
+    private record KeptFile(Validators validators, long length, String sha256) {
+
+        static KeptFile read(Path kept) throws IOException {
+            Path info = infoFile(kept);
+            if (!Files.exists(kept) || !Files.exists(info)) {
+                return null;
+            }
+            Properties properties = new Properties();
+            try (Reader reader = Files.newBufferedReader(info)) {
+                properties.load(reader);
+            }
+            return new KeptFile(
+                    new Validators(properties.getProperty("etag"), properties.getProperty("last-modified")),
+                    Long.parseLong(properties.getProperty("length", "-1")),
+                    properties.getProperty("sha256")
+            );
+        }
+
+        void write(Path kept) throws IOException {
+            Properties properties = new Properties();
+            if (validators.etag() != null) {
+                properties.setProperty("etag", validators.etag());
+            }
+            if (validators.lastModified() != null) {
+                properties.setProperty("last-modified", validators.lastModified());
+            }
+            properties.setProperty("length", Long.toString(length));
+            properties.setProperty("sha256", sha256);
+            try (Writer writer = Files.newBufferedWriter(infoFile(kept))) {
+                properties.store(writer, null);
+            }
+        }
+
+        /**
+         * Whether the kept file is still exactly what was downloaded.
+         */
+        boolean matches(Path kept) throws IOException {
+            if (Files.size(kept) != length) {
+                return false;
+            }
+            MessageDigest digest = newSha256();
+            try (InputStream in = new DigestInputStream(Files.newInputStream(kept), digest)) {
+                in.transferTo(OutputStream.nullOutputStream());
+            }
+            return HexFormat.of().formatHex(digest.digest()).equals(sha256);
+        }
+
+        static void delete(Path kept) throws IOException {
+            Files.deleteIfExists(kept);
+            Files.deleteIfExists(infoFile(kept));
+        }
+
+        private static Path infoFile(Path kept) {
+            return kept.resolveSibling(kept.getFileName() + ".properties");
+        }
+    }
+
+    /**
+     * Writes every byte read from a download to a local file. The file is
+     * only moved to its final name once the download was read to the end, so
+     * a failed download never replaces a good copy.
+     */
+    private static final class KeepCopyInputStream extends FilterInputStream {
+
+        private final Download download;
+        private final Path target;
+        private final Path partial;
+        private final OutputStream copy;
+        private boolean complete = false;
+        private boolean closed = false;
+
+        KeepCopyInputStream(Download download, Path target) throws IOException {
+            super(download);
+            this.download = download;
+            this.target = target;
+            this.partial = target.resolveSibling(target.getFileName() + ".partial");
+            this.copy = Files.newOutputStream(partial);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b == -1) {
+                complete = true;
+            } else {
+                copy.write(b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n == -1) {
+                complete = true;
+            } else {
+                copy.write(b, off, n);
+            }
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                super.close();
+                copy.close();
+                if (complete) {
+                    // The info file is written last, so a copy without one is
+                    // never trusted.
+                    Files.deleteIfExists(KeptFile.infoFile(target));
+                    Files.move(partial, target, REPLACE_EXISTING, ATOMIC_MOVE);
+                    new KeptFile(download.validators(), download.length(), download.sha256()).write(target);
+                    log.info("Kept copy of download at {}", target);
+                }
+            } finally {
+                Files.deleteIfExists(partial);
+            }
+        }
+    }
+
+    /**
+     * Decompresses a gzip stream on a virtual thread into a bounded queue of
+     * chunks which are handed out to the reader. The background thread blocks
+     * when the queue is full, so memory use stays bounded no matter how far
+     * ahead the download gets.
+     */
+    private static final class PrefetchingInputStream extends InputStream {
+
+        private static final byte[] END = new byte[0];
+
+        private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(MAX_BUFFERED_CHUNKS);
+        private final Thread producer;
+        private volatile Throwable failure;
+
+        private byte[] current = new byte[0];
+        private int position = 0;
+
+        PrefetchingInputStream(InputStream compressed, String name) {
+            this.producer = Thread.ofVirtual().name(name).start(() -> produce(compressed));
+        }
+
+        private void produce(InputStream compressed) {
+            boolean closedEarly = false;
+            try (compressed; InputStream decompressed = new GZIPInputStream(compressed, CHUNK_SIZE)) {
+                byte[] chunk;
+                while ((chunk = decompressed.readNBytes(CHUNK_SIZE)).length > 0) {
+                    chunks.put(chunk);
+                }
+                // Read anything left after the gzip trailer so the whole
+                // download is consumed.
+                compressed.transferTo(OutputStream.nullOutputStream());
+            } catch (InterruptedException _) {
+                closedEarly = true; // Reader closed the stream early.
+            } catch (Throwable e) {
+                // Anything, not just I/O errors, or the reader would wait for
+                // the next chunk forever.
+                failure = e;
+            } finally {
+                if (!closedEarly) {
+                    try {
+                        chunks.put(END);
+                    } catch (InterruptedException _) {
+                        // Reader closed the stream early.
+                    }
+                }
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int n = read(one, 0, 1);
+            return n == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (current == END) {
+                return -1;
+            }
+            if (position == current.length) {
+                try {
+                    current = chunks.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for download");
+                }
+                position = 0;
+                if (current == END) {
+                    Throwable e = failure;
+                    if (e instanceof IOException io) {
+                        throw io;
+                    }
+                    if (e != null) {
+                        throw new IOException("Failed to download " + producer.getName(), e);
+                    }
+                    return -1;
+                }
+            }
+            int n = Math.min(len, current.length - position);
+            System.arraycopy(current, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+            producer.interrupt();
+        }
+    }
 }
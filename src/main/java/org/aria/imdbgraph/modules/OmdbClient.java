@@ -1,59 +1,169 @@
 package org.aria.imdbgraph.modules;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestClient;
 
+import java.time.Duration;
+import java.time.Instant;
 import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class is responsible for fetching thumbnail URLs from the open IMDB API
  * (OMDB).
+ * <p>
+ * At most {@code omdb.api.limit} calls are made per {@code omdb.api.window}
+ * (OMDB's free tier allows 1000 a day); the budget starts over once the window
+ * has passed. Calls are counted under {@code imdbgraph.omdb.calls} (by
+ * outcome), and the share of the budget used in the current window is exposed
+ * as gauges.
+ * At most {@code imdbgraph.bulkhead.omdb.max-concurrent} calls are made at
+ * once (see {@link Bulkhead}), so slow responses from OMDB can't tie up every
+ * request thread.
  */
 @Service
 public class OmdbClient {
 
     private static final Logger logger = LogManager.getLogger();
 
-    private static final int LIMIT = 1000;
-
-    private final RestClient restClient = RestClient.create();
+    private final RestClient restClient;
     private final String apiKey;
-    private final AtomicInteger counter = new AtomicInteger(1);
+    private final int limit;
+    private final Duration window;
+    private final Bulkhead bulkhead;
+
+    // Guarded by this.
+    private Instant windowStart = Instant.now();
+    private int used = 0;
 
-    public OmdbClient(@Value("${omdb.api.key}") String apiKey) {
+    private final Counter foundCalls;
+    private final Counter notFoundCalls;
+    private final Counter limitedCalls;
+
+    public OmdbClient(
+            @Value("${omdb.api.key}") String apiKey,
+            @Value("${omdb.api.url:https://www.omdbapi.com}") String apiUrl,
+            @Value("${omdb.api.limit:1000}") int limit,
+            @Value("${omdb.api.window:1d}") Duration window,
+            @Value("${imdbgraph.bulkhead.omdb.max-concurrent:4}") int maxConcurrent,
+            @Value("${imdbgraph.bulkhead.omdb.max-wait:1s}") Duration maxWait,
+            MeterRegistry meterRegistry
+    ) {
+        this.restClient = RestClient.create(apiUrl);
         this.apiKey = apiKey;
+        this.limit = limit;
+        this.window = window;
+        this.bulkhead = new Bulkhead("omdb", maxConcurrent, maxWait);
+        bulkhead.bindTo(meterRegistry);
+        this.foundCalls = callCounter(meterRegistry, "found");
+        this.notFoundCalls = callCounter(meterRegistry, "not_found");
+        this.limitedCalls = callCounter(meterRegistry, "limited");
+        Gauge.builder("imdbgraph.omdb.budget.used", this, c -> c.getLimit() - c.remainingBudget())
+                .description("OMDB calls made out of the budget in the current window")
+                .register(meterRegistry);
+        Gauge.builder("imdbgraph.omdb.budget.limit", () -> limit)
+                .description("OMDB calls allowed")
+                .register(meterRegistry);
     }
 
     /**
      * Given an IMDB ID, return a thumbnail URL for that TV show. Return empty
-     * result if given invalid ID.
+     * result if given invalid ID or OMDB has no poster for it.
+     *
+     * @throws BudgetExhaustedException If no more calls can be made in the
+     *                                  current window.
      */
     public Optional<String> getThumbnailUrl(String imdbId) {
-        int curr = counter.getAndIncrement();
-        if (curr > LIMIT) {
+        int curr = takeFromBudget();
+        if (curr == 0) {
             logger.info("OMDB API Limit reached");
-            return Optional.empty();
+            limitedCalls.increment();
+            throw new BudgetExhaustedException();
         }
 
-        OmdbApiResponse response = restClient.get()
-                .uri("https://www.omdbapi.com/?i={i}&apikey={apikey}", imdbId, apiKey)
-                .retrieve()
-                .body(OmdbApiResponse.class);
+        OmdbApiResponse response;
+        try {
+            response = bulkhead.call(() -> restClient.get()
+                    .uri("/?i={i}&apikey={apikey}", imdbId, apiKey)
+                    .retrieve()
+                    .body(OmdbApiResponse.class));
+        } catch (Bulkhead.BulkheadFullException e) {
+            giveBackToBudget(); // Never reached OMDB.
+            throw e;
+        }
         if (response == null || response.poster() == null) {
+            notFoundCalls.increment();
             return Optional.empty();
         } else {
+            foundCalls.increment();
             var poster = response.poster();
-            logger.info("Fetching OMDB thumbnail ({} out of {}): {}", curr, LIMIT, poster);
+            logger.info("Fetching OMDB thumbnail ({} out of {}): {}", curr, limit, poster);
             return Optional.of(poster);
         }
     }
 
+    public int getLimit() {
+        return limit;
+    }
+
+    public Duration getWindow() {
+        return window;
+    }
+
+    /**
+     * Number of calls that can still be made before the current window ends.
+     */
+    public synchronized int remainingBudget() {
+        startNewWindowIfOver();
+        return limit - used;
+    }
+
+    // Returns which call of the window this is (starting at 1), or 0 if the
+    // budget is used up.
+    private synchronized int takeFromBudget() {
+        startNewWindowIfOver();
+        if (used >= limit) {
+            return 0;
+        }
+        return ++used;
+    }
+
+    private synchronized void giveBackToBudget() {
+        used = Math.max(0, used - 1);
+    }
+
+    private void startNewWindowIfOver() {
+        Instant now = Instant.now();
+        if (!now.isBefore(windowStart.plus(window))) {
+            windowStart = now;
+            used = 0;
+        }
+    }
+
+    private static Counter callCounter(MeterRegistry meterRegistry, String outcome) {
+        return Counter.builder("imdbgraph.omdb.calls")
+                .description("Thumbnail lookups through OMDB (limited ones never reach OMDB)")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Thrown instead of calling OMDB once the budget for the current window is
+     * used up, so callers can tell "no poster" apart from "didn't ask".
+     */
+    public static class BudgetExhaustedException extends RuntimeException {
+        public BudgetExhaustedException() {
+            super("OMDB API limit reached");
+        }
+    }
+
     // #########################################################################
     // # JSON Data Types from OMDB API.
     // #########################################################################
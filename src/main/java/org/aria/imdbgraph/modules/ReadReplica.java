@@ -0,0 +1,313 @@
+package org.aria.imdbgraph.modules;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcOperations;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+
+/**
+ * Where read-only queries go. When {@code imdbgraph.datasource.replica.url}
+ * is set they go to a streaming replica of the database, so ingests (and
+ * other writes) on the primary don't slow them down. Otherwise they go to the
+ * primary like everything else.
+ * <p>
+ * The replica is checked every {@code imdbgraph.datasource.replica.check-interval}.
+ * Reads fall back to the primary while it can't be reached, isn't streaming
+ * from the primary or is more than {@code imdbgraph.datasource.replica.max-lag}
+ * behind. They also fall back
+ * from the moment a new dataset is committed until the replica has replayed
+ * it, so nothing reloaded on {@link DatasetUpdatedEvent} reads the old one. A
+ * replica that fails to hand out a connection is skipped until the next check
+ * succeeds.
+ * <p>
+ * Writes, and reads that have to see a write that was just made, should keep
+ * using the primary's {@link JdbcTemplate}.
+ */
+@Component
+public class ReadReplica implements MeterBinder, DisposableBean {
+
+    private static final Logger logger = LogManager.getLogger(ReadReplica.class);
+
+    private final DataSource primary;
+    private final JdbcTemplate primaryJdbcTemplate;
+    private final Duration maxLag;
+
+    // Null if there's no replica.
+    private final HikariDataSource replica;
+    private final JdbcTemplate replicaJdbcTemplate;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcOperations jdbc;
+    private final PlatformTransactionManager transactionManager;
+
+    private volatile boolean replicaActive = false;
+    private volatile double lagSeconds = Double.NaN;
+    // WAL position of the last dataset committed on the primary, or -1. The
+    // replica isn't used until it has replayed up to there.
+    private volatile long requiredLsn = -1;
+    // Postgres 10 renamed the xlog functions to wal; null until known.
+    private volatile Boolean walNames;
+
+    public ReadReplica(
+            DataSource primary,
+            JdbcTemplate primaryJdbcTemplate,
+            NamedParameterJdbcOperations primaryJdbc,
+            PlatformTransactionManager primaryTransactionManager,
+            @Value("${imdbgraph.datasource.replica.url:}") String url,
+            @Value("${imdbgraph.datasource.replica.username:${spring.datasource.username:}}") String username,
+            @Value("${imdbgraph.datasource.replica.password:${spring.datasource.password:}}") String password,
+            @Value("${imdbgraph.datasource.replica.pool-size:10}") int poolSize,
+            @Value("${imdbgraph.datasource.replica.connection-timeout:2s}") Duration connectionTimeout,
+            @Value("${imdbgraph.datasource.replica.max-lag:30s}") Duration maxLag
+    ) {
+        this.primary = primary;
+        this.primaryJdbcTemplate = primaryJdbcTemplate;
+        this.maxLag = maxLag;
+        if (url.isBlank()) {
+            this.replica = null;
+            this.replicaJdbcTemplate = null;
+            this.jdbcTemplate = primaryJdbcTemplate;
+            this.jdbc = primaryJdbc;
+            this.transactionManager = primaryTransactionManager;
+            return;
+        }
+        // Connects lazily, so a replica that's down doesn't stop startup.
+        this.replica = new HikariDataSource();
+        replica.setPoolName("replica");
+        replica.setJdbcUrl(url);
+        replica.setUsername(username);
+        replica.setPassword(password);
+        replica.setMaximumPoolSize(poolSize);
+        replica.setConnectionTimeout(connectionTimeout.toMillis());
+        replica.setReadOnly(true);
+        this.replicaJdbcTemplate = new JdbcTemplate(replica);
+
+        DataSource routing = new RoutingDataSource();
+        this.jdbcTemplate = new JdbcTemplate(routing);
+        this.jdbc = new NamedParameterJdbcTemplate(jdbcTemplate);
+        this.transactionManager = new DataSourceTransactionManager(routing);
+        logger.info("Sending reads to replica {}", url);
+    }
+
+    public JdbcTemplate jdbcTemplate() {
+        return jdbcTemplate;
+    }
+
+    public NamedParameterJdbcOperations jdbc() {
+        return jdbc;
+    }
+
+    /**
+     * For transactions made of reads only, such as the ones needed to stream
+     * results with a fetch size.
+     */
+    public PlatformTransactionManager transactionManager() {
+        return transactionManager;
+    }
+
+    /**
+     * Whether reads currently go to the replica.
+     */
+    public boolean isReplicaActive() {
+        return replicaActive;
+    }
+
+    /*
+     * The replica is only as far behind as the primary's current WAL position
+     * says: comparing its replayed position with the one it received would
+     * show no lag on a replica that lost its connection to the primary, and
+     * keep it in use while it serves older and older data.
+     */
+    @Scheduled(fixedDelayString = "${imdbgraph.datasource.replica.check-interval:PT5S}")
+    public synchronized void checkReplica() {
+        if (replica == null) {
+            return;
+        }
+        ReplicaState state;
+        try {
+            long primaryLsn = currentLsn();
+            // Without pg_read_all_stats (or superuser on 9.6), only the pid of
+            // the WAL receiver is visible, which at least says it's running.
+            String sql = usesWalNames(replicaJdbcTemplate) ? """
+                    SELECT pg_is_in_recovery() AS recovery,
+                           EXISTS (SELECT 1
+                                   FROM pg_stat_wal_receiver
+                                   WHERE COALESCE(status = 'streaming', pid IS NOT NULL)) AS streaming,
+                           pg_last_wal_replay_lsn()::TEXT AS replayed,
+                           EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp())::FLOAT8 AS replay_age
+                    """ : """
+                    SELECT pg_is_in_recovery() AS recovery,
+                           EXISTS (SELECT 1
+                                   FROM pg_stat_wal_receiver
+                                   WHERE COALESCE(status = 'streaming', pid IS NOT NULL)) AS streaming,
+                           pg_last_xlog_replay_location()::TEXT AS replayed,
+                           EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp())::FLOAT8 AS replay_age
+                    """;
+            state = replicaJdbcTemplate.query(sql, rs -> {
+                rs.next();
+                // Null if it isn't a replica at all (then there's nothing to
+                // wait for).
+                String replayed = rs.getString("replayed");
+                boolean detached = rs.getBoolean("recovery") && !rs.getBoolean("streaming");
+                Double lag;
+                if (!rs.getBoolean("recovery")) {
+                    lag = 0.0;
+                } else if (detached) {
+                    lag = null; // Can't tell how far behind it is.
+                } else if (replayed != null && lsn(replayed) >= primaryLsn) {
+                    lag = 0.0;
+                } else {
+                    lag = rs.getObject("replay_age", Double.class);
+                }
+                boolean caughtUp = replayed == null || lsn(replayed) >= requiredLsn;
+                return new ReplicaState(detached, lag, caughtUp);
+            });
+        } catch (DataAccessException e) {
+            if (replicaActive) {
+                logger.warn("Replica is unreachable, reading from the primary", e);
+            }
+            replicaActive = false;
+            lagSeconds = Double.NaN;
+            return;
+        }
+        lagSeconds = state.lag() == null ? Double.NaN : state.lag();
+        boolean active = state.lag() != null && state.lag() <= maxLag.toMillis() / 1000.0 && state.caughtUp();
+        if (active != replicaActive) {
+            if (active) {
+                logger.info("Replica is caught up ({}s behind), reading from it", lagSeconds);
+            } else if (state.detached()) {
+                logger.info("Replica isn't streaming from the primary, reading from the primary");
+            } else {
+                logger.info("Replica is {}s behind, reading from the primary", lagSeconds);
+            }
+        }
+        if (active) {
+            requiredLsn = -1;
+        }
+        replicaActive = active;
+    }
+
+    /*
+     * Runs before every other listener, so the ones reloading data from the
+     * new dataset read it from the primary.
+     */
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    @TransactionalEventListener(fallbackExecution = true)
+    public synchronized void onDatasetUpdated(DatasetUpdatedEvent event) {
+        if (replica == null) {
+            return;
+        }
+        requiredLsn = currentLsn();
+        replicaActive = false;
+        logger.info("Reading from the primary until the replica has dataset version {}", event.version());
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        if (replica == null) {
+            return;
+        }
+        Gauge.builder("imdbgraph.db.replica.active", this, r -> r.replicaActive ? 1 : 0)
+                .description("Whether reads go to the replica (1) or the primary (0)")
+                .register(registry);
+        Gauge.builder("imdbgraph.db.replica.lag", this, r -> r.lagSeconds)
+                .description("How far behind the primary the replica was at the last check")
+                .baseUnit("seconds")
+                .register(registry);
+    }
+
+    @Override
+    public void destroy() {
+        if (replica != null) {
+            replica.close();
+        }
+    }
+
+    private boolean usesWalNames(JdbcTemplate jdbcTemplate) {
+        Boolean known = walNames;
+        if (known == null) {
+            Integer version = jdbcTemplate.queryForObject(
+                    "SELECT current_setting('server_version_num')::INT", Integer.class);
+            known = version != null && version >= 100_000;
+            walNames = known;
+        }
+        return known;
+    }
+
+    // Where the primary's WAL is at.
+    private long currentLsn() {
+        String sql = usesWalNames(primaryJdbcTemplate)
+                ? "SELECT pg_current_wal_lsn()::TEXT"
+                : "SELECT pg_current_xlog_location()::TEXT";
+        return lsn(primaryJdbcTemplate.queryForObject(sql, String.class));
+    }
+
+    // Postgres writes WAL positions as two 32-bit hex numbers, e.g. "16/B374D848".
+    private static long lsn(String text) {
+        int slash = text.indexOf('/');
+        return (Long.parseLong(text.substring(0, slash), 16) << 32) | Long.parseLong(text.substring(slash + 1), 16);
+    }
+
+    /**
+     * @param detached  A replica that isn't receiving WAL from the primary.
+     * @param lag       Seconds behind the primary, null if unknown.
+     * @param caughtUp  Whether it has replayed the last dataset committed.
+     */
+    private record ReplicaState(boolean detached, Double lag, boolean caughtUp) {
+    }
+
+    private final class RoutingDataSource extends AbstractDataSource {
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            if (replicaActive) {
+                try {
+                    return replica.getConnection();
+                } catch (SQLException e) {
+                    markDown(e);
+                }
+            }
+            return primary.getConnection();
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            if (replicaActive) {
+                try {
+                    return replica.getConnection(username, password);
+                } catch (SQLException e) {
+                    markDown(e);
+                }
+            }
+            return primary.getConnection(username, password);
+        }
+
+        private void markDown(SQLException e) {
+            if (replicaActive) {
+                logger.warn("Couldn't connect to the replica, reading from the primary", e);
+            }
+            replicaActive = false;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package org.aria.imdbgraph.modules;
+
+import org.postgresql.copy.CopyIn;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Set;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Filters the rows of the IMDB titles file before they're sent to Postgres.
+ * Most titles are movies, shorts, video games, etc. that the scraper throws
+ * away, so only TV shows and episodes are kept, and only the columns the
+ * scraper actually uses:
+ * <pre>
+ * tconst  titleType  primaryTitle  startYear  endYear  genres
+ * </pre>
+ * Genres are only kept for shows (episodes get {@code \N}).
+ * <p>
+ * Not thread safe: the filter reuses its buffers from one row to the next.
+ */
+final class TitleFilter {
+
+    /**
+     * Title types stored as shows, plus episodes (needed for their titles).
+     */
+    static final Set<String> KEPT_TITLE_TYPES = Set.of(
+            "tvSeries",
+            "tvShort",
+            "tvSpecial",
+            "tvMiniSeries",
+            "tvEpisode"
+    );
+
+    private static final int COLUMNS = 9;
+    private static final int FLUSH_SIZE = 64 * 1024;
+
+    // Positions of the tabs in the current row.
+    private final int[] tabs = new int[COLUMNS - 1];
+
+    /**
+     * Number of rows read from the file and how many of them were sent to
+     * Postgres.
+     */
+    record Counts(long read, long kept) {
+
+        long dropped() {
+            return read - kept;
+        }
+    }
+
+    /**
+     * Copy the filtered rows of a titles file (with its header already
+     * skipped) into an active COPY. Ends the COPY once the file is read, or
+     * cancels it if anything fails.
+     */
+    Counts copy(BufferedReader titles, CopyIn copy) throws IOException, SQLException {
+        long read = 0;
+        long kept = 0;
+        StringBuilder batch = new StringBuilder(FLUSH_SIZE + 1024);
+        try {
+            String line;
+            while ((line = titles.readLine()) != null) {
+                read++;
+                if (project(line, batch)) {
+                    kept++;
+                }
+                if (batch.length() >= FLUSH_SIZE) {
+                    flush(batch, copy);
+                }
+            }
+            flush(batch, copy);
+            copy.endCopy();
+            return new Counts(read, kept);
+        } catch (IOException | SQLException | RuntimeException e) {
+            if (copy.isActive()) {
+                copy.cancelCopy();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * If the row is a kept title type, append its projected columns (and a
+     * newline) to {@code out} and return true.
+     *
+     * @throws IOException If the row doesn't have the expected columns.
+     */
+    boolean project(String line, StringBuilder out) throws IOException {
+        int from = 0;
+        for (int i = 0; i < tabs.length; i++) {
+            tabs[i] = line.indexOf('\t', from);
+            if (tabs[i] < 0) {
+                throw new IOException("Expected " + COLUMNS + " columns in row: " + line);
+            }
+            from = tabs[i] + 1;
+        }
+        String titleType = line.substring(tabs[0] + 1, tabs[1]);
+        if (!KEPT_TITLE_TYPES.contains(titleType)) {
+            return false;
+        }
+        // tconst, titleType, primaryTitle
+        out.append(line, 0, tabs[2]).append('\t');
+        // startYear, endYear
+        out.append(line, tabs[4] + 1, tabs[6]).append('\t');
+        // genres
+        if (titleType.equals("tvEpisode")) {
+            out.append("\\N\n");
+        } else {
+            out.append(line, tabs[7] + 1, line.length()).append('\n');
+        }
+        return true;
+    }
+
+    private static void flush(StringBuilder batch, CopyIn copy) throws SQLException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        byte[] bytes = batch.toString().getBytes(UTF_8);
+        copy.writeToCopy(bytes, 0, bytes.length);
+        batch.setLength(0);
+    }
+}
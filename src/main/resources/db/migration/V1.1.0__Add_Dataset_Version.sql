@@ -0,0 +1,7 @@
+-- One row per successful ingest. The latest version identifies the data that
+-- is currently being served and is used to build HTTP cache validators.
+CREATE TABLE imdb.dataset_version
+(
+    version    BIGSERIAL PRIMARY KEY                 NOT NULL,
+    updated_at TIMESTAMP WITH TIME ZONE DEFAULT now() NOT NULL
+);
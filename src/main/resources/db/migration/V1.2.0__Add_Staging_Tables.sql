@@ -0,0 +1,30 @@
+-- Used by the streaming ingest, which loads every IMDB file in parallel on its
+-- own connection and so can't use temp tables. These only ever hold data that
+-- can be downloaded again, so they skip the WAL.
+CREATE UNLOGGED TABLE imdb.staging_title
+(
+    imdb_id         VARCHAR(10),
+    title_type      TEXT,
+    primary_title   TEXT,
+    original_title  TEXT,
+    is_adult        BOOLEAN,
+    start_year      CHAR(4),
+    end_year        CHAR(4),
+    runtime_minutes INT,
+    genres          TEXT
+);
+
+CREATE UNLOGGED TABLE imdb.staging_episode
+(
+    episode_id  VARCHAR(10),
+    show_id     VARCHAR(10),
+    season_num  INT,
+    episode_num INT
+);
+
+CREATE UNLOGGED TABLE imdb.staging_ratings
+(
+    imdb_id     VARCHAR(10) PRIMARY KEY,
+    imdb_rating DOUBLE PRECISION,
+    num_votes   INT
+);
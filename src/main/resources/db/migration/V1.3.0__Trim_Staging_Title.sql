@@ -0,0 +1,7 @@
+-- Titles are filtered down to the columns the scraper uses before being
+-- loaded (see TitleFilter).
+ALTER TABLE imdb.staging_title
+    DROP COLUMN original_title,
+    DROP COLUMN is_adult,
+    DROP COLUMN runtime_minutes,
+    DROP COLUMN genres;
@@ -0,0 +1,11 @@
+-- Formats a double the way Jackson does for the values stored in the rating
+-- columns (e.g. 9.2, 0.0, 10.0). Going through numeric gives the shortest
+-- decimal form regardless of the session's extra_float_digits. Used to build
+-- /ratings responses directly in the database.
+CREATE FUNCTION imdb.json_double(value DOUBLE PRECISION) RETURNS TEXT AS
+$$
+SELECT CASE
+           WHEN position('.' IN value::NUMERIC::TEXT) > 0 THEN value::NUMERIC::TEXT
+           ELSE value::NUMERIC::TEXT || '.0'
+           END;
+$$ LANGUAGE SQL IMMUTABLE;
@@ -0,0 +1,5 @@
+-- When a show's thumbnail was looked up on OMDB. Rows without a thumbnail_url
+-- record shows OMDB has no poster for, so they aren't looked up again until
+-- imdbgraph.thumbnails.no-poster-ttl has passed.
+ALTER TABLE imdb.thumbnails
+    ADD COLUMN fetched_at TIMESTAMP WITH TIME ZONE DEFAULT now() NOT NULL;
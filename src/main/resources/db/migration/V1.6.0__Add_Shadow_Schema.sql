@@ -0,0 +1,3 @@
+-- Where the SHADOW ingest strategy builds the next show and episode tables
+-- before moving them into the imdb schema. Empty between ingests.
+CREATE SCHEMA imdb_shadow;
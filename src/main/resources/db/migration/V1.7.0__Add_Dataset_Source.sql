@@ -0,0 +1,11 @@
+-- ETag and Last-Modified date of every IMDB file a dataset version was loaded
+-- from, so an ingest can be skipped when none of the files changed. Versions
+-- loaded from replayed files have no rows.
+CREATE TABLE imdb.dataset_source
+(
+    version       BIGINT REFERENCES imdb.dataset_version NOT NULL,
+    file          TEXT                                   NOT NULL,
+    etag          TEXT,
+    last_modified TEXT,
+    PRIMARY KEY (version, file)
+);
@@ -0,0 +1,25 @@
+-- Per season aggregates of the episode ratings, rebuilt by every ingest (see
+-- ImdbDataScraper.buildSeasonStatsTable, which has the query) and served by
+-- /ratings/{showId}/summary. Filled in by the next ingest.
+-- Only episodes with votes count towards the ratings; avg_rating is weighted
+-- by votes and trend is the rating change per episode (least squares slope).
+-- There's no foreign key to imdb.show so ingests can swap both tables freely.
+CREATE TABLE imdb.season_stats
+(
+    show_id             VARCHAR(10)      NOT NULL,
+    season_num          INTEGER          NOT NULL,
+    episode_count       INTEGER          NOT NULL,
+    rated_count         INTEGER          NOT NULL,
+    num_votes           BIGINT           NOT NULL,
+    avg_rating          DOUBLE PRECISION,
+    min_rating          DOUBLE PRECISION,
+    max_rating          DOUBLE PRECISION,
+    trend               DOUBLE PRECISION,
+    best_episode_num    INTEGER,
+    best_episode_title  TEXT,
+    best_num_votes      INTEGER,
+    worst_episode_num   INTEGER,
+    worst_episode_title TEXT,
+    worst_num_votes     INTEGER,
+    PRIMARY KEY (show_id, season_num)
+);
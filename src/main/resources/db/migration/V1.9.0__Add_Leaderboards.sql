@@ -0,0 +1,44 @@
+-- Genres of every show (from the IMDB titles file), used to filter the
+-- leaderboards. Filled in by the next ingest.
+ALTER TABLE imdb.show
+    ADD COLUMN genres TEXT[];
+
+ALTER TABLE imdb.staging_title
+    ADD COLUMN genres TEXT;
+
+-- Leaderboards, rebuilt by every ingest (see
+-- ImdbDataScraper.buildLeaderboardTables): the top rated shows and episodes
+-- for every combination of genre ('' for any), decade the show started (0 for
+-- any) and minimum number of votes, ranked from 1. Rows are copies of the
+-- show and episode rows so a page is read from a single index range.
+CREATE TABLE imdb.top_show
+(
+    genre         TEXT             NOT NULL,
+    decade        INTEGER          NOT NULL,
+    min_votes     INTEGER          NOT NULL,
+    rank          INTEGER          NOT NULL,
+    imdb_id       VARCHAR(10)      NOT NULL,
+    primary_title TEXT             NOT NULL,
+    start_year    CHAR(4),
+    end_year      CHAR(4),
+    imdb_rating   DOUBLE PRECISION NOT NULL,
+    num_votes     INTEGER          NOT NULL,
+    PRIMARY KEY (genre, decade, min_votes, rank)
+);
+
+CREATE TABLE imdb.top_episode
+(
+    genre         TEXT             NOT NULL,
+    decade        INTEGER          NOT NULL,
+    min_votes     INTEGER          NOT NULL,
+    rank          INTEGER          NOT NULL,
+    show_id       VARCHAR(10)      NOT NULL,
+    show_title    TEXT             NOT NULL,
+    episode_id    VARCHAR(10)      NOT NULL,
+    episode_title TEXT,
+    season_num    INTEGER          NOT NULL,
+    episode_num   INTEGER          NOT NULL,
+    imdb_rating   DOUBLE PRECISION NOT NULL,
+    num_votes     INTEGER          NOT NULL,
+    PRIMARY KEY (genre, decade, min_votes, rank)
+);
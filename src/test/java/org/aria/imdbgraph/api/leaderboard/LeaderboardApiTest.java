@@ -0,0 +1,150 @@
+package org.aria.imdbgraph.api.leaderboard;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.aria.imdbgraph.modules.DatasetUpdatedEvent;
+import org.aria.imdbgraph.modules.DatasetVersion;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.TestInstance.Lifecycle.PER_CLASS;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+@TestInstance(PER_CLASS) // So @BeforeAll can be non-static.
+class LeaderboardApiTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private JdbcTemplate db;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private DatasetVersion datasetVersion;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @BeforeAll
+    void setUpData() {
+        String data = """
+                INSERT INTO imdb.top_show VALUES ('', 0, 1000, 1, 'tt0903747', 'Breaking Bad', '2008', '2013', 9.5, 2100000);
+                INSERT INTO imdb.top_show VALUES ('', 0, 1000, 2, 'tt0944947', 'Game of Thrones', '2011', '2019', 9.2, 2377099);
+                INSERT INTO imdb.top_show VALUES ('', 0, 1000, 3, 'tt0417299', 'Avatar: The Last Airbender', '2005', '2008', 9.2, 193629);
+                INSERT INTO imdb.top_show VALUES ('Animation', 2000, 100000, 1, 'tt0417299', 'Avatar: The Last Airbender', '2005', '2008', 9.2, 193629);
+                
+                INSERT INTO imdb.top_episode VALUES ('Drama', 0, 10000, 1, 'tt0903747', 'Breaking Bad', 'tt2301451', 'Ozymandias', 5, 14, 10, 220000);
+                """;
+        db.execute(data);
+    }
+
+    @AfterAll
+    void wipeDb() {
+        db.execute("DELETE FROM imdb.top_show; DELETE FROM imdb.top_episode;");
+    }
+
+    @Test
+    void testPagingThroughTopShows() throws Exception {
+        JsonNode first = getJson("/leaderboards/shows?limit=2");
+        assertEquals(2, first.get("entries").size());
+        assertEquals("tt0903747", first.get("entries").get(0).get("show").get("imdbId").asText());
+        assertEquals(2, first.get("entries").get(1).get("rank").asInt());
+
+        JsonNode second = getJson("/leaderboards/shows?limit=2&cursor=" + first.get("nextCursor").asText());
+        assertEquals(1, second.get("entries").size());
+        assertEquals(3, second.get("entries").get(0).get("rank").asInt());
+        assertTrue(second.get("nextCursor").isNull());
+    }
+
+    @Test
+    void testFilteringTopShows() throws Exception {
+        JsonNode page = getJson("/leaderboards/shows?genre=Animation&decade=2000&minVotes=100000");
+        assertEquals(1, page.get("entries").size());
+        assertEquals("tt0417299", page.get("entries").get(0).get("show").get("imdbId").asText());
+
+        assertEquals(0, getJson("/leaderboards/shows?genre=Western").get("entries").size());
+    }
+
+    @Test
+    void testGettingTopEpisodes() throws Exception {
+        String expected = """
+                {
+                   "entries":[
+                      {
+                         "rank":1,
+                         "showId":"tt0903747",
+                         "showTitle":"Breaking Bad",
+                         "episode":{"episodeTitle":"Ozymandias","season":5,"episodeNumber":14,"imdbRating":10.0}
+                      }
+                   ],
+                   "nextCursor":null
+                }
+                """;
+        mockMvc.perform(get("/leaderboards/episodes?genre=Drama&minVotes=10000"))
+                .andExpect(status().isOk())
+                .andExpect(content().json(expected));
+    }
+
+    @Test
+    void testInvalidRequests() throws Exception {
+        mockMvc.perform(get("/leaderboards/shows?minVotes=5"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/leaderboards/shows?decade=1995"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/leaderboards/shows?cursor=not-a-cursor"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void testCursorFromOlderDatasetIsRejected() throws Exception {
+        String cursor = getJson("/leaderboards/shows?limit=1").get("nextCursor").asText();
+        long version = db.queryForObject("INSERT INTO imdb.dataset_version DEFAULT VALUES RETURNING version", Long.class);
+        try {
+            mockMvc.perform(get("/leaderboards/shows?limit=1&cursor=" + cursor))
+                    .andExpect(status().isGone());
+        } finally {
+            db.update("DELETE FROM imdb.dataset_version WHERE version = ?", version);
+        }
+    }
+
+    /**
+     * The cursor goes with the tables that were read, not with the version
+     * this node has loaded, which is behind them until it has reloaded.
+     */
+    @Test
+    void testCursorIsFromTablesVersion() throws Exception {
+        String cursor = getJson("/leaderboards/shows?limit=1").get("nextCursor").asText();
+        eventPublisher.publishEvent(new DatasetUpdatedEvent(datasetVersion.current() + 1, Instant.now()));
+
+        JsonNode second = getJson("/leaderboards/shows?limit=1&cursor=" + cursor);
+        assertEquals(2, second.get("entries").get(0).get("rank").asInt());
+    }
+
+    private JsonNode getJson(String url) throws Exception {
+        String body = mockMvc.perform(get(url))
+                .andExpect(status().isOk())
+                .andReturn()
+                .getResponse()
+                .getContentAsString();
+        return objectMapper.readTree(body);
+    }
+}
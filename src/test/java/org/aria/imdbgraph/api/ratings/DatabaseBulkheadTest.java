@@ -0,0 +1,59 @@
+package org.aria.imdbgraph.api.ratings;
+
+import org.aria.imdbgraph.modules.Bulkhead.BulkheadFullException;
+import org.aria.imdbgraph.modules.DatabaseBulkhead;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class DatabaseBulkheadTest {
+
+    private final DataSource dataSource = bulkheaded();
+
+    @AfterEach
+    void leaveRequest() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Test
+    void testRequestsWaitForTurn() throws SQLException {
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+        try (Connection _ = dataSource.getConnection()) {
+            assertThrows(BulkheadFullException.class, dataSource::getConnection);
+        }
+        // The turn was given back when the connection was closed.
+        dataSource.getConnection().close();
+    }
+
+    @Test
+    void testOtherCallersDontNeedTurn() throws SQLException {
+        try (Connection _ = dataSource.getConnection();
+             Connection _ = dataSource.getConnection()) {
+            RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+            // Connections taken outside of requests don't hold a turn either.
+            dataSource.getConnection().close();
+        }
+    }
+
+    private static DataSource bulkheaded() {
+        DataSource pool = mock(DataSource.class);
+        try {
+            when(pool.getConnection()).thenAnswer(_ -> mock(Connection.class));
+        } catch (SQLException e) {
+            throw new AssertionError(e);
+        }
+        DatabaseBulkhead bulkhead = new DatabaseBulkhead(1, Duration.ofMillis(50));
+        return (DataSource) bulkhead.postProcessAfterInitialization(pool, "dataSource");
+    }
+}
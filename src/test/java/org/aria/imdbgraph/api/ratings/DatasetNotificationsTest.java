@@ -0,0 +1,71 @@
+package org.aria.imdbgraph.api.ratings;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.aria.imdbgraph.modules.DatasetNotifications;
+import org.aria.imdbgraph.modules.DatasetVersion;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import static java.lang.String.format;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@SpringBootTest(properties = "imdbgraph.dataset.notifications.max-jitter=0s")
+class DatasetNotificationsTest {
+
+    @Autowired
+    private DatasetVersion datasetVersion;
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Test
+    void testDatasetFromOtherNodeIsReloaded() throws InterruptedException {
+        long version = newVersion();
+        try {
+            // Sent again until received, the listener may not be listening yet.
+            notifyUntilReloaded(version);
+            assertEquals(version, datasetVersion.current());
+            assertEquals(version, meterRegistry.get("imdbgraph.dataset.version").gauge().value(), 0);
+        } finally {
+            jdbc.update("DELETE FROM imdb.dataset_version WHERE version = ?", version);
+        }
+    }
+
+    @Test
+    void testMalformedNotificationIsIgnored() throws InterruptedException {
+        long listening = newVersion();
+        long next = newVersion();
+        try {
+            notifyUntilReloaded(listening);
+
+            jdbc.execute(format("NOTIFY %s, 'not a version'", DatasetNotifications.CHANNEL));
+            jdbc.execute(format("NOTIFY %s, 'x:other-node'", DatasetNotifications.CHANNEL));
+            // Notifications are handled in order, so once this one is, the
+            // malformed ones were skipped without stopping the listener.
+            notifyUntilReloaded(next);
+            assertEquals(next, datasetVersion.current());
+        } finally {
+            jdbc.update("DELETE FROM imdb.dataset_version WHERE version IN (?, ?)", listening, next);
+        }
+    }
+
+    private long newVersion() {
+        return jdbc.queryForObject("INSERT INTO imdb.dataset_version DEFAULT VALUES RETURNING version", Long.class);
+    }
+
+    private void notifyUntilReloaded(long version) throws InterruptedException {
+        long deadline = System.nanoTime() + 30_000_000_000L;
+        while (datasetVersion.current() < version) {
+            jdbc.execute(format("NOTIFY %s, '%d:other-node'", DatasetNotifications.CHANNEL, version));
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("Timed out waiting for dataset version " + version + " to be reloaded");
+            }
+            Thread.sleep(100);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package org.aria.imdbgraph.api.ratings;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.aria.imdbgraph.api.ratings.json.Show;
+import org.aria.imdbgraph.modules.DatasetNotifications;
+import org.aria.imdbgraph.modules.DatasetSnapshot;
+import org.aria.imdbgraph.modules.DatasetUpdatedEvent;
+import org.aria.imdbgraph.modules.ImdbDataScraper;
+import org.aria.imdbgraph.modules.ImdbFileDownloader;
+import org.aria.imdbgraph.modules.ReadReplica;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.io.TempDir;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static org.aria.imdbgraph.modules.ImdbFileDownloader.ImdbFile.EPISODES;
+import static org.aria.imdbgraph.modules.ImdbFileDownloader.ImdbFile.RATINGS;
+import static org.aria.imdbgraph.modules.ImdbFileDownloader.ImdbFile.TITLES;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.TestInstance.Lifecycle.PER_CLASS;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.jdbc.JdbcTestUtils.deleteFromTables;
+
+/**
+ * Ingests with {@code imdbgraph.snapshot.dir} set: other nodes must only be
+ * told about a dataset once its snapshot file is written, so they map it
+ * instead of loading the dataset from the database.
+ */
+@SpringBootTest
+@TestInstance(PER_CLASS) // So @AfterAll can be non-static.
+class DatasetSnapshotNotificationsTest {
+
+    private static final Path SNAPSHOT_DIR = createTempDirectory();
+
+    private final Path sampleFiles = Paths.get("src/test/resources/samples");
+
+    @Autowired
+    private ImdbDataScraper scraper;
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    @Autowired
+    private ReadReplica readReplica;
+
+    @MockitoBean
+    private ImdbFileDownloader fileDownloader;
+
+    @Value("${spring.datasource.url}")
+    private String databaseUrl;
+
+    @TempDir
+    Path inputDir;
+
+    @DynamicPropertySource
+    static void snapshotDir(DynamicPropertyRegistry registry) {
+        registry.add("imdbgraph.snapshot.dir", SNAPSHOT_DIR::toString);
+    }
+
+    @AfterAll
+    void cleanUp() throws IOException {
+        deleteFromTables(jdbc, "imdb.season_stats", "imdb.top_show", "imdb.top_episode");
+        deleteFromTables(jdbc, "imdb.episode");
+        deleteFromTables(jdbc, "imdb.show");
+        FileSystemUtils.deleteRecursively(SNAPSHOT_DIR);
+    }
+
+    @Test
+    void testOtherNodesMapTheNewSnapshot() throws Exception {
+        when(fileDownloader.download(TITLES)).thenReturn(inputDir.resolve("titles.tsv"));
+        when(fileDownloader.download(RATINGS)).thenReturn(inputDir.resolve("ratings.tsv"));
+        when(fileDownloader.download(EPISODES)).thenReturn(inputDir.resolve("episodes.tsv"));
+        copySampleFiles();
+        scraper.updateDatabase();
+
+        // Another node, serving the snapshot written by the first ingest.
+        MeterRegistry queries = new SimpleMeterRegistry();
+        RatingsDb otherNode = new RatingsDb(readReplica, queries, false, true, true, 0.6, SNAPSHOT_DIR.toString());
+        otherNode.loadOnStartup();
+
+        try (Connection con = DriverManager.getConnection(databaseUrl, "", "");
+             Statement statement = con.createStatement()) {
+            statement.execute("LISTEN " + DatasetNotifications.CHANNEL);
+            copySampleFiles();
+            CompletableFuture<Void> ingest = CompletableFuture.runAsync(scraper::updateDatabase);
+
+            PGNotification[] notifications = con.unwrap(PGConnection.class).getNotifications(30_000);
+            assertNotNull(notifications, "No notification was sent");
+            long version = Long.parseLong(notifications[0].getParameter().split(":")[0]);
+            // Checked as soon as the notification arrives, while the ingest
+            // may still be running.
+            assertTrue(Files.exists(SNAPSHOT_DIR.resolve("dataset-" + version + ".snapshot")));
+            ingest.join();
+
+            otherNode.reloadOnUpdate(new DatasetUpdatedEvent(version, Instant.now(), true));
+        }
+
+        assertEquals(jdbc.queryForObject("SELECT MAX(version) FROM imdb.dataset_version", Long.class),
+                DatasetSnapshot.versionOf(DatasetSnapshot.latest(SNAPSHOT_DIR).orElseThrow()));
+        assertEquals("Game of Thrones", otherNode.getShow("tt0944947").orElseThrow().title());
+        assertEquals(List.of("tt0944947"), otherNode.searchShows("thrones").stream().map(Show::imdbId).toList());
+        // Neither node start nor the reload read the dataset from the database.
+        assertEquals(List.of("dataset_version"), queries.find("imdbgraph.db.query").timers().stream()
+                .filter(t -> t.count() > 0)
+                .map(t -> t.getId().getTag("query"))
+                .toList());
+    }
+
+    // The ingest deletes the files it loaded.
+    private void copySampleFiles() throws IOException {
+        for (String name : List.of("titles.tsv", "ratings.tsv", "episodes.tsv")) {
+            Files.copy(sampleFiles.resolve(name), inputDir.resolve(name), REPLACE_EXISTING);
+        }
+    }
+
+    private static Path createTempDirectory() {
+        try {
+            return Files.createTempDirectory("snapshots");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package org.aria.imdbgraph.api.ratings;
+
+import org.aria.imdbgraph.modules.DatasetSnapshot;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DatasetSnapshotTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testRoundTrip() throws IOException {
+        DatasetSnapshot.Writer writer = new DatasetSnapshot.Writer(dir, 7);
+        writer.addShow("tt0417299", "Avatar: The Last Airbender", "2005", "2008", 9.3, 300000);
+        writer.addShow("tt0944947", "Game of Thrones", "2011", null, 9.2, 2000000);
+        writer.addShow("tt9999999", "Ça tourne", "2020", "2020", 0, 0);
+        writer.addEpisode("tt0417299", "The Boy in the Iceberg", 1, 1, 8.1, 5000);
+        writer.addEpisode("tt0417299", null, 1, 2, 8.2, 4000);
+        writer.addEpisode("tt1111111", "Not a show", 1, 1, 5, 1);
+        writer.addEpisode("tt0944947", "Winter Is Coming", 1, 1, 9.1, 36939);
+        Path file = writer.finish();
+
+        assertEquals(dir.resolve("dataset-7.snapshot"), file);
+        assertEquals(List.of(file), files());
+        DatasetSnapshot snapshot = DatasetSnapshot.open(file);
+        assertEquals(7, snapshot.version());
+        assertEquals(3, snapshot.showCount());
+        assertEquals(3, snapshot.episodeCount());
+
+        int got = snapshot.indexOf("tt0944947");
+        assertEquals("Game of Thrones", snapshot.title(got));
+        assertEquals("2011", snapshot.startYear(got));
+        assertNull(snapshot.endYear(got));
+        assertEquals(9.2, snapshot.showRating(got), 0);
+        assertEquals(2000000, snapshot.showVotes(got));
+        assertEquals(1, snapshot.episodeCount(got));
+        assertEquals("Winter Is Coming", snapshot.episodeTitle(snapshot.firstEpisode(got)));
+
+        int avatar = snapshot.indexOf("tt0417299");
+        assertEquals(2, snapshot.episodeCount(avatar));
+        int second = snapshot.firstEpisode(avatar) + 1;
+        assertNull(snapshot.episodeTitle(second));
+        assertEquals(1, snapshot.season(second));
+        assertEquals(2, snapshot.episodeNumber(second));
+        assertEquals(8.2, snapshot.episodeRating(second), 0);
+        assertEquals(4000, snapshot.episodeVotes(second));
+
+        assertEquals("Ça tourne", snapshot.title(snapshot.indexOf("tt9999999")));
+        assertEquals(0, snapshot.episodeCount(snapshot.indexOf("tt9999999")));
+        assertTrue(snapshot.indexOf("tt1111111") < 0);
+        assertTrue(snapshot.indexOf("tt") < 0);
+    }
+
+    @Test
+    void testLongStrings() throws IOException {
+        String title = "Ω".repeat(100_000);
+        DatasetSnapshot.Writer writer = new DatasetSnapshot.Writer(dir, 2);
+        writer.addShow("tt0944947", title, "2011", "2019", 9.2, 2000000);
+        writer.addEpisode("tt0944947", title, 1, 1, 9.1, 36939);
+
+        DatasetSnapshot snapshot = DatasetSnapshot.open(writer.finish());
+        assertEquals(title, snapshot.title(0));
+        assertEquals(title, snapshot.episodeTitle(0));
+        assertEquals("2019", snapshot.endYear(0));
+    }
+
+    @Test
+    void testShowsMustBeSorted() throws IOException {
+        try (DatasetSnapshot.Writer writer = new DatasetSnapshot.Writer(dir, 1)) {
+            writer.addShow("tt0944947", "Game of Thrones", "2011", "2019", 9.2, 2000000);
+            assertThrows(IllegalArgumentException.class,
+                    () -> writer.addShow("tt0417299", "Avatar: The Last Airbender", "2005", "2008", 9.3, 300000));
+        }
+        // Nothing is left behind by a writer that wasn't finished.
+        assertEquals(List.of(), files());
+    }
+
+    @Test
+    void testCorruptFileIsRejected() throws IOException {
+        DatasetSnapshot.Writer writer = new DatasetSnapshot.Writer(dir, 1);
+        writer.addShow("tt0944947", "Game of Thrones", "2011", "2019", 9.2, 2000000);
+        Path file = writer.finish();
+
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(file, bytes);
+        assertThrows(IOException.class, () -> DatasetSnapshot.open(file));
+
+        Files.write(file, List.of("not a snapshot"));
+        assertThrows(IOException.class, () -> DatasetSnapshot.open(file));
+    }
+
+    @Test
+    void testOnlyLatestSnapshotsAreKept() throws IOException {
+        for (long version : List.of(3L, 12L, 9L)) {
+            new DatasetSnapshot.Writer(dir, version).finish();
+        }
+        assertEquals(Optional.of(dir.resolve("dataset-12.snapshot")), DatasetSnapshot.latest(dir));
+
+        DatasetSnapshot.deleteOlder(dir, 2);
+        assertTrue(Files.exists(dir.resolve("dataset-9.snapshot")));
+        assertTrue(Files.notExists(dir.resolve("dataset-3.snapshot")));
+        assertEquals(Optional.empty(), DatasetSnapshot.latest(dir.resolve("missing")));
+    }
+
+    private List<Path> files() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.toList();
+        }
+    }
+}
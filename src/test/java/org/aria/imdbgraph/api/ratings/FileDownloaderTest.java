@@ -1,15 +1,66 @@
 package org.aria.imdbgraph.api.ratings;
 
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
 import org.aria.imdbgraph.modules.ImdbFileDownloader;
 import org.aria.imdbgraph.modules.ImdbFileDownloader.ImdbFile;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.aria.imdbgraph.modules.ImdbFileDownloader.ImdbFile.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class FileDownloaderTest {
 
-    private final ImdbFileDownloader downloader = new ImdbFileDownloader();
+    private static final String CONTENT = "tconst\taverageRating\tnumVotes\n" + "tt0000001\t5.7\t2000\n".repeat(10_000);
+
+    private final ImdbFileDownloader downloader = downloader("", "https://datasets.imdbws.com");
+
+    @TempDir
+    Path keepDir;
+
+    // Stand-in for the IMDB server, serving RATINGS.
+    private HttpServer server;
+    private byte[] served = gzip(CONTENT);
+    private String etag = "\"v1\"";
+    private final AtomicInteger failuresLeft = new AtomicInteger();
+    private final AtomicInteger cutsLeft = new AtomicInteger();
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", this::serve);
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
 
     @Test
     void testDownloadingTitleFile() {
@@ -26,8 +77,163 @@ class FileDownloaderTest {
         testDownload(EPISODES);
     }
 
+    @Test
+    void testUnchangedFileIsNotDownloadedAgain() throws IOException {
+        ImdbFileDownloader local = downloader(keepDir.toString(), url());
+        assertEquals(CONTENT, Files.readString(local.download(RATINGS)));
+        assertEquals(CONTENT, Files.readString(local.download(RATINGS)));
+
+        assertEquals(List.of("GET -", "GET If-None-Match"), requests);
+        assertFalse(local.isModified(RATINGS, local.lastDownloaded(RATINGS)));
+        etag = "\"v2\"";
+        assertTrue(local.isModified(RATINGS, local.lastDownloaded(RATINGS)));
+    }
+
+    @Test
+    void testCorruptKeptCopyIsDownloadedAgain() throws IOException {
+        ImdbFileDownloader local = downloader(keepDir.toString(), url());
+        local.download(RATINGS);
+        Files.write(keepDir.resolve(RATINGS.getName()), Arrays.copyOf(served, served.length / 2));
+
+        assertEquals(CONTENT, Files.readString(local.download(RATINGS)));
+        assertEquals(List.of("GET -", "GET If-None-Match", "GET -"), requests);
+    }
+
+    @Test
+    void testInterruptedDownloadResumes() throws IOException {
+        cutsLeft.set(1);
+        ImdbFileDownloader local = downloader("", url());
+
+        assertEquals(CONTENT, Files.readString(local.download(RATINGS)));
+        assertEquals(2, requests.size());
+        assertTrue(requests.get(1).startsWith("GET Range"), requests.toString());
+    }
+
+    @Test
+    void testServerErrorsAreRetried() throws IOException {
+        failuresLeft.set(2);
+        ImdbFileDownloader local = downloader("", url());
+
+        assertEquals(CONTENT, Files.readString(local.download(RATINGS)));
+        assertEquals(3, requests.size());
+    }
+
+    @Test
+    void testTruncatedGzipFails() {
+        served = Arrays.copyOf(served, served.length - 100);
+        ImdbFileDownloader local = downloader("", url());
+
+        assertThrows(UncheckedIOException.class, () -> local.download(RATINGS));
+    }
+
+    @Test
+    void testStreamingFile() throws IOException {
+        ImdbFileDownloader local = downloader("", url());
+        try (InputStream in = local.stream(RATINGS)) {
+            assertEquals(CONTENT, new String(in.readAllBytes(), UTF_8));
+        }
+    }
+
+    @Test
+    void testStreamingTruncatedGzipFails() {
+        served = Arrays.copyOf(served, served.length - 100);
+        ImdbFileDownloader local = downloader("", url());
+
+        assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            try (InputStream in = local.stream(RATINGS)) {
+                assertThrows(IOException.class, in::readAllBytes);
+            }
+        });
+    }
+
+    @Test
+    void testStreamingCorruptFileFails() {
+        served = CONTENT.getBytes(UTF_8); // Not gzipped.
+        ImdbFileDownloader local = downloader("", url());
+
+        assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            try (InputStream in = local.stream(RATINGS)) {
+                assertThrows(IOException.class, in::readAllBytes);
+            }
+        });
+    }
+
+    @Test
+    void testStreamedFileIsKeptAndReplayed() throws IOException {
+        try (InputStream in = downloader(keepDir.toString(), url()).stream(RATINGS)) {
+            assertEquals(CONTENT, new String(in.readAllBytes(), UTF_8));
+        }
+        assertTrue(Files.exists(keepDir.resolve(RATINGS.getName())));
+
+        ImdbFileDownloader replaying = new ImdbFileDownloader(keepDir.toString(), true, url(),
+                Duration.ofSeconds(10), Duration.ofSeconds(2), 3, Duration.ofMillis(10));
+        try (InputStream in = replaying.stream(RATINGS)) {
+            assertEquals(CONTENT, new String(in.readAllBytes(), UTF_8));
+        }
+        assertEquals(List.of("GET -"), requests);
+    }
+
     private void testDownload(ImdbFile imdbFile) {
         long fileSize = downloader.download(imdbFile).toFile().length();
         Assertions.assertTrue(fileSize > 0);
     }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+            requests.add(exchange.getRequestMethod() + " "
+                         + (range != null ? "Range" : ifNoneMatch != null ? "If-None-Match" : "-"));
+
+            if (failuresLeft.getAndDecrement() > 0) {
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+            exchange.getResponseHeaders().add("ETag", etag);
+            if (etag.equals(ifNoneMatch)) {
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+            if (exchange.getRequestMethod().equals("HEAD")) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            int from = range == null ? 0 : Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+            if (from > 0) {
+                exchange.getResponseHeaders().add("Content-Range",
+                        "bytes " + from + "-" + (served.length - 1) + "/" + served.length);
+            }
+            exchange.sendResponseHeaders(from > 0 ? 206 : 200, served.length - from);
+            OutputStream body = exchange.getResponseBody();
+            if (cutsLeft.getAndDecrement() > 0) {
+                // Hang up half way (closing the exchange early drops the
+                // connection).
+                body.write(served, from, (served.length - from) / 2);
+                body.flush();
+                return;
+            }
+            body.write(served, from, served.length - from);
+        } catch (IOException _) {
+            // Client went away.
+        }
+    }
+
+    private String url() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    private static ImdbFileDownloader downloader(String keepDir, String url) {
+        return new ImdbFileDownloader(keepDir, false, url, Duration.ofSeconds(10), Duration.ofSeconds(2),
+                3, Duration.ofMillis(10));
+    }
+
+    private static byte[] gzip(String content) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(content.getBytes(UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
 }
@@ -1,34 +1,72 @@
 package org.aria.imdbgraph.api.ratings;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.aria.imdbgraph.api.ratings.json.RatingsSummary;
+import org.aria.imdbgraph.api.ratings.json.Show;
+import org.aria.imdbgraph.api.ratings.json.SeasonSummary;
+import org.aria.imdbgraph.modules.DatasetNotifications;
+import org.aria.imdbgraph.modules.DatasetSnapshotExporter;
+import org.aria.imdbgraph.modules.DatasetUpdatedEvent;
 import org.aria.imdbgraph.modules.ImdbDataScraper;
 import org.aria.imdbgraph.modules.ImdbDataScraper.ImdbFileParsingException;
 import org.aria.imdbgraph.modules.ImdbFileDownloader;
+import org.aria.imdbgraph.modules.ImdbFileDownloader.Validators;
+import org.aria.imdbgraph.modules.ReadReplica;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
 import org.junit.jupiter.api.io.TempDir;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.event.ApplicationEvents;
+import org.springframework.test.context.event.RecordApplicationEvents;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.List;
 
 import static java.nio.file.Files.copy;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static org.aria.imdbgraph.modules.ImdbDataScraper.Strategy.INCREMENTAL;
+import static org.aria.imdbgraph.modules.ImdbDataScraper.Strategy.SHADOW;
 import static org.aria.imdbgraph.modules.ImdbFileDownloader.ImdbFile.*;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.TestInstance.Lifecycle.PER_CLASS;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.jdbc.JdbcTestUtils.countRowsInTable;
+import static org.springframework.test.jdbc.JdbcTestUtils.countRowsInTableWhere;
 import static org.springframework.test.jdbc.JdbcTestUtils.deleteFromTables;
 
 @SpringBootTest
+@RecordApplicationEvents
 @TestInstance(PER_CLASS) // So @AfterAll can be non-static.
 class ImdbDataScraperTest {
 
@@ -38,15 +76,40 @@ class ImdbDataScraperTest {
     @Autowired
     private JdbcTemplate jdbc;
 
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private RatingsDb ratingsDb;
+
+    @Autowired
+    private ReadReplica readReplica;
+
     @MockitoBean
     private ImdbFileDownloader fileDownloader;
 
+    @Autowired
+    private ApplicationEvents events;
+
+    @Value("${spring.datasource.url}")
+    private String databaseUrl;
+
     @TempDir
     Path inputDir;
 
+    private final Path sampleFiles = Paths.get("src/test/resources/samples");
+
     @BeforeEach
     void setUp() throws IOException {
-        Path sampleFiles = Paths.get("src/test/resources/samples");
         copyDirectory(sampleFiles, inputDir);
 
         // Set up mocks.
@@ -62,6 +125,176 @@ class ImdbDataScraperTest {
         assertEquals(9, countRowsInTable(jdbc, "imdb.episode"));
     }
 
+    @Test
+    void testStageMetricsAreRecorded() {
+        scraper.updateDatabase();
+        assertTrue(meterRegistry.get("imdbgraph.ingest.rows").tag("stage", "copy").summary().totalAmount() > 0);
+        assertTrue(meterRegistry.get("imdbgraph.ingest.stage").tag("stage", "swap").timer().count() > 0);
+    }
+
+    @Test
+    void testSeasonStatsAreComputed() {
+        scraper.updateDatabase();
+        assertEquals(4, countRowsInTable(jdbc, "imdb.season_stats"));
+
+        RatingsSummary summary = ratingsDb.getRatingsSummary("tt0944947").orElseThrow();
+        assertEquals("Game of Thrones", summary.show().title());
+        SeasonSummary first = summary.seasons().getFirst();
+        assertEquals(3, first.episodeCount());
+        assertEquals(36939 + 27976 + 26458, first.numVotes());
+        assertEquals((9.1 * 36939 + 8.8 * 27976 + 8.7 * 26458) / (36939 + 27976 + 26458), first.averageRating(), 1e-9);
+        assertEquals(8.7, first.minRating(), 0);
+        assertEquals("Winter Is Coming", first.bestEpisode().episodeTitle());
+        assertEquals(3, first.worstEpisode().episodeNumber());
+        assertEquals(-0.2, first.trend(), 1e-9);
+
+        // Episodes without votes aren't rated yet.
+        SeasonSummary unrated = ratingsDb.getRatingsSummary("tt0417299").orElseThrow().seasons().get(1);
+        assertEquals(1, unrated.episodeCount());
+        assertEquals(0, unrated.ratedEpisodeCount());
+        assertNull(unrated.averageRating());
+        assertNull(unrated.bestEpisode());
+    }
+
+    @Test
+    void testLeaderboardsAreBuilt() {
+        scraper.updateDatabase();
+
+        // Ranked by rating, The Simpsons has no votes.
+        assertEquals(List.of("tt0944947", "tt0417299"), jdbc.queryForList("""
+                SELECT imdb_id FROM imdb.top_show
+                WHERE genre = '' AND decade = 0 AND min_votes = 1000
+                ORDER BY rank""", String.class));
+        assertEquals(List.of("tt0417299"), jdbc.queryForList("""
+                SELECT imdb_id FROM imdb.top_show
+                WHERE genre = 'Animation' AND decade = 2000 AND min_votes = 100000
+                ORDER BY rank""", String.class));
+        assertEquals(List.of("Winter Is Coming", "The North Remembers"), jdbc.queryForList("""
+                SELECT episode_title FROM imdb.top_episode
+                WHERE genre = 'Drama' AND decade = 2010 AND min_votes = 10000
+                ORDER BY rank
+                LIMIT 2""", String.class));
+    }
+
+    @Test
+    void testIncrementalLoadOnlyAppliesChanges() throws IOException {
+        scraper.updateDatabase();
+
+        // Make the database drift from the files.
+        jdbc.execute("""
+                UPDATE imdb.episode SET imdb_rating = 1.0;
+                INSERT INTO imdb.episode VALUES ('tt0944947', 'tt9999999', 'Removed', 9, 9, 1.0, 1);
+                """);
+
+        copyDirectory(sampleFiles, inputDir); // Previous run deleted the files.
+        ImdbDataScraper incremental =
+                new ImdbDataScraper(jdbc, fileDownloader, eventPublisher, meterRegistry, transactionManager,
+                        false, INCREMENTAL, Duration.ofMillis(500));
+        transactionTemplate.executeWithoutResult(_ -> incremental.update());
+
+        assertEquals(3, countRowsInTable(jdbc, "imdb.show"));
+        assertEquals(9, countRowsInTable(jdbc, "imdb.episode"));
+        assertEquals(0, countRowsInTableWhere(jdbc, "imdb.episode", "imdb_rating = 1.0"));
+    }
+
+    @Test
+    void testShadowLoadKeepsShowsAndThumbnails() throws IOException {
+        scraper.updateDatabase();
+        jdbc.execute("""
+                INSERT INTO imdb.show VALUES ('tt9999998', 'Gone From IMDB', '2000', NULL, 5.0, 10);
+                INSERT INTO imdb.thumbnails(imdb_id, thumbnail_url) VALUES ('tt9999998', 'https://example.com/t.jpg');
+                """);
+
+        copyDirectory(sampleFiles, inputDir); // Previous run deleted the files.
+        ImdbDataScraper shadow = new ImdbDataScraper(jdbc, fileDownloader, eventPublisher, meterRegistry,
+                transactionManager, false, SHADOW, Duration.ofMillis(500));
+        shadow.updateDatabase();
+
+        assertEquals(4, countRowsInTable(jdbc, "imdb.show"));
+        assertEquals(9, countRowsInTable(jdbc, "imdb.episode"));
+        assertEquals(4, countRowsInTable(jdbc, "imdb.season_stats"));
+        assertTrue(countRowsInTable(jdbc, "imdb.top_show") > 0);
+        assertEquals(0, countRowsInTable(jdbc, "imdb.staging_title"));
+        // The foreign key now points at the new show table.
+        assertThrows(DataIntegrityViolationException.class, () -> jdbc.update(
+                "INSERT INTO imdb.thumbnails(imdb_id, thumbnail_url) VALUES ('tt0000000', 'x')"));
+        deleteFromTables(jdbc, "imdb.thumbnails");
+        jdbc.update("DELETE FROM imdb.show WHERE imdb_id = 'tt9999998'");
+    }
+
+    @Test
+    void testRatingsAreServedFromSnapshotFile(@TempDir Path snapshotDir) throws IOException {
+        scraper.updateDatabase();
+        new DatasetSnapshotExporter(jdbc, transactionManager, meterRegistry, snapshotDir.toString()).export();
+
+        MeterRegistry queries = new SimpleMeterRegistry();
+        RatingsDb fromFile = new RatingsDb(readReplica, queries, false, true, true, 0.6, snapshotDir.toString());
+        fromFile.loadOnStartup();
+
+        assertEquals(ratingsDb.getAllShowRatings("tt0944947"), fromFile.getAllShowRatings("tt0944947"));
+        assertEquals(ratingsDb.getShow("tt0417299"), fromFile.getShow("tt0417299"));
+        assertTrue(fromFile.getShow("tt0000000").isEmpty());
+        assertEquals(List.of("tt0944947"),
+                fromFile.searchShows("thrones").stream().map(Show::imdbId).toList());
+        // Only the dataset version was read from the database.
+        assertEquals(List.of("dataset_version"), queries.find("imdbgraph.db.query").timers().stream()
+                .filter(t -> t.count() > 0)
+                .map(t -> t.getId().getTag("query"))
+                .toList());
+    }
+
+    @Test
+    void testIngestNotifiesOtherNodes() throws SQLException {
+        try (Connection con = DriverManager.getConnection(databaseUrl, "", "");
+             Statement statement = con.createStatement()) {
+            statement.execute("LISTEN " + DatasetNotifications.CHANNEL);
+            scraper.updateDatabase();
+
+            PGNotification[] notifications = con.unwrap(PGConnection.class).getNotifications(10_000);
+            Long version = jdbc.queryForObject("SELECT MAX(version) FROM imdb.dataset_version", Long.class);
+            assertNotNull(notifications, "No notification was sent");
+            assertEquals(1, notifications.length);
+            assertTrue(notifications[0].getParameter().startsWith(version + ":"));
+        }
+    }
+
+    @Test
+    void testUnchangedFilesSkipIngest() {
+        recordValidators();
+        scraper.updateDatabase();
+        long versions = countRowsInTable(jdbc, "imdb.dataset_version");
+        events.clear();
+        clearInvocations(fileDownloader);
+
+        when(fileDownloader.isModified(any(), any())).thenReturn(false);
+        scraper.updateDatabase();
+
+        assertEquals(versions, countRowsInTable(jdbc, "imdb.dataset_version"));
+        assertEquals(0, events.stream(DatasetUpdatedEvent.class).count());
+        verify(fileDownloader, never()).download(any());
+    }
+
+    @Test
+    void testChangedFileTriggersIngest() throws IOException {
+        recordValidators();
+        scraper.updateDatabase();
+        long versions = countRowsInTable(jdbc, "imdb.dataset_version");
+        events.clear();
+        clearInvocations(fileDownloader);
+
+        copyDirectory(sampleFiles, inputDir);
+        when(fileDownloader.isModified(any(), any())).thenReturn(false);
+        when(fileDownloader.isModified(eq(RATINGS), any())).thenReturn(true);
+        scraper.updateDatabase();
+
+        assertEquals(versions + 1, countRowsInTable(jdbc, "imdb.dataset_version"));
+        assertEquals(1, events.stream(DatasetUpdatedEvent.class).count());
+        // Every file is loaded again, not only the one that changed.
+        verify(fileDownloader).download(TITLES);
+        verify(fileDownloader).download(EPISODES);
+        assertEquals(9, countRowsInTable(jdbc, "imdb.episode"));
+    }
+
     @Test
     void testLoadingBadFiles() {
         // Override mock to point to bad file.
@@ -72,17 +305,25 @@ class ImdbDataScraperTest {
 
     @AfterAll
     void wipeDb() {
+        deleteFromTables(jdbc, "imdb.season_stats", "imdb.top_show", "imdb.top_episode");
         deleteFromTables(jdbc, "imdb.episode");
         deleteFromTables(jdbc, "imdb.show");
     }
 
+    // So the ingest records the files it was loaded from.
+    private void recordValidators() {
+        for (ImdbFileDownloader.ImdbFile file : ImdbFileDownloader.ImdbFile.values()) {
+            when(fileDownloader.lastDownloaded(file)).thenReturn(new Validators("\"" + file.getName() + "\"", null));
+        }
+    }
+
     private static void copyDirectory(Path in, Path out) throws IOException {
         File[] sampleFiles = in.toFile().listFiles();
         if (sampleFiles == null) {
             throw new FileNotFoundException(in.toString());
         }
         for (File sample : sampleFiles) {
-            copy(sample.toPath(), out.resolve(sample.getName()));
+            copy(sample.toPath(), out.resolve(sample.getName()), REPLACE_EXISTING);
         }
     }
 }
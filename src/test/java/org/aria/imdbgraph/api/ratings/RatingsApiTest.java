@@ -1,5 +1,11 @@
 package org.aria.imdbgraph.api.ratings;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.aria.imdbgraph.api.ratings.json.Show;
+import org.aria.imdbgraph.modules.ReadReplica;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
@@ -7,15 +13,32 @@ import org.junit.jupiter.api.TestInstance;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.skyscreamer.jsonassert.JSONAssert;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.test.web.servlet.MockMvc;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.TestInstance.Lifecycle.PER_CLASS;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
-@SpringBootTest
+@SpringBootTest(properties = {"imdbgraph.ratings.page.max-size=4", "imdbgraph.ratings.batch.max-size=3"})
 @AutoConfigureMockMvc
 @TestInstance(PER_CLASS) // So @BeforeAll can be non-static.
 class RatingsApiTest {
@@ -26,6 +49,12 @@ class RatingsApiTest {
     @Autowired
     private JdbcTemplate db;
 
+    @Autowired
+    private RatingsDb ratingsDb;
+
+    @Autowired
+    private ReadReplica readReplica;
+
     @BeforeAll
     void setUpData() {
         String data = """
@@ -42,12 +71,20 @@ class RatingsApiTest {
                 INSERT INTO imdb.episode VALUES ('tt0944947', 'tt1829962', 'Lord Snow', 1, 3, 8.7, 26458);
                 INSERT INTO imdb.episode VALUES ('tt0944947', 'tt1971833', 'The North Remembers', 2, 1, 8.9, 23735);
                 INSERT INTO imdb.episode VALUES ('tt0944947', 'tt2069318', 'The Night Lands', 2, 2, 8.6, 22413);
+
+                INSERT INTO imdb.season_stats VALUES ('tt0417299', 1, 3, 2, 3658, 8.29, 8.2, 8.4, 0.2,
+                                                      2, 'The Avatar Returns', 1705, 1, 'The Boy in the Iceberg', 1953);
+                INSERT INTO imdb.season_stats VALUES ('tt0417299', 2, 1, 0, 0, null, null, null, null,
+                                                      null, null, null, null, null, null);
                 """;
         db.execute(data);
+        // The in-memory indexes were built at startup, before there was data.
+        ratingsDb.loadOnStartup();
     }
 
     @AfterAll
     void wipeDb() {
+        db.execute("DELETE FROM imdb.season_stats");
         db.execute("DELETE FROM imdb.show");
     }
 
@@ -70,6 +107,33 @@ class RatingsApiTest {
                 .andExpect(content().json(expected));
     }
 
+    @Test
+    void testSuggestions() throws Exception {
+        mockMvc.perform(get("/search/suggest").param("prefix", "Th"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[*].imdbId").value(List.of("tt0417299", "tt0096697")))
+                .andExpect(jsonPath("$[0].title").value("Avatar: The Last Airbender"));
+        mockMvc.perform(get("/search/suggest").param("prefix", "the").param("limit", "1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[*].imdbId").value(List.of("tt0417299")));
+        mockMvc.perform(get("/search/suggest").param("prefix", "Game Of T"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[*].imdbId").value(List.of("tt0944947")));
+        mockMvc.perform(get("/search/suggest").param("prefix", "hrones"))
+                .andExpect(status().isOk())
+                .andExpect(content().json("[]"));
+    }
+
+    @Test
+    void testSuggestionsWithoutPrefixIndex() {
+        RatingsDb fromDb = new RatingsDb(readReplica, new SimpleMeterRegistry(), false, false, false, 0.6, "");
+        fromDb.loadOnStartup();
+        for (String prefix : List.of("Th", "the", "AVATAR: the L", "game of t", "hrones", "", ":")) {
+            List<String> expected = ratingsDb.suggestShows(prefix, 5).stream().map(Show::imdbId).toList();
+            assertEquals(expected, fromDb.suggestShows(prefix, 5).stream().map(Show::imdbId).toList(), prefix);
+        }
+    }
+
     @Test
     void testGettingAvatarRatings() throws Exception {
         String expected = """
@@ -123,9 +187,288 @@ class RatingsApiTest {
                 .andExpect(content().json(expected));
     }
 
+    @Test
+    void testGettingColumnarRatings() throws Exception {
+        String expected = """
+                {
+                   "show":{"imdbId":"tt0417299","title":"Avatar: The Last Airbender"},
+                   "seasons":[
+                      {"season":1,"episodeNumbers":[0,1,2],"imdbRatings":[0.0,8.2,8.4],"numVotes":[0,1953,1705]},
+                      {"season":2,"episodeNumbers":[1],"imdbRatings":[0.0],"numVotes":[0]}
+                   ],
+                   "titles":["Avatar: The Last Airbender","The Boy in the Iceberg","The Avatar Returns","The Avatar State"]
+                }
+                """;
+        mockMvc.perform(get("/ratings/tt0417299").header(HttpHeaders.ACCEPT, "application/vnd.imdbgraph.columnar+json"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE, "application/vnd.imdbgraph.columnar+json"))
+                .andExpect(content().json(expected, true));
+    }
+
+    @Test
+    void testCborMatchesColumnarJson() throws Exception {
+        byte[] cbor = mockMvc.perform(get("/ratings/tt0944947").header(HttpHeaders.ACCEPT, "application/cbor"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE, "application/cbor"))
+                .andReturn()
+                .getResponse()
+                .getContentAsByteArray();
+        String json = mockMvc.perform(get("/ratings/tt0944947")
+                        .header(HttpHeaders.ACCEPT, "application/vnd.imdbgraph.columnar+json"))
+                .andReturn()
+                .getResponse()
+                .getContentAsString();
+
+        // Round trip through JSON text, since CBOR keeps the ratings as floats.
+        ObjectMapper mapper = new ObjectMapper();
+        JsonNode fromCbor = mapper.readTree(mapper.writeValueAsString(new CBORMapper().readTree(cbor)));
+        assertEquals(mapper.readTree(json), fromCbor);
+    }
+
+    @Test
+    void testJsonIsTheDefault() throws Exception {
+        mockMvc.perform(get("/ratings/tt0417299").header(HttpHeaders.ACCEPT, "text/html, */*;q=0.8"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE, "application/json"));
+        mockMvc.perform(get("/ratings/tt0417299").header(HttpHeaders.ACCEPT, "application/cbor;q=0.5, application/json"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE, "application/json"));
+    }
+
+    @Test
+    void testConditionalGetReturnsNotModified() throws Exception {
+        String eTag = mockMvc.perform(get("/ratings/tt0417299"))
+                .andExpect(status().isOk())
+                .andExpect(header().exists(HttpHeaders.ETAG))
+                .andReturn()
+                .getResponse()
+                .getHeader(HttpHeaders.ETAG);
+        mockMvc.perform(get("/ratings/tt0417299").header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isNotModified());
+    }
+
+    @Test
+    void testGettingSeasonRange() throws Exception {
+        String expected = """
+                {
+                   "show":{"imdbId":"tt0944947","title":"Game of Thrones"},
+                   "allEpisodeRatings":{
+                      "2":{
+                         "1":{"episodeTitle":"The North Remembers","season":2,"episodeNumber":1,"imdbRating":8.9,"numVotes":23735},
+                         "2":{"episodeTitle":"The Night Lands","season":2,"episodeNumber":2,"imdbRating":8.6,"numVotes":22413}
+                      }
+                   }
+                }
+                """;
+        MockHttpServletResponse response = page("/ratings/tt0944947?fromSeason=2&toSeason=2");
+        assertEquals("application/json", response.getContentType());
+        assertNull(response.getHeader(HttpHeaders.LINK));
+        JSONAssert.assertEquals(expected, response.getContentAsString(), false);
+    }
+
+    @Test
+    void testPagingThroughRatings() throws Exception {
+        MockHttpServletResponse first = page("/ratings/tt0944947?limit=2");
+        assertEquals(Set.of("1"), episodes(first).keySet());
+        assertEquals(List.of("1", "2"), fieldNames(episodes(first).get("1")));
+
+        MockHttpServletResponse second = page(nextPage(first));
+        assertEquals(List.of("3"), fieldNames(episodes(second).get("1")));
+        assertEquals(List.of("1"), fieldNames(episodes(second).get("2")));
+
+        MockHttpServletResponse last = page(nextPage(second));
+        assertEquals(List.of("2"), fieldNames(episodes(last).get("2")));
+        assertNull(last.getHeader(HttpHeaders.LINK));
+    }
+
+    @Test
+    void testPagedRatingsMatchCachedRatings() throws Exception {
+        String cached = mockMvc.perform(get("/ratings/tt0417299"))
+                .andExpect(status().isOk())
+                .andReturn()
+                .getResponse()
+                .getContentAsString();
+        String paged = page("/ratings/tt0417299?limit=4").getContentAsString();
+        JSONAssert.assertEquals(cached, paged, true);
+    }
+
+    @Test
+    void testPageSizeIsCapped() throws Exception {
+        MockHttpServletResponse first = page("/ratings/tt0944947?limit=1000");
+        assertEquals(List.of("1", "2", "3"), fieldNames(episodes(first).get("1")));
+        assertEquals(List.of("1"), fieldNames(episodes(first).get("2")));
+        assertTrue(nextPage(first).contains("limit=4"));
+
+        MockHttpServletResponse unlimited = page("/ratings/tt0944947?fromSeason=1");
+        assertEquals(first.getContentAsString(), unlimited.getContentAsString());
+    }
+
+    @Test
+    void testInvalidRatingsRange() throws Exception {
+        mockMvc.perform(get("/ratings/tt0944947?fromSeason=2&toSeason=1"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/ratings/tt0944947?limit=0"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/ratings/123?limit=10"))
+                .andExpect(status().isNotFound());
+        mockMvc.perform(get("/ratings/tt0944947?limit=10").header(HttpHeaders.ACCEPT, "application/cbor"))
+                .andExpect(status().isNotAcceptable());
+    }
+
+    @Test
+    void testGettingRatingsSummary() throws Exception {
+        String expected = """
+                {
+                   "show":{"imdbId":"tt0417299","title":"Avatar: The Last Airbender","numVotes":193629},
+                   "seasons":[
+                      {
+                         "season":1,
+                         "episodeCount":3,
+                         "ratedEpisodeCount":2,
+                         "numVotes":3658,
+                         "averageRating":8.29,
+                         "minRating":8.2,
+                         "maxRating":8.4,
+                         "trend":0.2,
+                         "bestEpisode":{
+                            "episodeTitle":"The Avatar Returns",
+                            "season":1,
+                            "episodeNumber":2,
+                            "imdbRating":8.4,
+                            "numVotes":1705
+                         },
+                         "worstEpisode":{
+                            "episodeTitle":"The Boy in the Iceberg",
+                            "season":1,
+                            "episodeNumber":1,
+                            "imdbRating":8.2,
+                            "numVotes":1953
+                         }
+                      },
+                      {
+                         "season":2,
+                         "episodeCount":1,
+                         "ratedEpisodeCount":0,
+                         "numVotes":0,
+                         "averageRating":null,
+                         "trend":null,
+                         "bestEpisode":null,
+                         "worstEpisode":null
+                      }
+                   ]
+                }
+                """;
+        mockMvc.perform(get("/ratings/tt0417299/summary"))
+                .andExpect(status().isOk())
+                .andExpect(content().json(expected));
+        // A show without stats (none of its seasons were aggregated yet).
+        mockMvc.perform(get("/ratings/tt0096697/summary"))
+                .andExpect(status().isOk())
+                .andExpect(content().json("{\"show\":{\"imdbId\":\"tt0096697\"},\"seasons\":[]}"));
+    }
+
+    @Test
+    void testGettingSummaryOfUnknownShow() throws Exception {
+        mockMvc.perform(get("/ratings/tt9999999/summary"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void testGettingRatingsBatch() throws Exception {
+        String expected = """
+                {
+                   "ratings":{
+                      "tt0944947":{
+                         "show":{"imdbId":"tt0944947","title":"Game of Thrones"},
+                         "allEpisodeRatings":{
+                            "2":{
+                               "2":{"episodeTitle":"The Night Lands","imdbRating":8.6,"numVotes":22413}
+                            }
+                         }
+                      },
+                      "tt0096697":{
+                         "show":{"imdbId":"tt0096697","title":"The Simpsons"},
+                         "allEpisodeRatings":{}
+                      }
+                   },
+                   "notFound":["123"]
+                }
+                """;
+        mockMvc.perform(get("/ratings?ids=tt0944947,123,tt0096697"))
+                .andExpect(status().isOk())
+                .andExpect(content().json(expected));
+    }
+
+    @Test
+    void testPostingRatingsBatch() throws Exception {
+        String expected = """
+                {
+                   "ratings":{
+                      "tt0417299":{"show":{"imdbId":"tt0417299","title":"Avatar: The Last Airbender"}},
+                      "tt0944947":{"show":{"imdbId":"tt0944947","title":"Game of Thrones"}}
+                   },
+                   "notFound":["tt9999999"]
+                }
+                """;
+        // Duplicates only count once towards the limit.
+        mockMvc.perform(post("/ratings/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[\"tt0417299\", \"tt9999999\", \"tt0944947\", \"tt0417299\"]"))
+                .andExpect(status().isOk())
+                .andExpect(content().json(expected));
+        // Same response as the GET.
+        String posted = mockMvc.perform(post("/ratings/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[\"tt0944947\", \"123\", \"tt0096697\"]"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        String fetched = mockMvc.perform(get("/ratings?ids=tt0944947,123,tt0096697"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        JSONAssert.assertEquals(fetched, posted, true);
+    }
+
+    @Test
+    void testOversizedBatchIsRejected() throws Exception {
+        mockMvc.perform(post("/ratings/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[\"tt0417299\", \"tt0944947\", \"tt0096697\", \"tt9999999\"]"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/ratings?ids=tt0417299,tt0944947,tt0096697,tt9999999"))
+                .andExpect(status().isBadRequest());
+    }
+
     @Test
     void testGettingRatingsWithInvalidId() throws Exception {
         mockMvc.perform(get("/ratings/123"))
                 .andExpect(status().is4xxClientError());
     }
+
+    private MockHttpServletResponse page(String uri) throws Exception {
+        return mockMvc.perform(get(uri))
+                .andExpect(status().isOk())
+                .andReturn()
+                .getResponse();
+    }
+
+    private static String nextPage(MockHttpServletResponse response) {
+        String link = response.getHeader(HttpHeaders.LINK);
+        assertNotNull(link);
+        return link.substring(link.indexOf('<') + 1, link.indexOf('>'));
+    }
+
+    private static Map<String, JsonNode> episodes(MockHttpServletResponse response) throws Exception {
+        Map<String, JsonNode> seasons = new LinkedHashMap<>();
+        new ObjectMapper().readTree(response.getContentAsString())
+                .get("allEpisodeRatings")
+                .fields()
+                .forEachRemaining(season -> seasons.put(season.getKey(), season.getValue()));
+        return seasons;
+    }
+
+    private static List<String> fieldNames(JsonNode node) {
+        List<String> names = new ArrayList<>();
+        node.fieldNames().forEachRemaining(names::add);
+        return names;
+    }
 }
@@ -0,0 +1,148 @@
+package org.aria.imdbgraph.api.ratings;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.aria.imdbgraph.api.ratings.json.Episode;
+import org.aria.imdbgraph.api.ratings.json.Ratings;
+import org.aria.imdbgraph.api.ratings.json.Show;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.TestInstance.Lifecycle.PER_CLASS;
+
+/**
+ * Checks that the JSON built by the database is what Jackson writes for the
+ * same show, and that {@link Ratings} is written the way it was before it had
+ * its own serializer.
+ */
+@SpringBootTest
+@TestInstance(PER_CLASS) // So @BeforeAll can be non-static.
+class RatingsJsonTest {
+
+    @Autowired
+    private RatingsDb ratingsDb;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private JdbcTemplate db;
+
+    @BeforeAll
+    void setUpData() {
+        String data = """
+                INSERT INTO imdb.show VALUES ('tt0106179', 'The X-Files', '1993', '2018', 8.6, 231000);
+                INSERT INTO imdb.show VALUES ('tt0098936', 'Twin Peaks', '1990', null, 0, 0);
+                INSERT INTO imdb.show VALUES ('tt0121955', 'South Park "Uncensored" \\ Ünïcödé 東京', null, null, 10, 7);
+                INSERT INTO imdb.show VALUES ('tt0108778', 'Friends', '1994', '2004', 8.9, 1000000);
+
+                INSERT INTO imdb.episode VALUES ('tt0106179', 'tt0751238', 'Deep Throat (Recap)', 1, 2, 7.1, 20);
+                INSERT INTO imdb.episode VALUES ('tt0106179', 'tt0751237', 'Deep Throat', 1, 2, 8.4, 1705);
+                INSERT INTO imdb.episode VALUES ('tt0106179', 'tt5827943', 'The X-Files', 1, 0, 0, 0);
+                INSERT INTO imdb.episode VALUES ('tt0106179', 'tt0751094', 'Pilot', 1, 1, 8.2, 1953);
+                INSERT INTO imdb.episode VALUES ('tt0106179', 'tt0751200', null, 2, 1, 10, 3);
+                INSERT INTO imdb.episode VALUES ('tt0106179', 'tt0751201', E'Tab\\tand\\nnew line', 10, 11, 7.35, 12);
+                INSERT INTO imdb.episode VALUES ('tt0121955', 'tt0705927', 'Cartman''s "Mom" / Dad', 1, 13, 9.9, 4000);
+                INSERT INTO imdb.episode VALUES ('tt0108778', 'tt0583459', E'The One\\x1fWith the\\x0bTabs', 1, 1, 8.3, 9000);
+                """;
+        db.execute(data);
+    }
+
+    @AfterAll
+    void wipeDb() {
+        db.execute("DELETE FROM imdb.episode");
+        db.execute("DELETE FROM imdb.show");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"tt0106179", "tt0098936", "tt0121955"})
+    void testJsonFromDbMatchesJackson(String showId) throws Exception {
+        Ratings ratings = ratingsDb.getAllShowRatings(showId).orElseThrow();
+        String expected = objectMapper.writeValueAsString(ratings);
+
+        byte[] actual = ratingsDb.getAllShowRatingsJson(showId).orElseThrow();
+        assertEquals(expected, new String(actual, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Postgres escapes control characters with lower case hex digits, so the
+     * bytes differ from Jackson's but the document is the same.
+     */
+    @Test
+    void testJsonFromDbWithControlCharacters() throws Exception {
+        Ratings ratings = ratingsDb.getAllShowRatings("tt0108778").orElseThrow();
+        assertEquals("The One\u001FWith the\u000BTabs", ratings.episodeTitle(0));
+
+        byte[] actual = ratingsDb.getAllShowRatingsJson("tt0108778").orElseThrow();
+        assertEquals(objectMapper.readTree(objectMapper.writeValueAsString(ratings)), objectMapper.readTree(actual));
+    }
+
+    @Test
+    void testDuplicateEpisodesKeepGreatestId() throws Exception {
+        Ratings ratings = ratingsDb.getAllShowRatings("tt0106179").orElseThrow();
+        assertEquals("Deep Throat (Recap)", ratings.episodeTitle(2));
+
+        byte[] json = ratingsDb.getAllShowRatingsJson("tt0106179").orElseThrow();
+        assertEquals("Deep Throat (Recap)",
+                objectMapper.readTree(json).at("/allEpisodeRatings/1/2/episodeTitle").asText());
+    }
+
+    /**
+     * Ratings used to be nested maps of Episode records, serialized by
+     * Jackson; the custom serializer must write exactly the same thing.
+     */
+    @Test
+    void testSerializerMatchesNestedMaps() throws Exception {
+        Show show = new Show("tt0106179", "The X-Files", "1993", "2018", 8.6, 231000);
+        List<Episode> episodes = List.of(
+                new Episode("The X-Files", 1, 0, 0, 0),
+                new Episode("Pilot", 1, 1, 8.2, 1953),
+                new Episode("Pilot (Director's Cut)", 1, 1, 8.3, 10),
+                new Episode(null, 2, 1, 10, 3),
+                new Episode("Tab\tand\nnew line", 10, 11, 7.35, 12)
+        );
+        Map<Integer, Map<Integer, Episode>> seasons = new LinkedHashMap<>();
+        for (Episode e : episodes) {
+            seasons.computeIfAbsent(e.season(), _ -> new LinkedHashMap<>()).put(e.episodeNumber(), e);
+        }
+        Map<String, Object> nested = new LinkedHashMap<>();
+        nested.put("show", show);
+        nested.put("allEpisodeRatings", seasons);
+
+        assertEquals(objectMapper.writeValueAsString(nested),
+                objectMapper.writeValueAsString(new Ratings(show, episodes)));
+        Map<String, Object> empty = new LinkedHashMap<>();
+        empty.put("show", show);
+        empty.put("allEpisodeRatings", Map.of());
+        assertEquals(objectMapper.writeValueAsString(empty),
+                objectMapper.writeValueAsString(new Ratings(show, List.of())));
+    }
+
+    @Test
+    void testEpisodesMustBeOrdered() {
+        Ratings.Builder ratings = new Ratings.Builder(new Show("tt0098936", "Twin Peaks", "1990", null, 0, 0), 2)
+                .add("Pilot", 2, 1, 8.9, 100);
+        assertThrows(IllegalArgumentException.class, () -> ratings.add("Traces to Nowhere", 1, 2, 8.4, 100));
+    }
+
+    @Test
+    void testMissingShow() {
+        Optional<byte[]> json = ratingsDb.getAllShowRatingsJson("tt9999999");
+        assertTrue(json.isEmpty());
+    }
+}
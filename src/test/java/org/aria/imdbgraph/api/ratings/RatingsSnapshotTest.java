@@ -0,0 +1,121 @@
+package org.aria.imdbgraph.api.ratings;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.aria.imdbgraph.modules.DatasetUpdatedEvent;
+import org.aria.imdbgraph.modules.ReadReplica;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.TestInstance.Lifecycle.PER_CLASS;
+
+/**
+ * RatingsDb with {@code imdbgraph.ratings.in-memory} on must return what the
+ * database queries return, and only change once the dataset is reloaded.
+ */
+@SpringBootTest
+@TestInstance(PER_CLASS) // So @BeforeAll can be non-static.
+class RatingsSnapshotTest {
+
+    private static final List<String> SHOW_IDS = List.of("tt0106179", "tt0098936", "tt0121955", "tt10048342");
+
+    @Autowired
+    private RatingsDb ratingsDb; // Reads the database.
+
+    @Autowired
+    private ReadReplica readReplica;
+
+    @Autowired
+    private JdbcTemplate db;
+
+    private MeterRegistry queries;
+    private RatingsDb inMemory;
+
+    @BeforeAll
+    void setUpData() {
+        String data = """
+                INSERT INTO imdb.show VALUES ('tt0106179', 'The X-Files', '1993', '2018', 8.6, 231000);
+                INSERT INTO imdb.show VALUES ('tt0098936', 'Twin Peaks', '1990', null, 0, 0);
+                INSERT INTO imdb.show VALUES ('tt0121955', 'South Park "Uncensored" \\ Ünïcödé 東京', null, null, 10, 7);
+                INSERT INTO imdb.show VALUES ('tt10048342', 'The Queen''s Gambit', '2020', '2020', 8.5, 600000);
+
+                INSERT INTO imdb.episode VALUES ('tt0106179', 'tt0751238', 'Deep Throat (Recap)', 1, 2, 7.1, 20);
+                INSERT INTO imdb.episode VALUES ('tt0106179', 'tt0751237', 'Deep Throat', 1, 2, 8.4, 1705);
+                INSERT INTO imdb.episode VALUES ('tt0106179', 'tt0751094', 'Pilot', 1, 1, 8.2, 1953);
+                INSERT INTO imdb.episode VALUES ('tt0106179', 'tt0751200', null, 2, 1, 10, 3);
+                INSERT INTO imdb.episode VALUES ('tt0121955', 'tt0705927', 'Cartman''s "Mom" / Dad', 1, 13, 9.9, 4000);
+                INSERT INTO imdb.episode VALUES ('tt10048342', 'tt10310116', 'Openings', 1, 1, 8.3, 30000);
+                """;
+        db.execute(data);
+    }
+
+    @AfterAll
+    void wipeDb() {
+        db.execute("DELETE FROM imdb.episode");
+        db.execute("DELETE FROM imdb.show");
+    }
+
+    @BeforeEach
+    void loadSnapshot() {
+        queries = new SimpleMeterRegistry();
+        inMemory = new RatingsDb(readReplica, queries, true, false, false, 0.6, "");
+        inMemory.loadOnStartup();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"tt0106179", "tt0098936", "tt0121955", "tt10048342", "tt9999999", "tt"})
+    void testSnapshotMatchesDatabase(String showId) {
+        assertEquals(ratingsDb.getAllShowRatings(showId), inMemory.getAllShowRatings(showId));
+        assertEquals(ratingsDb.getShow(showId), inMemory.getShow(showId));
+        assertEquals(List.of(), usedQueries());
+    }
+
+    @Test
+    void testBatchMatchesDatabase() {
+        List<String> showIds = List.of("tt10048342", "tt9999999", "tt0106179", "tt0098936");
+        assertEquals(ratingsDb.getAllShowRatings(showIds), inMemory.getAllShowRatings(showIds));
+        assertEquals(ratingsDb.getAllShowRatings(SHOW_IDS), inMemory.getAllShowRatings(SHOW_IDS));
+        assertEquals(List.of(), usedQueries());
+    }
+
+    @Test
+    void testSnapshotIsSwappedOnUpdate() {
+        db.update("UPDATE imdb.episode SET imdb_rating = 9.9 WHERE episode_id = 'tt0751094'");
+        db.update("INSERT INTO imdb.show VALUES ('tt0098904', 'Seinfeld', '1989', '1998', 8.9, 350000)");
+        try {
+            // Still the dataset that was loaded.
+            assertEquals(8.2, inMemory.getAllShowRatings("tt0106179").orElseThrow().imdbRating(0), 0);
+            assertTrue(inMemory.getShow("tt0098904").isEmpty());
+
+            inMemory.reloadOnUpdate(new DatasetUpdatedEvent(1, Instant.now()));
+            assertEquals(ratingsDb.getAllShowRatings("tt0106179"), inMemory.getAllShowRatings("tt0106179"));
+            assertEquals(ratingsDb.getShow("tt0098904"), inMemory.getShow("tt0098904"));
+            assertTrue(inMemory.getShow("tt0098904").isPresent());
+        } finally {
+            db.update("UPDATE imdb.episode SET imdb_rating = 8.2 WHERE episode_id = 'tt0751094'");
+            db.update("DELETE FROM imdb.show WHERE imdb_id = 'tt0098904'");
+        }
+    }
+
+    // Queries run by the in-memory RatingsDb since the snapshot was loaded.
+    private List<String> usedQueries() {
+        return queries.find("imdbgraph.db.query").timers().stream()
+                .filter(t -> t.count() > 0)
+                .map(t -> t.getId().getTag("query"))
+                .filter(query -> !query.equals("snapshot"))
+                .toList();
+    }
+}
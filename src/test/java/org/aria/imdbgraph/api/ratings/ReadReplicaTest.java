@@ -0,0 +1,212 @@
+package org.aria.imdbgraph.api.ratings;
+
+import org.aria.imdbgraph.modules.DatasetUpdatedEvent;
+import org.aria.imdbgraph.modules.ReadReplica;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.containers.Network;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.containers.wait.strategy.Wait;
+import org.testcontainers.images.builder.Transferable;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs against a primary and a streaming replica of it (two containers)
+ * instead of the single database the other tests use.
+ */
+@SpringBootTest
+@Testcontainers
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class ReadReplicaTest {
+
+    private static final Network network = Network.newNetwork();
+
+    @Container
+    private static final PostgreSQLContainer<?> primary = new PostgreSQLContainer<>("postgres:16-alpine")
+            .withNetwork(network)
+            .withNetworkAliases("primary")
+            // Sourced by the image's entrypoint after initdb.
+            .withCopyToContainer(Transferable.of("echo 'host replication all all trust' >> \"$PGDATA/pg_hba.conf\""),
+                    "/docker-entrypoint-initdb.d/replication.sh");
+
+    @Container
+    private static final GenericContainer<?> replica = new GenericContainer<>("postgres:16-alpine")
+            .dependsOn(primary)
+            .withNetwork(network)
+            .withExposedPorts(5432)
+            .withCreateContainerCmdModifier(cmd -> cmd.withUser("postgres"))
+            .withCommand("bash", "-c", """
+                    until pg_basebackup -h primary -U test -D "$PGDATA" -R -X stream; do sleep 1; done
+                    chmod 700 "$PGDATA"
+                    exec postgres
+                    """)
+            .waitingFor(Wait.forLogMessage(".*ready to accept read-only connections.*", 1));
+
+    @DynamicPropertySource
+    static void databases(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", primary::getJdbcUrl);
+        registry.add("spring.datasource.username", primary::getUsername);
+        registry.add("spring.datasource.password", primary::getPassword);
+        registry.add("imdbgraph.datasource.replica.url", ReadReplicaTest::replicaUrl);
+        registry.add("imdbgraph.datasource.replica.max-lag", () -> "1s");
+        registry.add("imdbgraph.datasource.replica.check-interval", () -> "PT0.1S");
+    }
+
+    @Autowired
+    private ReadReplica readReplica;
+
+    @Autowired
+    private RatingsDb ratingsDb;
+
+    @Autowired
+    private JdbcTemplate db;
+
+    @Autowired
+    private ApplicationEventPublisher events;
+
+    @AfterEach
+    void wipeDb() {
+        db.execute("DELETE FROM imdb.show");
+    }
+
+    @Test
+    @Order(1)
+    void testReadsGoToReplica() {
+        db.execute("INSERT INTO imdb.show VALUES ('tt0944947', 'Game of Thrones', '2011', '2019', 9.2, 2000000)");
+
+        await(readReplica::isReplicaActive);
+        assertTrue(readsFromReplica());
+        await(() -> ratingsDb.getShow("tt0944947").isPresent());
+    }
+
+    @Test
+    @Order(2)
+    void testLaggingReplicaIsNotUsed() throws SQLException {
+        await(readReplica::isReplicaActive);
+        onReplica("SELECT pg_wal_replay_pause()");
+        try {
+            db.execute("INSERT INTO imdb.show VALUES ('tt0903747', 'Breaking Bad', '2008', '2013', 9.5, 2100000)");
+            await(() -> !readReplica.isReplicaActive());
+            assertFalse(readsFromReplica());
+            assertTrue(ratingsDb.getShow("tt0903747").isPresent());
+        } finally {
+            onReplica("SELECT pg_wal_replay_resume()");
+        }
+        await(readReplica::isReplicaActive);
+        assertTrue(readsFromReplica());
+    }
+
+    @Test
+    @Order(3)
+    void testNewDatasetIsReadFromPrimaryUntilReplayed() throws SQLException {
+        await(readReplica::isReplicaActive);
+        onReplica("SELECT pg_wal_replay_pause()");
+        try {
+            db.execute("INSERT INTO imdb.show VALUES ('tt0903747', 'Breaking Bad', '2008', '2013', 9.5, 2100000)");
+            events.publishEvent(new DatasetUpdatedEvent(1, Instant.now()));
+
+            // Straight away, before the replica falls behind by max-lag.
+            assertFalse(readReplica.isReplicaActive());
+            assertTrue(ratingsDb.getShow("tt0903747").isPresent());
+        } finally {
+            onReplica("SELECT pg_wal_replay_resume()");
+        }
+        await(readReplica::isReplicaActive);
+        assertTrue(readsFromReplica());
+        assertTrue(ratingsDb.getShow("tt0903747").isPresent());
+    }
+
+    @Test
+    @Order(4)
+    void testDetachedReplicaIsNotUsed() throws SQLException {
+        await(readReplica::isReplicaActive);
+        String primaryConninfo;
+        try (Connection con = DriverManager.getConnection(replicaUrl(), primary.getUsername(), primary.getPassword());
+             Statement statement = con.createStatement();
+             ResultSet rs = statement.executeQuery("SHOW primary_conninfo")) {
+            rs.next();
+            primaryConninfo = rs.getString(1);
+        }
+        // Stops the WAL receiver. The replica has then replayed everything it
+        // received, but not what's written on the primary from now on.
+        onReplica("ALTER SYSTEM SET primary_conninfo = ''");
+        onReplica("SELECT pg_reload_conf()");
+        try {
+            await(() -> !readReplica.isReplicaActive());
+            db.execute("INSERT INTO imdb.show VALUES ('tt0903747', 'Breaking Bad', '2008', '2013', 9.5, 2100000)");
+            assertFalse(readsFromReplica());
+            assertTrue(ratingsDb.getShow("tt0903747").isPresent());
+        } finally {
+            onReplica("ALTER SYSTEM SET primary_conninfo = '" + primaryConninfo.replace("'", "''") + "'");
+            onReplica("SELECT pg_reload_conf()");
+        }
+        await(readReplica::isReplicaActive);
+        assertTrue(readsFromReplica());
+    }
+
+    @Test
+    @Order(5) // Last, the replica doesn't come back.
+    void testReplicaDownFallsBackToPrimary() {
+        db.execute("INSERT INTO imdb.show VALUES ('tt0944947', 'Game of Thrones', '2011', '2019', 9.2, 2000000)");
+        await(readReplica::isReplicaActive);
+
+        replica.stop();
+        await(() -> !readReplica.isReplicaActive());
+        assertFalse(readsFromReplica());
+        assertEquals("Game of Thrones", ratingsDb.getShow("tt0944947").orElseThrow().title());
+    }
+
+    private boolean readsFromReplica() {
+        return Boolean.TRUE.equals(readReplica.jdbcTemplate().queryForObject("SELECT pg_is_in_recovery()", Boolean.class));
+    }
+
+    private static void onReplica(String sql) throws SQLException {
+        try (Connection con = DriverManager.getConnection(replicaUrl(), primary.getUsername(), primary.getPassword());
+             Statement statement = con.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+    private static String replicaUrl() {
+        return "jdbc:postgresql://%s:%d/%s".formatted(replica.getHost(), replica.getMappedPort(5432),
+                primary.getDatabaseName());
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + 30_000_000_000L;
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("Timed out waiting");
+            }
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AssertionError(e);
+            }
+        }
+    }
+}
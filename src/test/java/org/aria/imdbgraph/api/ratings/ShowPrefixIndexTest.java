@@ -0,0 +1,64 @@
+package org.aria.imdbgraph.api.ratings;
+
+import org.aria.imdbgraph.api.ratings.json.Show;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShowPrefixIndexTest {
+
+    private static final Show BREAKING_BAD = show("tt0903747", "Breaking Bad", 2249931);
+    private static final Show BREAKING_IN = show("tt1630574", "Breaking In", 7648);
+    private static final Show STAR_TREK = show("tt0060028", "Star Trek", 100000);
+    private static final Show VOYAGER = show("tt0112178", "Star Trek: Voyager", 90000);
+    private static final Show BAD_GIRLS = show("tt0415330", "Bad Girls Club", 5000);
+
+    private final ShowPrefixIndex index = ShowPrefixIndex.build(List.of(
+            BREAKING_IN,
+            STAR_TREK,
+            BREAKING_BAD,
+            VOYAGER,
+            BAD_GIRLS
+    ));
+
+    @Test
+    void testSuggestionsAreOrderedByVotes() {
+        assertEquals(List.of(BREAKING_BAD, BREAKING_IN), index.suggest("brea", 5));
+    }
+
+    @Test
+    void testMatchesAnyWordOfTitle() {
+        assertEquals(List.of(BREAKING_BAD, BAD_GIRLS), index.suggest("bad", 5));
+        assertEquals(List.of(VOYAGER), index.suggest("voy", 5));
+    }
+
+    @Test
+    void testPrefixIsNormalized() {
+        assertEquals(List.of(VOYAGER), index.suggest("  STAR trek:  voy", 5));
+    }
+
+    @Test
+    void testShowIsOnlySuggestedOnce() {
+        // "Breaking Bad" has two words starting with "b".
+        assertEquals(List.of(BREAKING_BAD, BREAKING_IN, BAD_GIRLS), index.suggest("b", 5));
+    }
+
+    @Test
+    void testLimit() {
+        assertEquals(List.of(BREAKING_BAD), index.suggest("b", 1));
+    }
+
+    @Test
+    void testNoMatches() {
+        assertTrue(index.suggest("zzz", 5).isEmpty());
+        assertTrue(index.suggest("", 5).isEmpty());
+        assertTrue(ShowPrefixIndex.build(List.of()).suggest("a", 5).isEmpty());
+    }
+
+    private static Show show(String id, String title, int votes) {
+        return new Show(id, title, "2000", null, 8.0, votes);
+    }
+}
@@ -0,0 +1,108 @@
+package org.aria.imdbgraph.api.ratings;
+
+import org.aria.imdbgraph.api.ratings.json.Show;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.TestInstance.Lifecycle.PER_CLASS;
+
+/**
+ * Checks that the in-memory search returns exactly what the pg_trgm query
+ * returns for the same data.
+ */
+@SpringBootTest
+@TestInstance(PER_CLASS) // So @BeforeAll can be non-static.
+class ShowSearchIndexTest {
+
+    @Autowired
+    private RatingsDb ratingsDb;
+
+    @Autowired
+    private JdbcTemplate db;
+
+    private ShowSearchIndex index;
+
+    @BeforeAll
+    void setUpData() {
+        String data = """
+                INSERT INTO imdb.show VALUES ('tt0903747', 'Breaking Bad', '2008', '2013', 9.5, 2249931);
+                INSERT INTO imdb.show VALUES ('tt1630574', 'Breaking In', '2011', '2012', 7.1, 7648);
+                INSERT INTO imdb.show VALUES ('tt2387761', 'Breaking Bad: Original Minisodes', '2009', '2011', 7.6, 1700);
+                INSERT INTO imdb.show VALUES ('tt0386676', 'The Office', '2005', '2013', 9.0, 750000);
+                INSERT INTO imdb.show VALUES ('tt0290978', 'The Office', '2001', '2003', 8.5, 140000);
+                INSERT INTO imdb.show VALUES ('tt0436992', 'Doctor Who', '2005', null, 8.6, 250000);
+                INSERT INTO imdb.show VALUES ('tt0830848', 'Doctor Who Confidential', '2005', '2011', 7.9, 2000);
+                INSERT INTO imdb.show VALUES ('tt0092455', 'Star Trek: The Next Generation', '1987', '1994', 8.7, 160000);
+                INSERT INTO imdb.show VALUES ('tt0112178', 'Star Trek: Voyager', '1995', '2001', 7.8, 90000);
+                INSERT INTO imdb.show VALUES ('tt0458290', 'Star Wars: The Clone Wars', '2008', '2020', 8.4, 120000);
+                INSERT INTO imdb.show VALUES ('tt0096697', 'The Simpsons', '1989', null, 8.7, 430000);
+                INSERT INTO imdb.show VALUES ('tt0944947', 'Game of Thrones', '2011', '2019', 9.2, 2377099);
+                INSERT INTO imdb.show VALUES ('tt11198330', 'House of the Dragon', '2022', null, 8.4, 480000);
+                INSERT INTO imdb.show VALUES ('tt0412142', 'House', '2004', '2012', 8.7, 500000);
+                INSERT INTO imdb.show VALUES ('tt0417299', 'Avatar: The Last Airbender', '2005', '2008', 9.3, 380000);
+                INSERT INTO imdb.show VALUES ('tt1695360', 'The Legend of Korra', '2012', '2014', 8.3, 150000);
+                INSERT INTO imdb.show VALUES ('tt3581920', 'The Last of Us', '2023', null, 8.7, 560000);
+                INSERT INTO imdb.show VALUES ('tt0108778', 'Friends', '1994', '2004', 8.9, 1100000);
+                INSERT INTO imdb.show VALUES ('tt1475582', 'Sherlock', '2010', '2017', 9.1, 990000);
+                INSERT INTO imdb.show VALUES ('tt0306414', 'The Wire', '2002', '2008', 9.3, 380001);
+                INSERT INTO imdb.show VALUES ('tt3032476', 'Better Call Saul', '2015', '2022', 9.0, 650000);
+                INSERT INTO imdb.show VALUES ('tt0098904', 'Seinfeld', '1989', '1998', 8.9, 350000);
+                INSERT INTO imdb.show VALUES ('tt5071412', 'Ozark', '2017', '2022', 8.5, 380002);
+                """;
+        db.execute(data);
+        index = ShowSearchIndex.build(ratingsDb.getAllShows(), 0.6);
+    }
+
+    @AfterAll
+    void wipeDb() {
+        db.execute("DELETE FROM imdb.show");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "breaking",
+            "Breaking Bad",
+            "braking bad",
+            "office",
+            "the office",
+            "doctor who",
+            "dr who",
+            "star",
+            "star trek",
+            "trek next",
+            "wars",
+            "simpson",
+            "thrones",
+            "game of throne",
+            "house",
+            "dragon",
+            "avatar",
+            "the last",
+            "last airbender",
+            "korra",
+            "friend",
+            "sherlock holmes",
+            "wire",
+            "call saul",
+            "seinfield",
+            "ozark",
+            "the",
+            "a",
+            "x",
+            "!!!",
+            "",
+    })
+    void testMatchesPgTrgm(String query) {
+        List<Show> expected = ratingsDb.searchShows(query);
+        assertEquals(expected, index.search(query, 5), "Query: " + query);
+    }
+}
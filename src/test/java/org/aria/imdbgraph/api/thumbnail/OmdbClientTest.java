@@ -0,0 +1,84 @@
+package org.aria.imdbgraph.api.thumbnail;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.aria.imdbgraph.modules.OmdbClient;
+import org.aria.imdbgraph.modules.OmdbClient.BudgetExhaustedException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class OmdbClientTest {
+
+    private static final String POSTER = "https://m.media-amazon.com/images/M/poster.jpg";
+
+    // Stand-in for OMDB, with a poster for every show.
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", this::serve);
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    void testBudgetIsExhausted() {
+        OmdbClient client = client(2, Duration.ofDays(1));
+        assertEquals(2, client.remainingBudget());
+
+        assertEquals(Optional.of(POSTER), client.getThumbnailUrl("tt0944947"));
+        assertEquals(1, client.remainingBudget());
+        assertEquals(Optional.of(POSTER), client.getThumbnailUrl("tt0903747"));
+        assertEquals(0, client.remainingBudget());
+
+        assertThrows(BudgetExhaustedException.class, () -> client.getThumbnailUrl("tt0417299"));
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    void testBudgetStartsOverWithNextWindow() throws InterruptedException {
+        Duration window = Duration.ofMillis(200);
+        OmdbClient client = client(1, window);
+        client.getThumbnailUrl("tt0944947");
+        assertThrows(BudgetExhaustedException.class, () -> client.getThumbnailUrl("tt0903747"));
+
+        Thread.sleep(window.toMillis() + 50);
+        assertEquals(1, client.remainingBudget());
+        assertEquals(Optional.of(POSTER), client.getThumbnailUrl("tt0903747"));
+        assertEquals(0, client.remainingBudget());
+        assertEquals(2, requests.get());
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            requests.incrementAndGet();
+            byte[] body = ("{\"Poster\":\"" + POSTER + "\",\"Response\":\"True\"}").getBytes(UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+        }
+    }
+
+    private OmdbClient client(int limit, Duration window) {
+        return new OmdbClient("key", "http://localhost:" + server.getAddress().getPort(), limit, window,
+                4, Duration.ofSeconds(1), new SimpleMeterRegistry());
+    }
+}
@@ -0,0 +1,84 @@
+package org.aria.imdbgraph.api.thumbnail;
+
+import org.aria.imdbgraph.modules.Bulkhead.BulkheadFullException;
+import org.aria.imdbgraph.modules.OmdbClient;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ThumbnailBackfillTest {
+
+    private static final List<String> SHOWS = List.of("tt0903747", "tt0944947", "tt0417299");
+
+    private final ThumbnailDb thumbnailDb = mock(ThumbnailDb.class);
+    private final OmdbClient omdbClient = mock(OmdbClient.class);
+
+    // 800 of 1000 calls a day, in 144 runs of 10 minutes: batches of 6.
+    private final ThumbnailBackfill backfill = new ThumbnailBackfill(thumbnailDb, omdbClient, true,
+            Duration.ofMinutes(10), 0.8);
+
+    @BeforeEach
+    void setUpBudget() {
+        when(omdbClient.getLimit()).thenReturn(1000);
+        when(omdbClient.getWindow()).thenReturn(Duration.ofDays(1));
+        when(thumbnailDb.getShowsWithoutThumbnail(anyInt())).thenReturn(SHOWS);
+    }
+
+    @Test
+    void testBatchesAreSpreadOverWindow() {
+        when(omdbClient.remainingBudget()).thenReturn(1000);
+        backfill.backfill();
+
+        verify(thumbnailDb).getShowsWithoutThumbnail(6);
+        for (String showId : SHOWS) {
+            verify(thumbnailDb).getThumbnail(showId);
+        }
+    }
+
+    @Test
+    void testUsersShareIsNeverUsed() {
+        when(omdbClient.remainingBudget()).thenReturn(203);
+        backfill.backfill();
+        verify(thumbnailDb).getShowsWithoutThumbnail(3);
+
+        when(omdbClient.remainingBudget()).thenReturn(200);
+        backfill.backfill();
+        verify(thumbnailDb, times(1)).getShowsWithoutThumbnail(anyInt());
+    }
+
+    @Test
+    void testStopsWhenUsersTakeTheBudget() {
+        // Users used up the rest of the share while the batch was running.
+        when(omdbClient.remainingBudget()).thenReturn(1000, 201, 200);
+        backfill.backfill();
+
+        verify(thumbnailDb).getThumbnail("tt0903747");
+        verify(thumbnailDb, never()).getThumbnail("tt0944947");
+    }
+
+    @Test
+    void testStopsWhenOmdbIsBusy() {
+        when(omdbClient.remainingBudget()).thenReturn(1000);
+        when(thumbnailDb.getThumbnail("tt0944947")).thenThrow(new BulkheadFullException("omdb"));
+        backfill.backfill();
+
+        verify(thumbnailDb, never()).getThumbnail("tt0417299");
+    }
+
+    @Test
+    void testDisabled() {
+        new ThumbnailBackfill(thumbnailDb, omdbClient, false, Duration.ofMinutes(10), 0.8).backfill();
+        verify(thumbnailDb, never()).getShowsWithoutThumbnail(anyInt());
+        verify(thumbnailDb, never()).getThumbnail(anyString());
+    }
+}
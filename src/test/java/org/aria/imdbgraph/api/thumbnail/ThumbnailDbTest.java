@@ -0,0 +1,103 @@
+package org.aria.imdbgraph.api.thumbnail;
+
+import org.aria.imdbgraph.api.thumbnail.ThumbnailDb.Thumbnail;
+import org.aria.imdbgraph.modules.OmdbClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@SpringBootTest
+class ThumbnailDbTest {
+
+    private static final String URL = "https://m.media-amazon.com/images/M/poster.jpg";
+
+    @Autowired
+    private ThumbnailDb thumbnailDb;
+
+    @Autowired
+    private JdbcTemplate db;
+
+    @MockitoBean
+    private OmdbClient omdbClient;
+
+    @BeforeEach
+    void setUpData() {
+        db.execute("INSERT INTO imdb.show VALUES ('tt0944947', 'Game of Thrones', '2011', '2019', 9.2, 2000000)");
+        db.execute("INSERT INTO imdb.show VALUES ('tt0903747', 'Breaking Bad', '2008', '2013', 9.5, 2100000)");
+    }
+
+    @AfterEach
+    void wipeDb() {
+        db.execute("DELETE FROM imdb.thumbnails");
+        db.execute("DELETE FROM imdb.show");
+    }
+
+    @Test
+    void testConcurrentMissesFetchOnce() throws Exception {
+        int callers = 20;
+        CountDownLatch started = new CountDownLatch(callers);
+        when(omdbClient.getThumbnailUrl("tt0944947")).thenAnswer(_ -> {
+            // Hold the fetch until every caller has made its request. One that
+            // gets there after the fetch completes finds the stored thumbnail.
+            started.await();
+            return Optional.of(URL);
+        });
+
+        List<Future<Optional<String>>> results = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < callers; i++) {
+                results.add(executor.submit(() -> {
+                    started.countDown();
+                    return thumbnailDb.getThumbnailUrl("tt0944947");
+                }));
+            }
+        }
+
+        for (Future<Optional<String>> result : results) {
+            assertEquals(Optional.of(URL), result.get());
+        }
+        verify(omdbClient, times(1)).getThumbnailUrl("tt0944947");
+        assertEquals(1, db.queryForObject("SELECT count(*) FROM imdb.thumbnails", Integer.class));
+    }
+
+    @Test
+    void testMissingPosterIsRemembered() {
+        when(omdbClient.getThumbnailUrl("tt0903747")).thenReturn(Optional.empty());
+
+        assertEquals(Optional.empty(), thumbnailDb.getThumbnailUrl("tt0903747"));
+        assertEquals(Optional.empty(), thumbnailDb.getThumbnailUrl("tt0903747"));
+
+        verify(omdbClient, times(1)).getThumbnailUrl("tt0903747");
+        String stored = db.queryForObject(
+                "SELECT thumbnail_url FROM imdb.thumbnails WHERE imdb_id = 'tt0903747'", String.class);
+        assertNull(stored);
+    }
+
+    @Test
+    void testUnknownShowSkipsOmdb() {
+        Thumbnail thumbnail = thumbnailDb.getThumbnail("tt0000001");
+
+        assertEquals(Thumbnail.Status.UNKNOWN_SHOW, thumbnail.status());
+        verify(omdbClient, never()).getThumbnailUrl(anyString());
+    }
+}
@@ -0,0 +1,63 @@
+package org.aria.imdbgraph.benchmark;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Latencies (in nanoseconds) of one endpoint.
+ */
+final class Latencies {
+
+    private long[] samples = new long[1024];
+    private int count = 0;
+    private int errors = 0;
+
+    void add(long nanos, int status) {
+        if (status != 200) {
+            errors++;
+        }
+        if (count == samples.length) {
+            samples = Arrays.copyOf(samples, count * 2);
+        }
+        samples[count++] = nanos;
+    }
+
+    void addAll(Latencies other) {
+        for (int i = 0; i < other.count; i++) {
+            add(other.samples[i], 200);
+        }
+        errors += other.errors;
+    }
+
+    int errors() {
+        return errors;
+    }
+
+    long percentileMicros(double p) {
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        return percentile(sorted, p);
+    }
+
+    Map<String, Object> summary() {
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("requests", count);
+        summary.put("errors", errors);
+        summary.put("p50Micros", percentile(sorted, 0.50));
+        summary.put("p99Micros", percentile(sorted, 0.99));
+        summary.put("p999Micros", percentile(sorted, 0.999));
+        summary.put("maxMicros", count == 0 ? 0 : sorted[count - 1] / 1_000);
+        return summary;
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.clamp(index, 0, sorted.length - 1)] / 1_000;
+    }
+}
@@ -0,0 +1,208 @@
+package org.aria.imdbgraph.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.aria.imdbgraph.benchmark.SyntheticImdbDataset.Dataset;
+import org.aria.imdbgraph.benchmark.SyntheticImdbDataset.Shape;
+import org.aria.imdbgraph.modules.ImdbDataScraper;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.TestInstance.Lifecycle.PER_CLASS;
+import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
+import static org.springframework.test.jdbc.JdbcTestUtils.deleteFromTables;
+
+/**
+ * End-to-end benchmark: ingests a synthetic IMDB-sized dataset (see
+ * {@link SyntheticImdbDataset}) into a Testcontainers database, then hits
+ * {@code /ratings} and {@code /search} from many clients at once.
+ * <p>
+ * Not part of {@code ./gradlew test}. Run it with {@code ./gradlew
+ * loadBenchmark}; the size of the run is set with {@code -Pbenchmark.*}
+ * properties (see {@link #setting}) and any {@code imdbgraph.*} property can
+ * be passed the same way to compare configurations. Ingest stage timings and
+ * latency percentiles are logged and written as JSON to
+ * {@code benchmark.results}.
+ */
+@Tag("benchmark")
+@SpringBootTest(webEnvironment = RANDOM_PORT)
+@TestInstance(PER_CLASS) // So @AfterAll can be non-static.
+class LoadBenchmark {
+
+    private static final Logger logger = LogManager.getLogger(LoadBenchmark.class);
+
+    private static Path dataDir;
+    private static Dataset dataset;
+
+    @Autowired
+    private ImdbDataScraper scraper;
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @LocalServerPort
+    private int port;
+
+    @DynamicPropertySource
+    static void generateDataset(DynamicPropertyRegistry registry) throws IOException {
+        Shape shape = new Shape(
+                setting("benchmark.other-titles", 3_000_000),
+                setting("benchmark.shows", 50_000),
+                setting("benchmark.episodes", 2_000_000),
+                setting("benchmark.soaps", 5),
+                setting("benchmark.seed", 42)
+        );
+        dataDir = Files.createTempDirectory("imdbgraph-benchmark");
+        long start = System.nanoTime();
+        dataset = SyntheticImdbDataset.write(dataDir, shape);
+        logger.info("Generated {} titles, {} shows and {} episodes in {} ms",
+                dataset.titles(),
+                dataset.showIds().size(),
+                dataset.episodes(),
+                (System.nanoTime() - start) / 1_000_000);
+
+        // Ingest the generated files instead of downloading from IMDB.
+        registry.add("imdbgraph.ingest.keep-downloads-dir", dataDir::toString);
+        registry.add("imdbgraph.ingest.replay-downloads", () -> "true");
+    }
+
+    @Test
+    void ingestAndServe() throws Exception {
+        long start = System.nanoTime();
+        scraper.updateDatabase();
+        Duration ingest = Duration.ofNanos(System.nanoTime() - start);
+        logger.info("Ingest took {} ms: {}", ingest.toMillis(), scraper.getLastRunTimings());
+
+        Map<String, Object> results = new LinkedHashMap<>();
+        results.put("finishedAt", Instant.now().toString());
+        results.put("titles", dataset.titles());
+        results.put("shows", dataset.showIds().size());
+        results.put("episodes", dataset.episodes());
+        Map<String, Long> ingestMillis = new LinkedHashMap<>();
+        ingestMillis.put("total", ingest.toMillis());
+        scraper.getLastRunTimings().forEach((stage, time) -> ingestMillis.put(stage, time.toMillis()));
+        results.put("ingestMillis", ingestMillis);
+
+        int clients = setting("benchmark.clients", 32);
+        Duration warmup = Duration.ofSeconds(setting("benchmark.warmup-seconds", 10));
+        Duration duration = Duration.ofSeconds(setting("benchmark.duration-seconds", 30));
+        drive(clients, warmup); // Results thrown away.
+        Map<String, Latencies> latencies = drive(clients, duration);
+
+        Map<String, Object> endpoints = new LinkedHashMap<>();
+        latencies.forEach((endpoint, l) -> {
+            logger.info("{}: {}", endpoint, l.summary());
+            endpoints.put(endpoint, l.summary());
+        });
+        results.put("clients", clients);
+        results.put("endpoints", endpoints);
+
+        Path output = Path.of(System.getProperty("benchmark.results", "build/results/load/results.json"));
+        Files.createDirectories(output.toAbsolutePath().getParent());
+        objectMapper.writerWithDefaultPrettyPrinter().writeValue(output.toFile(), results);
+        logger.info("Results written to {}", output.toAbsolutePath());
+
+        latencies.values().forEach(l -> assertEquals(0, l.errors(), "Failed requests"));
+    }
+
+    @AfterAll
+    void cleanUp() throws IOException {
+        deleteFromTables(jdbc, "imdb.episode");
+        deleteFromTables(jdbc, "imdb.show");
+        try (var files = Files.list(dataDir)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dataDir);
+    }
+
+    /**
+     * Every client sends requests back to back for the given time: mostly
+     * ratings of random shows (sometimes one of the huge soaps), plus some
+     * searches.
+     */
+    private Map<String, Latencies> drive(int clients, Duration duration) throws Exception {
+        long deadline = System.nanoTime() + duration.toNanos();
+        try (HttpClient http = HttpClient.newBuilder().executor(Executors.newVirtualThreadPerTaskExecutor()).build();
+             ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<Map<String, Latencies>>> futures = new ArrayList<>();
+            for (int i = 0; i < clients; i++) {
+                Random random = new Random(i);
+                futures.add(executor.submit(() -> {
+                    Map<String, Latencies> local = new LinkedHashMap<>();
+                    while (System.nanoTime() < deadline) {
+                        String endpoint;
+                        String path;
+                        int roll = random.nextInt(100);
+                        if (roll < 2 && !dataset.soapIds().isEmpty()) {
+                            endpoint = "/ratings (soap)";
+                            path = "/ratings/" + pick(dataset.soapIds(), random);
+                        } else if (roll < 80) {
+                            endpoint = "/ratings";
+                            path = "/ratings/" + pick(dataset.showIds(), random);
+                        } else {
+                            endpoint = "/search";
+                            path = "/search?q=" + URLEncoder.encode(SyntheticImdbDataset.searchTerm(random), UTF_8);
+                        }
+                        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + path)).build();
+                        long start = System.nanoTime();
+                        int status = http.send(request, BodyHandlers.discarding()).statusCode();
+                        local.computeIfAbsent(endpoint, _ -> new Latencies()).add(System.nanoTime() - start, status);
+                    }
+                    return local;
+                }));
+            }
+            Map<String, Latencies> merged = new LinkedHashMap<>();
+            for (Future<Map<String, Latencies>> future : futures) {
+                future.get().forEach((endpoint, l) -> merged.computeIfAbsent(endpoint, _ -> new Latencies()).addAll(l));
+            }
+            return merged;
+        }
+    }
+
+    private static String pick(List<String> ids, Random random) {
+        return ids.get(random.nextInt(ids.size()));
+    }
+
+    /**
+     * Benchmark setting from a system property (forwarded from -P by Gradle).
+     */
+    static int setting(String name, int defaultValue) {
+        String value = System.getProperty(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+}
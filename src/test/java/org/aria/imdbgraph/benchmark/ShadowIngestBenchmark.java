@@ -0,0 +1,160 @@
+package org.aria.imdbgraph.benchmark;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.aria.imdbgraph.benchmark.SyntheticImdbDataset.Dataset;
+import org.aria.imdbgraph.benchmark.SyntheticImdbDataset.Shape;
+import org.aria.imdbgraph.modules.ImdbDataScraper;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BooleanSupplier;
+
+import static org.aria.imdbgraph.benchmark.LoadBenchmark.setting;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.TestInstance.Lifecycle.PER_CLASS;
+import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
+import static org.springframework.test.jdbc.JdbcTestUtils.deleteFromTables;
+
+/**
+ * Checks that a SHADOW ingest doesn't slow down readers: the p99 of database
+ * backed reads (batch {@code /ratings}, which is never cached) while an ingest
+ * runs has to stay within {@code benchmark.max-p99-ratio} of the p99 without
+ * one (or within {@code benchmark.p99-slack-ms} of it, so a very fast
+ * baseline doesn't make the check flaky), and no read may fail.
+ * <p>
+ * Run with {@code ./gradlew loadBenchmark --tests '*ShadowIngestBenchmark*'}.
+ */
+@Tag("benchmark")
+@SpringBootTest(webEnvironment = RANDOM_PORT, properties = "imdbgraph.ingest.strategy=SHADOW")
+@TestInstance(PER_CLASS) // So @AfterAll can be non-static.
+class ShadowIngestBenchmark {
+
+    private static final Logger logger = LogManager.getLogger(ShadowIngestBenchmark.class);
+
+    private static Path dataDir;
+    private static Dataset dataset;
+
+    @Autowired
+    private ImdbDataScraper scraper;
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    @LocalServerPort
+    private int port;
+
+    @DynamicPropertySource
+    static void generateDataset(DynamicPropertyRegistry registry) throws IOException {
+        Shape shape = new Shape(
+                setting("benchmark.other-titles", 500_000),
+                setting("benchmark.shows", 20_000),
+                setting("benchmark.episodes", 1_000_000),
+                setting("benchmark.soaps", 2),
+                setting("benchmark.seed", 42)
+        );
+        dataDir = Files.createTempDirectory("imdbgraph-shadow-benchmark");
+        dataset = SyntheticImdbDataset.write(dataDir, shape);
+        registry.add("imdbgraph.ingest.keep-downloads-dir", dataDir::toString);
+        registry.add("imdbgraph.ingest.replay-downloads", () -> "true");
+    }
+
+    @Test
+    void readLatencyStaysFlatDuringIngest() throws Exception {
+        scraper.updateDatabase(); // Something to read.
+
+        int clients = setting("benchmark.clients", 16);
+        Duration duration = Duration.ofSeconds(setting("benchmark.duration-seconds", 20));
+        long warmupEnd = System.nanoTime() + duration.toNanos();
+        read(clients, () -> System.nanoTime() > warmupEnd); // Results thrown away.
+        long measureEnd = System.nanoTime() + duration.toNanos();
+        Latencies baseline = read(clients, () -> System.nanoTime() > measureEnd);
+
+        Latencies duringIngest;
+        try (ExecutorService ingest = Executors.newSingleThreadExecutor()) {
+            Future<?> run = ingest.submit(scraper::updateDatabase);
+            duringIngest = read(clients, run::isDone);
+            run.get(); // Rethrows if the ingest failed.
+        }
+        logger.info("Without ingest: {}", baseline.summary());
+        logger.info("During ingest: {} (stages: {})", duringIngest.summary(), scraper.getLastRunTimings());
+
+        assertEquals(0, baseline.errors() + duringIngest.errors(), "Failed requests");
+        long baselineP99 = baseline.percentileMicros(0.99);
+        long allowed = Math.max(
+                baselineP99 * setting("benchmark.max-p99-ratio", 3),
+                baselineP99 + setting("benchmark.p99-slack-ms", 50) * 1_000L
+        );
+        long p99 = duringIngest.percentileMicros(0.99);
+        assertTrue(p99 <= allowed, "p99 during ingest was " + p99 + "us, allowed " + allowed + "us");
+    }
+
+    @AfterAll
+    void cleanUp() throws IOException {
+        deleteFromTables(jdbc, "imdb.episode");
+        deleteFromTables(jdbc, "imdb.show");
+        try (var files = Files.list(dataDir)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dataDir);
+    }
+
+    /**
+     * Every client asks for batches of three random shows back to back until
+     * {@code done}.
+     */
+    private Latencies read(int clients, BooleanSupplier done) throws Exception {
+        try (HttpClient http = HttpClient.newBuilder().executor(Executors.newVirtualThreadPerTaskExecutor()).build();
+             ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<Latencies>> futures = new ArrayList<>();
+            for (int i = 0; i < clients; i++) {
+                Random random = new Random(i);
+                futures.add(executor.submit(() -> {
+                    Latencies local = new Latencies();
+                    while (!done.getAsBoolean()) {
+                        String path = "/ratings?ids=" + pick(random) + "," + pick(random) + "," + pick(random);
+                        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + path)).build();
+                        long start = System.nanoTime();
+                        int status = http.send(request, BodyHandlers.discarding()).statusCode();
+                        local.add(System.nanoTime() - start, status);
+                    }
+                    return local;
+                }));
+            }
+            Latencies merged = new Latencies();
+            for (Future<Latencies> future : futures) {
+                merged.addAll(future.get());
+            }
+            return merged;
+        }
+    }
+
+    private static String pick(Random random) {
+        return dataset.showIds().get(random.nextInt(dataset.showIds().size()));
+    }
+}
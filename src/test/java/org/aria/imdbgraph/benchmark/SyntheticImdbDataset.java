@@ -0,0 +1,178 @@
+package org.aria.imdbgraph.benchmark;
+
+import org.aria.imdbgraph.modules.ImdbFileDownloader.ImdbFile;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Writes fake {@code title.basics}, {@code title.episode} and
+ * {@code title.ratings} files, gzipped and named like the real ones, so they
+ * can be ingested with {@code imdbgraph.ingest.replay-downloads}.
+ * <p>
+ * The data is skewed like IMDB's: most titles aren't TV at all, most shows
+ * have a few dozen episodes, and a handful of soaps have 10,000+. The output
+ * only depends on the {@link Shape}, so runs on different commits ingest the
+ * exact same files.
+ */
+public final class SyntheticImdbDataset {
+
+    private static final String[] WORDS = {
+            "the", "of", "night", "house", "star", "doctor", "law", "family", "city", "love", "war", "dark",
+            "blue", "king", "queen", "secret", "life", "world", "dragon", "crime", "days", "our", "young",
+            "bold", "hospital", "general", "office", "trek", "wire", "breaking", "bad", "game", "thrones",
+            "simpsons", "friends", "lost", "heroes", "sopranos", "mad", "men", "wild", "west", "east",
+    };
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private SyntheticImdbDataset() {
+    }
+
+    /**
+     * Size of the generated dataset.
+     *
+     * @param otherTitles Movies, shorts, video games, etc. that the ingest
+     *                    throws away.
+     * @param shows       TV series and mini-series.
+     * @param episodes    Rough number of episodes spread over all the shows.
+     * @param soaps       Shows with 10,000 to 15,000 episodes (counted in
+     *                    {@code shows}, not in {@code episodes}).
+     */
+    public record Shape(int otherTitles, int shows, int episodes, int soaps, long seed) {
+    }
+
+    /**
+     * What was written, so the benchmark knows what to query for.
+     */
+    public record Dataset(List<String> showIds, List<String> soapIds, long titles, long episodes) {
+    }
+
+    public static Dataset write(Path dir, Shape shape) throws IOException {
+        Files.createDirectories(dir);
+        Random random = new Random(shape.seed());
+        try (Writer titles = gzipWriter(dir.resolve(ImdbFile.TITLES.getName()));
+             Writer episodes = gzipWriter(dir.resolve(ImdbFile.EPISODES.getName()));
+             Writer ratings = gzipWriter(dir.resolve(ImdbFile.RATINGS.getName()))) {
+            titles.write("tconst\ttitleType\tprimaryTitle\toriginalTitle\tisAdult\tstartYear\tendYear\truntimeMinutes\tgenres\n");
+            episodes.write("tconst\tparentTconst\tseasonNumber\tepisodeNumber\n");
+            ratings.write("tconst\taverageRating\tnumVotes\n");
+
+            long nextId = 1;
+            for (int i = 0; i < shape.otherTitles(); i++) {
+                String id = id(nextId++);
+                String type = i % 5 == 0 ? "short" : i % 7 == 0 ? "videoGame" : "movie";
+                writeTitle(titles, id, type, title(random), year(random), null);
+                maybeRate(ratings, random, id, 0.3);
+            }
+
+            // Pareto-distributed episode counts, scaled so they add up to
+            // roughly the requested number of episodes.
+            int regularShows = shape.shows() - shape.soaps();
+            double[] weights = new double[Math.max(regularShows, 0)];
+            double total = 0;
+            for (int i = 0; i < weights.length; i++) {
+                weights[i] = Math.min(5_000, 1 / Math.pow(1 - random.nextDouble(), 1 / 1.2));
+                total += weights[i];
+            }
+
+            List<String> showIds = new ArrayList<>(shape.shows());
+            List<String> soapIds = new ArrayList<>(shape.soaps());
+            long titleCount = shape.otherTitles();
+            long episodeCount = 0;
+            for (int i = 0; i < shape.shows(); i++) {
+                boolean soap = i < shape.soaps();
+                int count = soap
+                        ? 10_000 + random.nextInt(5_001)
+                        : (int) Math.round(weights[i - shape.soaps()] / total * shape.episodes());
+                int perSeason = soap ? 250 : 6 + random.nextInt(19);
+
+                String showId = id(nextId++);
+                showIds.add(showId);
+                if (soap) {
+                    soapIds.add(showId);
+                }
+                String startYear = year(random);
+                String endYear = random.nextInt(3) == 0 ? null : startYear;
+                writeTitle(titles, showId, random.nextInt(10) == 0 ? "tvMiniSeries" : "tvSeries",
+                        title(random), startYear, endYear);
+                maybeRate(ratings, random, showId, 0.8);
+
+                for (int e = 0; e < count; e++) {
+                    String episodeId = id(nextId++);
+                    writeTitle(titles, episodeId, "tvEpisode", "Episode #" + (e + 1), startYear, null);
+                    // Like IMDB, a few episodes have no season/episode number.
+                    if (random.nextInt(50) == 0) {
+                        episodes.write(episodeId + "\t" + showId + "\t\\N\t\\N\n");
+                    } else {
+                        episodes.write(episodeId + "\t" + showId + "\t" + (e / perSeason + 1) + "\t" + (e % perSeason + 1) + "\n");
+                    }
+                    maybeRate(ratings, random, episodeId, 0.6);
+                }
+                titleCount += 1 + count;
+                episodeCount += count;
+            }
+            return new Dataset(showIds, soapIds, titleCount, episodeCount);
+        }
+    }
+
+    /**
+     * A word that appears in many generated titles, to search for.
+     */
+    public static String searchTerm(Random random) {
+        return WORDS[random.nextInt(WORDS.length)];
+    }
+
+    private static void writeTitle(Writer out, String id, String type, String title, String startYear, String endYear)
+            throws IOException {
+        out.write(id + "\t" + type + "\t" + title + "\t" + title + "\t0\t" + startYear + "\t"
+                  + (endYear == null ? "\\N" : endYear) + "\t\\N\tDrama\n");
+    }
+
+    private static void maybeRate(Writer out, Random random, String id, double probability) throws IOException {
+        if (random.nextDouble() >= probability) {
+            return;
+        }
+        double rating = Math.round(10 + random.nextDouble() * 90) / 10.0;
+        // Votes are heavily skewed too: most titles have a handful.
+        int votes = (int) Math.min(3_000_000, 5 / Math.pow(1 - random.nextDouble(), 1 / 0.7));
+        out.write(id + "\t" + rating + "\t" + votes + "\n");
+    }
+
+    private static String title(Random random) {
+        StringBuilder title = new StringBuilder();
+        int words = 1 + random.nextInt(4);
+        for (int i = 0; i < words; i++) {
+            String word = WORDS[random.nextInt(WORDS.length)];
+            if (i > 0) {
+                title.append(' ');
+            }
+            title.append(Character.toUpperCase(word.charAt(0))).append(word, 1, word.length());
+        }
+        return title.toString();
+    }
+
+    private static String year(Random random) {
+        return Integer.toString(1950 + random.nextInt(75));
+    }
+
+    private static String id(long n) {
+        return n < 10_000_000 ? String.format("tt%07d", n) : "tt" + n;
+    }
+
+    private static Writer gzipWriter(Path path) throws IOException {
+        OutputStream out = new GZIPOutputStream(Files.newOutputStream(path), BUFFER_SIZE);
+        return new BufferedWriter(new OutputStreamWriter(out, UTF_8), BUFFER_SIZE);
+    }
+}
@@ -0,0 +1,202 @@
+package org.aria.imdbgraph.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.aria.imdbgraph.benchmark.LoadBenchmark.setting;
+import static org.junit.jupiter.api.TestInstance.Lifecycle.PER_CLASS;
+import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
+import static org.springframework.test.jdbc.JdbcTestUtils.deleteFromTables;
+
+/**
+ * Compares Tomcat's platform thread pool with virtual threads when slow
+ * thumbnail lookups (OMDB is replaced by a local server that takes
+ * {@code benchmark.omdb-delay-ms} to answer) are mixed with ratings traffic.
+ * Each subclass runs the same traffic against one threading model, and
+ * writes its throughput and latency percentiles to
+ * {@code build/results/threading/}.
+ * <p>
+ * Run with {@code ./gradlew loadBenchmark --tests '*ThreadingBenchmark*'}.
+ */
+@Tag("benchmark")
+@TestInstance(PER_CLASS) // So @BeforeAll can be non-static.
+abstract class ThreadingBenchmark {
+
+    private static final Logger logger = LogManager.getLogger(ThreadingBenchmark.class);
+
+    private static final int SHOWS = 1_000;
+
+    private static HttpServer omdb;
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @LocalServerPort
+    private int port;
+
+    @SpringBootTest(webEnvironment = RANDOM_PORT, properties = "spring.threads.virtual.enabled=false")
+    static class PlatformThreads extends ThreadingBenchmark {
+    }
+
+    @SpringBootTest(webEnvironment = RANDOM_PORT, properties = "spring.threads.virtual.enabled=true")
+    static class VirtualThreads extends ThreadingBenchmark {
+    }
+
+    @DynamicPropertySource
+    static void slowOmdb(DynamicPropertyRegistry registry) throws IOException {
+        int delay = setting("benchmark.omdb-delay-ms", 1_000);
+        omdb = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        omdb.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        omdb.createContext("/", exchange -> {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = "{\"Response\":\"False\"}".getBytes(UTF_8); // No poster.
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        omdb.start();
+
+        InetSocketAddress address = omdb.getAddress();
+        registry.add("omdb.api.url", () -> "http://localhost:" + address.getPort());
+        registry.add("omdb.api.limit", () -> Integer.MAX_VALUE);
+        registry.add("imdbgraph.thumbnails.no-poster-ttl", () -> "0s"); // Ask OMDB every time.
+    }
+
+    @BeforeAll
+    void setUpData() {
+        jdbc.execute("""
+                INSERT INTO imdb.show
+                SELECT 'tt' || lpad(s::TEXT, 7, '0'), 'Show ' || s, '2000', NULL, 8.0, 1000
+                FROM generate_series(1, %1$d) s;
+                
+                INSERT INTO imdb.episode
+                SELECT 'tt' || lpad(s::TEXT, 7, '0'), 'tt' || (1000000 + s * 100 + e), 'Episode ' || e,
+                       1 + e / 10, 1 + e %% 10, 7.5, 100
+                FROM generate_series(1, %1$d) s, generate_series(0, 49) e;
+                """.formatted(SHOWS));
+    }
+
+    @AfterAll
+    void cleanUp() {
+        deleteFromTables(jdbc, "imdb.thumbnails", "imdb.episode", "imdb.show");
+        omdb.stop(0);
+    }
+
+    @Test
+    void mixedTraffic() throws Exception {
+        int clients = setting("benchmark.clients", 400);
+        Duration warmup = Duration.ofSeconds(setting("benchmark.warmup-seconds", 10));
+        Duration duration = Duration.ofSeconds(setting("benchmark.duration-seconds", 30));
+        drive(clients, warmup); // Results thrown away.
+        Map<String, Latencies> latencies = drive(clients, duration);
+
+        String mode = getClass().getSimpleName();
+        Map<String, Object> results = new LinkedHashMap<>();
+        results.put("mode", mode);
+        results.put("clients", clients);
+        results.put("durationSeconds", duration.toSeconds());
+        Map<String, Object> endpoints = new LinkedHashMap<>();
+        latencies.forEach((endpoint, l) -> {
+            Map<String, Object> summary = l.summary();
+            summary.put("throughputPerSecond", (int) summary.get("requests") / duration.toSeconds());
+            logger.info("{} {}: {}", mode, endpoint, summary);
+            endpoints.put(endpoint, summary);
+        });
+        results.put("endpoints", endpoints);
+
+        Path output = Path.of("build/results/threading/" + mode + ".json");
+        Files.createDirectories(output.toAbsolutePath().getParent());
+        objectMapper.writerWithDefaultPrettyPrinter().writeValue(output.toFile(), results);
+        logger.info("Results written to {}", output.toAbsolutePath());
+    }
+
+    /**
+     * Every client sends requests back to back: 80% ratings (half of them
+     * batches, which always go to the database) and 20% thumbnails of shows
+     * that have none, which always go to (slow) OMDB.
+     */
+    private Map<String, Latencies> drive(int clients, Duration duration) throws Exception {
+        long deadline = System.nanoTime() + duration.toNanos();
+        try (HttpClient http = HttpClient.newBuilder().executor(Executors.newVirtualThreadPerTaskExecutor()).build();
+             ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<Map<String, Latencies>>> futures = new ArrayList<>();
+            for (int i = 0; i < clients; i++) {
+                Random random = new Random(i);
+                futures.add(executor.submit(() -> {
+                    Map<String, Latencies> local = new LinkedHashMap<>();
+                    while (System.nanoTime() < deadline) {
+                        String endpoint;
+                        String path;
+                        int roll = random.nextInt(100);
+                        if (roll < 40) {
+                            endpoint = "/ratings/{id}";
+                            path = "/ratings/" + showId(random);
+                        } else if (roll < 80) {
+                            endpoint = "/ratings?ids=";
+                            path = "/ratings?ids=" + showId(random) + "," + showId(random) + "," + showId(random);
+                        } else {
+                            endpoint = "/thumbnail/{id}";
+                            path = "/thumbnail/" + showId(random);
+                        }
+                        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + path)).build();
+                        long start = System.nanoTime();
+                        int status = http.send(request, BodyHandlers.discarding()).statusCode();
+                        local.computeIfAbsent(endpoint, _ -> new Latencies()).add(System.nanoTime() - start, status);
+                    }
+                    return local;
+                }));
+            }
+            Map<String, Latencies> merged = new LinkedHashMap<>();
+            for (Future<Map<String, Latencies>> future : futures) {
+                future.get().forEach((endpoint, l) -> merged.computeIfAbsent(endpoint, _ -> new Latencies()).addAll(l));
+            }
+            return merged;
+        }
+    }
+
+    private static String showId(Random random) {
+        return "tt" + String.format("%07d", 1 + random.nextInt(SHOWS));
+    }
+}
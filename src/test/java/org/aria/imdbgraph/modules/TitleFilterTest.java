@@ -0,0 +1,103 @@
+package org.aria.imdbgraph.modules;
+
+import org.junit.jupiter.api.Test;
+import org.postgresql.copy.CopyIn;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.sql.SQLException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class TitleFilterTest {
+
+    private static final String SHOW =
+            "tt0944947\ttvSeries\tGame of Thrones\tGame of Thrones\t0\t2011\t2019\t57\tAction,Adventure,Drama";
+    private static final String MINI_SERIES =
+            "tt0185906\ttvMiniSeries\tBand of Brothers\tBand of Brothers\t0\t2001\t2001\t594\tDrama,History,War";
+    private static final String EPISODE =
+            "tt1480055\ttvEpisode\tWinter Is Coming\tWinter Is Coming\t0\t2011\t\\N\t61\tAction,Adventure,Drama";
+    private static final String MOVIE =
+            "tt0133093\tmovie\tThe Matrix\tThe Matrix\t0\t1999\t\\N\t136\tAction,Sci-Fi";
+    private static final String SHORT =
+            "tt0000001\tshort\tCarmencita\tCarmencita\t0\t1894\t\\N\t1\tDocumentary,Short";
+
+    private final TitleFilter filter = new TitleFilter();
+
+    @Test
+    void testShowsAreProjected() throws IOException {
+        StringBuilder out = new StringBuilder();
+        assertTrue(filter.project(SHOW, out));
+        assertTrue(filter.project(MINI_SERIES, out));
+        assertEquals("""
+                tt0944947\ttvSeries\tGame of Thrones\t2011\t2019\tAction,Adventure,Drama
+                tt0185906\ttvMiniSeries\tBand of Brothers\t2001\t2001\tDrama,History,War
+                """, out.toString());
+    }
+
+    @Test
+    void testEpisodesHaveNoGenres() throws IOException {
+        StringBuilder out = new StringBuilder();
+        assertTrue(filter.project(EPISODE, out));
+        assertEquals("tt1480055\ttvEpisode\tWinter Is Coming\t2011\t\\N\t\\N\n", out.toString());
+    }
+
+    @Test
+    void testOtherTitlesAreDropped() throws IOException {
+        StringBuilder out = new StringBuilder();
+        assertFalse(filter.project(MOVIE, out));
+        assertFalse(filter.project(SHORT, out));
+        assertEquals("", out.toString());
+    }
+
+    @Test
+    void testMissingColumns() {
+        String row = "tt0944947\ttvSeries\tGame of Thrones";
+        assertThrows(IOException.class, () -> filter.project(row, new StringBuilder()));
+    }
+
+    @Test
+    void testCopyCountsRows() throws IOException, SQLException {
+        ByteArrayOutputStream copied = new ByteArrayOutputStream();
+        CopyIn copy = mock(CopyIn.class);
+        doAnswer(call -> {
+            byte[] bytes = call.getArgument(0);
+            int offset = call.getArgument(1);
+            int length = call.getArgument(2);
+            copied.write(bytes, offset, length);
+            return null;
+        }).when(copy).writeToCopy(any(byte[].class), anyInt(), anyInt());
+
+        String file = String.join("\n", SHOW, MOVIE, EPISODE, SHORT, MINI_SERIES) + "\n";
+        TitleFilter.Counts counts = filter.copy(new BufferedReader(new StringReader(file)), copy);
+
+        assertEquals(new TitleFilter.Counts(5, 3), counts);
+        assertEquals(2, counts.dropped());
+        assertEquals(3, copied.toString(UTF_8).lines().count());
+        verify(copy).endCopy();
+    }
+
+    @Test
+    void testCopyIsCancelledOnBadRow() throws SQLException {
+        CopyIn copy = mock(CopyIn.class);
+        when(copy.isActive()).thenReturn(true);
+
+        String file = SHOW + "\nnot a row\n";
+        assertThrows(IOException.class, () -> filter.copy(new BufferedReader(new StringReader(file)), copy));
+        verify(copy).cancelCopy();
+        verify(copy, never()).endCopy();
+    }
+}